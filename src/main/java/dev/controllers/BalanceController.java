@@ -0,0 +1,131 @@
+package dev.controllers;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import dev.schemas.BalancesResponse;
+import dev.schemas.ServerError;
+import dev.service.BalanceHistoryService;
+import dev.service.BalanceQueryService;
+
+/*
+ * This is the controller responsible for handling the /balances endpoints,
+ * the read-only counterparts of /load and /authorization. It maps the
+ * endpoints to the service that answers them from memory, and the
+ * point-in-time balances of /users/{userId}/balances to the one that
+ * reconstructs them from the events.
+ */
+
+@RestController
+@RequestMapping("/")
+public class BalanceController {
+
+    @Autowired
+    private BalanceQueryService balanceQueryService;
+
+    @Autowired
+    private BalanceHistoryService balanceHistoryService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @param userId
+     * @param currency optional, limits the response to this currency.
+     * @return ResponseEntity<BalancesResponse>
+     *
+     * This function sets up the endpoint "/balances/{userId}" such that it
+     * accepts GET requests and returns the user's current balances. Nothing is
+     * written, so polling a balance is cheap and leaves no events behind.
+     */
+    @GetMapping("/balances/{userId}")
+    public ResponseEntity<BalancesResponse> balances(@PathVariable String userId,
+    @RequestParam(required = false) String currency)
+    {
+        return ResponseEntity.ok().body(balanceQueryService.getBalances(userId, currency));
+    }
+
+    /**
+     * @param userIds
+     * @param currency optional, limits each user's balances to this currency.
+     * @return ResponseEntity<StreamingResponseBody>, a JSON array with a
+     * BalancesResponse per user in the order of the ids, or a ServerError.
+     *
+     * This function sets up the endpoint "/balances/lookup", which accepts a
+     * POST of a JSON array of user ids (too many for a URL) and returns all of
+     * their balances as of the same moment. The balances are read when the
+     * request arrives and the response is written out user by user, rather
+     * than built in full first.
+     */
+    @PostMapping(value = "/balances/lookup", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> lookup(@RequestBody List<String> userIds,
+    @RequestParam(required = false) String currency)
+    {
+        Stream<BalancesResponse> balances;
+
+        try
+        {
+            balances = balanceQueryService.lookup(userIds, currency);
+        }
+        catch (IllegalArgumentException e)
+        {
+            ServerError error = new ServerError(e.getMessage());
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(out, error));
+        }
+
+        // Let the output stream decide when to flush instead of flushing after every user.
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out))
+            {
+                generator.writeStartArray();
+
+                for (BalancesResponse user : (Iterable<BalancesResponse>) balances::iterator)
+                {
+                    writer.writeValue(generator, user);
+                }
+
+                generator.writeEndArray();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * @param userId
+     * @param asOf an ISO-8601 instant, e.g. "2024-03-01T00:00:00Z".
+     * @return ResponseEntity<BalancesResponse>
+     *
+     * This function sets up the endpoint "/users/{userId}/balances" such that
+     * it accepts GET requests and returns the balances the user had at asOf,
+     * reconstructed from the recorded events.
+     */
+    @GetMapping("/users/{userId}/balances")
+    public ResponseEntity<BalancesResponse> balancesAsOf(@PathVariable String userId,
+    @RequestParam Instant asOf)
+    {
+        return ResponseEntity.ok().body(balanceHistoryService.balancesAsOf(userId, asOf));
+    }
+
+}
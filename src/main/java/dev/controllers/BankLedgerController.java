@@ -1,7 +1,12 @@
 package dev.controllers;
 
+import java.io.IOException;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -10,16 +15,20 @@ import org.springframework.web.bind.annotation.RestController;
 
 
 import dev.schemas.AuthorizationRequest;
-import dev.schemas.AuthorizationResponse;
 import dev.schemas.LoadRequest;
-import dev.schemas.LoadResponse;
+import dev.schemas.Result;
+import dev.schemas.ServerError;
 import dev.service.BankLedgerService;
+import dev.service.ingest.StreamIngestor;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 
 /*
  * This is the a controller responsible for handling the /authorization
- * and /load endpoints of our service. It correctly maps the endpoints to their 
- * services responsible for dealing with the expected functionality of the endpoint.
+ * and /load endpoints of our service, and their batch and streaming variants.
+ * It correctly maps the endpoints to their services responsible for dealing
+ * with the expected functionality of the endpoint.
  * 
  * For more detail as to what occurs for each endpoint, scroll further down to
  * learn more.
@@ -32,9 +41,20 @@ public class BankLedgerController {
     @Autowired
     private BankLedgerService bankLedgerService;
 
+    @Autowired
+    private StreamIngestor streamIngestor;
+
+    /*
+     * Most requests one batch may hold. A batch's events are committed in a
+     * single append whatever the journal's max-batch, so this also bounds
+     * that transaction.
+     */
+    @Value("${ledger.batch.max-items:5000}")
+    private int maxBatchItems;
+
     /**
      * @param authorizationRequest
-     * @return ResponseEntity<AuthorizationResponse> or ResponseEntity<ServerError>
+     * @return ResponseEntity<Result>, the AuthorizationResponse or a ServerError
      * 
      * This is the function that maps the REST endpoint corresponding to the
      * authorization of funds functionality of the service. It calls the controller 
@@ -42,27 +62,25 @@ public class BankLedgerController {
      * a ServerError object detailing what went wrong.
      */
     @PutMapping("/authorization")
-    public ResponseEntity<?> authorization(@Valid @RequestBody AuthorizationRequest authorizationRequest)
+    public ResponseEntity<Result> authorization(@Valid @RequestBody AuthorizationRequest authorizationRequest)
     {
 
         // Calls the service responsible for handling fund authorization
-        Object authResp = bankLedgerService.authorize(authorizationRequest);
+        Result authResp = bankLedgerService.authorize(authorizationRequest);
 
         /*
          * Checking to see if service returned an error or a valid response
          * object, indicating success. Sending result as 201 (Created) or
          * 400 (Bad Request) accordingly.
          */
-        if (authResp.getClass() == AuthorizationResponse.class)
+        if (!authResp.isError())
         {
             /* 
              * Written under assumption that 201 (Created) is indicating creation
              * of event tracking this request, so it doesn't matter if the
              * authorization request is declined or approved, an event is made.
              */
-
-            AuthorizationResponse response = (AuthorizationResponse) authResp;
-            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+            return ResponseEntity.status(HttpStatus.CREATED).body(authResp);
         }
 
         return ResponseEntity.badRequest().body(authResp);
@@ -71,7 +89,7 @@ public class BankLedgerController {
     
     /**
      * @param loadRequest
-     * @return ResponseEntity<LoadResponse> or ResponseEntity<ServerError>
+     * @return ResponseEntity<Result>, the LoadResponse or a ServerError
      * 
      * This is the function that maps the REST endpoint corresponding to the
      * load funds functionality of the service. It calls the controller responsible
@@ -80,23 +98,90 @@ public class BankLedgerController {
      * 
      */
     @PutMapping("/load")
-    public ResponseEntity<?> load(@Valid @RequestBody LoadRequest loadRequest)
+    public ResponseEntity<Result> load(@Valid @RequestBody LoadRequest loadRequest)
     {
         // Calls the service responsible for loading funds to a user.  
-        Object loadResp = bankLedgerService.load(loadRequest);
+        Result loadResp = bankLedgerService.load(loadRequest);
 
         /*
          * Checking to see if service returned an error or a valid response
          * object, indicating success. Sending result as 201 (Created) or
          * 400 (Bad Request) accordingly.
          */
-        if (loadResp.getClass() == LoadResponse.class)
+        if (!loadResp.isError())
         {
-            LoadResponse response = (LoadResponse) loadResp;
-            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+            return ResponseEntity.status(HttpStatus.CREATED).body(loadResp);
         }
 
         return ResponseEntity.badRequest().body(loadResp);
     }
 
+    /**
+     * @param loadRequests
+     * @return ResponseEntity<List<Result>>, a LoadResponse or ServerError per
+     * request, in the order of the requests, or a ServerError.
+     *
+     * Maps the batch variant of /load, for clients that send many requests
+     * at once. The requests are applied in order and their events are stored
+     * in one transaction, see {@link BankLedgerService#loadBatch}. Items can
+     * fail on their own, e.g. one with the wrong direction, so the batch as a
+     * whole is answered with 201 (Created) and each item tells its outcome.
+     * A batch with a malformed item, or with more items than allowed, is
+     * rejected as a whole with 400 (Bad Request) and a ServerError.
+     */
+    @PutMapping("/batch/load")
+    public ResponseEntity<?> batchLoad(@Valid @RequestBody List<@Valid LoadRequest> loadRequests)
+    {
+        if (loadRequests.size() > maxBatchItems)
+        {
+            return tooLarge();
+        }
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(bankLedgerService.loadBatch(loadRequests));
+    }
+
+    /**
+     * @param authorizationRequests
+     * @return ResponseEntity<List<Result>>, an AuthorizationResponse or
+     * ServerError per request, in the order of the requests, or a ServerError.
+     *
+     * Maps the batch variant of /authorization, see {@link #batchLoad}.
+     */
+    @PutMapping("/batch/authorization")
+    public ResponseEntity<?> batchAuthorization(@Valid @RequestBody List<@Valid AuthorizationRequest> authorizationRequests)
+    {
+        if (authorizationRequests.size() > maxBatchItems)
+        {
+            return tooLarge();
+        }
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(bankLedgerService.authorizeBatch(authorizationRequests));
+    }
+
+    private ResponseEntity<ServerError> tooLarge()
+    {
+        return ResponseEntity.badRequest().body(new ServerError("At most " + maxBatchItems + " requests can be sent in one batch"));
+    }
+
+    /**
+     * @param request
+     * @param response
+     *
+     * Maps the streaming variant of /load and /authorization. The body is
+     * newline-delimited JSON with one load (CREDIT) or authorization (DEBIT)
+     * request per line, and the response streams back one result per line in
+     * the same order while the body is still being read, see
+     * {@link StreamIngestor}. Like the batch endpoints each line succeeds or
+     * fails on its own, so the stream is answered with 201 (Created) up front
+     * and each result line tells its outcome.
+     */
+    @PutMapping(value = "/ingest", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public void ingest(HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        response.setStatus(HttpStatus.CREATED.value());
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+
+        streamIngestor.ingest(request.getInputStream(), response.getOutputStream());
+    }
+
 }
@@ -0,0 +1,42 @@
+package dev.controllers;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.validation.Validator;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+ * Puts the recording JSON converter and validator in place of Boot's, so
+ * reading, validating and writing request bodies are timed as Java Flight
+ * Recorder events alongside the stages recorded by the services, see
+ * {@link dev.service.jfr.StageEvent}.
+ *
+ * To record them continuously, start the service with e.g.
+ * -XX:StartFlightRecording:maxage=1h,filename=ledger.jfr and dump the
+ * recording with "jcmd <pid> JFR.dump" after an incident.
+ */
+@Configuration
+public class FlightRecorderConfiguration implements WebMvcConfigurer {
+
+    private final jakarta.validation.Validator validator;
+
+    public FlightRecorderConfiguration(jakarta.validation.Validator validator)
+    {
+        this.validator = validator;
+    }
+
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper)
+    {
+        return new RecordingJsonConverter(objectMapper);
+    }
+
+    @Override
+    public Validator getValidator()
+    {
+        return new RecordingValidator(validator);
+    }
+}
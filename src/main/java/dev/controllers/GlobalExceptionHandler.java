@@ -1,9 +1,16 @@
 package dev.controllers;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.context.MessageSourceResolvable;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.FieldError;
+import org.springframework.validation.method.ParameterValidationResult;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.method.annotation.HandlerMethodValidationException;
 
 import dev.schemas.ServerError;
 
@@ -23,5 +30,33 @@ public class GlobalExceptionHandler {
         ServerError error = new ServerError(e.getMessage());
         return ResponseEntity.badRequest().body(error);
     }
-    
+
+    /**
+     * @param HandlerMethodValidationException
+     * @return ResponseEntity<ServerError>
+     *
+     * The same for validation errors of items within a list, as sent to the
+     * batch endpoints. The message names each invalid item by its index and
+     * field, e.g. "[1] userId: must not be empty".
+     */
+    @ExceptionHandler(value = HandlerMethodValidationException.class)
+    public ResponseEntity<ServerError> handleException(HandlerMethodValidationException e)
+    {
+        List<String> problems = new ArrayList<>();
+
+        for (ParameterValidationResult result : e.getAllValidationResults())
+        {
+            String item = result.getContainerIndex() != null ? "[" + result.getContainerIndex() + "] " : "";
+
+            for (MessageSourceResolvable problem : result.getResolvableErrors())
+            {
+                String field = problem instanceof FieldError ? ((FieldError) problem).getField() + ": " : "";
+                problems.add(item + field + problem.getDefaultMessage());
+            }
+        }
+
+        ServerError error = new ServerError(String.join(", ", problems));
+        return ResponseEntity.badRequest().body(error);
+    }
+
 }
@@ -0,0 +1,79 @@
+package dev.controllers;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.schemas.Request;
+import dev.schemas.Response;
+import dev.service.jfr.DeserializationEvent;
+import dev.service.jfr.SerializationEvent;
+import dev.service.jfr.StageEvent;
+
+/*
+ * The JSON converter of the controllers, timing every request body it reads
+ * and every response body it writes as a {@link DeserializationEvent} or
+ * {@link SerializationEvent}. A body that can't be read is recorded as
+ * "malformed".
+ */
+public class RecordingJsonConverter extends MappingJackson2HttpMessageConverter {
+
+    public RecordingJsonConverter(ObjectMapper objectMapper)
+    {
+        super(objectMapper);
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage)
+    throws IOException, HttpMessageNotReadableException
+    {
+        DeserializationEvent event = new DeserializationEvent();
+        event.begin();
+
+        try
+        {
+            Object body = super.read(type, contextClass, inputMessage);
+            event.finish(body instanceof Request ? ((Request) body).getUserId() : null, "ok");
+
+            return body;
+        }
+        catch (IOException | HttpMessageNotReadableException e)
+        {
+            event.finish(null, "malformed");
+            throw e;
+        }
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage)
+    throws IOException, HttpMessageNotReadableException
+    {
+        return read(clazz, null, inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+    throws IOException, HttpMessageNotWritableException
+    {
+        SerializationEvent event = new SerializationEvent();
+        event.begin();
+
+        try
+        {
+            super.writeInternal(object, type, outputMessage);
+            event.finish(object instanceof Response ? ((Response) object).getUserId() : null, StageEvent.outcome(object));
+        }
+        catch (IOException | HttpMessageNotWritableException e)
+        {
+            event.finish(null, "failed");
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package dev.controllers;
+
+import org.springframework.validation.Errors;
+import org.springframework.validation.beanvalidation.SpringValidatorAdapter;
+
+import dev.schemas.Request;
+import dev.service.jfr.ValidationEvent;
+import jakarta.validation.Validator;
+
+/*
+ * The validator of @Valid request bodies, timing each validation as a
+ * {@link ValidationEvent} with the outcome "valid" or "invalid". Validation
+ * of the items of a batch goes straight to the underlying validator and
+ * isn't recorded.
+ */
+public class RecordingValidator extends SpringValidatorAdapter {
+
+    public RecordingValidator(Validator validator)
+    {
+        super(validator);
+    }
+
+    @Override
+    public void validate(Object target, Errors errors)
+    {
+        ValidationEvent event = new ValidationEvent();
+        event.begin();
+
+        super.validate(target, errors);
+
+        finish(event, target, errors);
+    }
+
+    @Override
+    public void validate(Object target, Errors errors, Object... validationHints)
+    {
+        ValidationEvent event = new ValidationEvent();
+        event.begin();
+
+        super.validate(target, errors, validationHints);
+
+        finish(event, target, errors);
+    }
+
+    private static void finish(ValidationEvent event, Object target, Errors errors)
+    {
+        event.finish(target instanceof Request ? ((Request) target).getUserId() : null,
+            errors.hasErrors() ? "invalid" : "valid");
+    }
+}
@@ -0,0 +1,117 @@
+package dev.controllers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import dev.domain.TransactionStatus;
+import dev.schemas.ServerError;
+import dev.service.TransactionHistoryService;
+
+/*
+ * This is the controller responsible for handling the
+ * /users/{userId}/transactions endpoint, which pages through the events
+ * recorded for a user. It maps the endpoint to the history service.
+ */
+
+@RestController
+@RequestMapping("/")
+public class TransactionController {
+
+    @Autowired
+    private TransactionHistoryService transactionHistoryService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @param userId
+     * @param status optional and repeatable, only transactions with one of
+     * these statuses.
+     * @param currency optional, only transactions in this currency.
+     * @param cursor optional, the nextCursor of the previous page.
+     * @param limit optional, most transactions on the page.
+     * @return ResponseEntity<StreamingResponseBody>, a JSON object with the
+     * userId, the page of transactions oldest first and the nextCursor (null
+     * on the last page), or a ServerError.
+     *
+     * This function sets up the endpoint "/users/{userId}/transactions" such
+     * that it accepts GET requests and returns a page of the user's history.
+     * The transactions are written out as they are read from the database, so
+     * the cursor of the next page comes after them in the response.
+     */
+    @GetMapping("/users/{userId}/transactions")
+    public ResponseEntity<StreamingResponseBody> transactions(@PathVariable String userId,
+    @RequestParam(required = false) Set<TransactionStatus> status,
+    @RequestParam(required = false) String currency,
+    @RequestParam(required = false) String cursor,
+    @RequestParam(required = false) Integer limit)
+    {
+        TransactionHistoryService.Page page;
+
+        try
+        {
+            page = transactionHistoryService.page(userId, cursor, limit, status, currency);
+        }
+        catch (IllegalArgumentException e)
+        {
+            ServerError error = new ServerError(e.getMessage());
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(out, error));
+        }
+
+        // Let the output stream decide when to flush instead of flushing after every transaction.
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out))
+            {
+                generator.writeStartObject();
+                generator.writeStringField("userId", userId);
+                generator.writeArrayFieldStart("transactions");
+
+                String nextCursor;
+
+                try
+                {
+                    nextCursor = page.forEach(transaction -> {
+                        try
+                        {
+                            writer.writeValue(generator, transaction);
+                        }
+                        catch (IOException e)
+                        {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+                catch (UncheckedIOException e)
+                {
+                    throw e.getCause();
+                }
+
+                generator.writeEndArray();
+                generator.writeStringField("nextCursor", nextCursor);
+                generator.writeEndObject();
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+}
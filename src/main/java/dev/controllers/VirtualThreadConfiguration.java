@@ -0,0 +1,66 @@
+package dev.controllers;
+
+import java.util.concurrent.Executor;
+
+import org.apache.coyote.ProtocolHandler;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+ * Runs requests on virtual threads instead of Tomcat's bounded pool of
+ * platform threads, selected with "ledger.threads.mode=virtual". Every
+ * request gets its own virtual thread, so a request waiting on the event
+ * journal costs a parked continuation rather than one of a few hundred
+ * platform threads, and the number of requests in flight is bounded by the
+ * connection limit and the journal's queue instead of the thread pool.
+ *
+ * The request path doesn't block while holding a monitor (balance and
+ * registry locks are ReentrantLocks, the journal hands over through a queue
+ * and a future) and JDBC runs on the journal's own platform thread, so
+ * request threads don't pin their carriers.
+ *
+ * Virtual threads need Java 21. On an older runtime this logs a warning and
+ * requests stay on the platform pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "ledger.threads.mode", havingValue = "virtual")
+public class VirtualThreadConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer()
+    {
+        Executor executor = virtualThreadExecutor();
+
+        return handler -> {
+            if (executor != null)
+            {
+                handler.setExecutor(executor);
+            }
+        };
+    }
+
+    /**
+     * @return Executor, starting a virtual thread per task, or null if the
+     * runtime doesn't support virtual threads.
+     */
+    static Executor virtualThreadExecutor()
+    {
+        try
+        {
+            return new VirtualThreadExecutor("ledger-request-");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            log.warn("Virtual threads need Java 21 or later, running requests on platform threads on Java {}",
+                Runtime.version().feature());
+            return null;
+        }
+    }
+}
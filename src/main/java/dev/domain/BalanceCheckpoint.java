@@ -0,0 +1,140 @@
+package dev.domain;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import org.springframework.data.domain.Persistable;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Index;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+
+/*
+ * One currency of a user's balances as of a given event, stored next to the
+ * events so a point-in-time balance only has to replay what came after the
+ * nearest checkpoint. A checkpoint is all of the rows a user has at one
+ * (eventTime, sequenceNumber), one per currency held.
+ *
+ * Events are never changed and never committed before an event they follow
+ * in (event time, sequence number) order, so a checkpoint stays correct once
+ * written. See {@link dev.service.BalanceHistoryService}.
+ */
+
+@Entity
+@IdClass(BalanceCheckpoint.Key.class)
+@Table(name = "balance_checkpoint",
+    indexes = @Index(name = "idx_balance_checkpoint_user_time", columnList = "user_id, event_time, sequence_number"))
+public class BalanceCheckpoint implements Persistable<BalanceCheckpoint.Key> {
+
+    @Id
+    private String userId;
+
+    // Position of the last event included, see {@link TransactionEvent}.
+    @Id
+    private long eventTime;
+
+    @Id
+    private long sequenceNumber;
+
+    @Id
+    private String currency;
+
+    // In minor units of the currency, see {@link dev.service.balance.FixedPoint}.
+    private long balance;
+
+    // Not a column, see {@link TransactionEvent}.
+    @Transient
+    private boolean isNew = true;
+
+    public BalanceCheckpoint() {}
+
+    public BalanceCheckpoint(String userId, long eventTime, long sequenceNumber, String currency, long balance)
+    {
+        this.userId = userId;
+        this.eventTime = eventTime;
+        this.sequenceNumber = sequenceNumber;
+        this.currency = currency;
+        this.balance = balance;
+    }
+
+    @Override
+    public Key getId() {
+        return new Key(userId, eventTime, sequenceNumber, currency);
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    // Getters of the checkpoint's fields, which never change once written.
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    // Composite primary key of a checkpoint row.
+    public static class Key implements Serializable {
+
+        private String userId;
+        private long eventTime;
+        private long sequenceNumber;
+        private String currency;
+
+        public Key() {}
+
+        public Key(String userId, long eventTime, long sequenceNumber, String currency)
+        {
+            this.userId = userId;
+            this.eventTime = eventTime;
+            this.sequenceNumber = sequenceNumber;
+            this.currency = currency;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key))
+            {
+                return false;
+            }
+
+            Key key = (Key) other;
+            return eventTime == key.eventTime && sequenceNumber == key.sequenceNumber
+                && Objects.equals(userId, key.userId) && Objects.equals(currency, key.currency);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(userId, eventTime, sequenceNumber, currency);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package dev.domain;
+
+import dev.schemas.DebitCredit;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/*
+ * Stores a {@link DebitCredit} as its code, a small integer.
+ */
+@Converter
+public class DebitCreditConverter implements AttributeConverter<DebitCredit, Byte> {
+
+    @Override
+    public Byte convertToDatabaseColumn(DebitCredit debitOrCredit)
+    {
+        return debitOrCredit == null ? null : debitOrCredit.getCode();
+    }
+
+    @Override
+    public DebitCredit convertToEntityAttribute(Byte code)
+    {
+        return code == null ? null : DebitCredit.fromCode(code);
+    }
+}
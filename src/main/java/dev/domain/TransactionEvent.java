@@ -2,11 +2,18 @@ package dev.domain;
 
 import java.math.BigDecimal;
 
+import org.springframework.data.domain.Persistable;
+
 import dev.schemas.DebitCredit;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
-import jakarta.persistence.EnumType;
-import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 
 /*
  * This is the class that defines an event for the service, as per the
@@ -15,11 +22,24 @@ import jakarta.persistence.Id;
  * or authorization request to an account. It stores information relevant to the
  * event such as timestamp, involved User, as well as actually amount details (
  * currency, amount, type).
+ *
+ * Events are append-only. The id is assigned by the client (the message id),
+ * so the entity reports itself as new until it has been persisted or loaded;
+ * otherwise Spring Data would merge it, issuing a SELECT before every INSERT.
+ *
+ * Rows are kept compact: the time, enums and amount are all stored as
+ * integers rather than text or decimals. A user's history is read through the
+ * (user_id, event_time, sequence_number) index, one range scan per page. The
+ * table is "ledger_event"; rows of the older "transaction_event" layout are
+ * copied over on startup, see {@link dev.repository.JpaEventStore}.
  */
 
 @Entity
-public class TransactionEvent {
-
+@Table(name = "ledger_event", indexes = {
+    @Index(name = "idx_ledger_event_sequence", columnList = "sequence_number"),
+    @Index(name = "idx_ledger_event_user_time", columnList = "user_id, event_time, sequence_number")
+})
+public class TransactionEvent implements Persistable<String> {
 
 
     /*
@@ -37,17 +57,17 @@ public class TransactionEvent {
      * Custom Enum to denote and keep track of what actually happened with the
      * load or authorization call. See {@link TransactionStatus} for more
      * information.
-     * Stored as string in database.
+     * Stored as its code, a small integer, in the database.
      */
-    @Enumerated(EnumType.STRING)
+    @Convert(converter = TransactionStatusConverter.class)
     private TransactionStatus transactionStatus;
 
     /*
      * As specified in schema, representing if this was a credit or debit
      * transaction. See {@link DebitCredit} for more information.
-     * Stored as string in database.
+     * Stored as its code, a small integer, in the database.
      */
-    @Enumerated(EnumType.STRING)
+    @Convert(converter = DebitCreditConverter.class)
     private DebitCredit debitOrCredit;
 
     /*
@@ -57,9 +77,28 @@ public class TransactionEvent {
 
     private String currency;
 
-    private BigDecimal amount;
+    /*
+     * The amount in fixed point, amountUnits * 10^-amountScale, so "12.50" is
+     * 1250 at scale 2. Both are null for an amount that couldn't be parsed.
+     */
+    private Long amountUnits;
+
+    private Byte amountScale;
+
+    // When the event happened, in microseconds since the epoch. See {@link EventTime}.
+    private long eventTime;
+
+    /*
+     * Position of the event in the ledger, assigned in commit order by the
+     * {@link dev.service.journal.EventJournal}. Snapshots record the last
+     * position they include so recovery can replay only what came after.
+     */
+    @Column(name = "sequence_number")
+    private Long sequenceNumber;
 
-    private String timeOfEvent;
+    // Not a column, see the class comment.
+    @Transient
+    private boolean isNew = true;
 
     /*
      * Default constructor required for Entity objects and actual constructor
@@ -69,14 +108,82 @@ public class TransactionEvent {
     public TransactionEvent() {}
 
     public TransactionEvent(String userId, String messageId, TransactionStatus transactionStatus, DebitCredit debitOrCredit, String currency, String amount, String timeOfEvent)
+    {
+        this(userId, messageId, transactionStatus, debitOrCredit, currency, new BigDecimal(amount), timeOfEvent);
+    }
+
+    /*
+     * Used when the amount was already parsed by the service, so it isn't
+     * parsed a second time here. A null amount records an unparseable one.
+     */
+    public TransactionEvent(String userId, String messageId, TransactionStatus transactionStatus, DebitCredit debitOrCredit, String currency, BigDecimal amount, String timeOfEvent)
+    {
+        this(userId, messageId, transactionStatus, debitOrCredit, currency, amount, EventTime.parse(timeOfEvent));
+    }
+
+    public TransactionEvent(String userId, String messageId, TransactionStatus transactionStatus, DebitCredit debitOrCredit, String currency, BigDecimal amount, long eventTime)
+    {
+        this.userId = userId;
+        this.messageId = messageId;
+        this.transactionStatus = transactionStatus;
+        this.debitOrCredit = debitOrCredit;
+        this.currency = currency;
+        this.eventTime = eventTime;
+        setAmount(amount);
+    }
+
+    /*
+     * Used by the service with amounts it already holds in minor units, see
+     * {@link dev.service.balance.FixedPoint}, so no BigDecimal is involved.
+     */
+    public TransactionEvent(String userId, String messageId, TransactionStatus transactionStatus, DebitCredit debitOrCredit, String currency, long amountUnits, int amountScale, long eventTime)
     {
         this.userId = userId;
         this.messageId = messageId;
         this.transactionStatus = transactionStatus;
         this.debitOrCredit = debitOrCredit;
         this.currency = currency;
-        this.amount = new BigDecimal(amount);
-        this.timeOfEvent = timeOfEvent;
+        this.amountUnits = amountUnits;
+        this.amountScale = (byte) amountScale;
+        this.eventTime = eventTime;
+    }
+
+    /**
+     * @param amount
+     * @return boolean, whether amount can be stored in fixed point: its scale
+     * fits a byte and its unscaled value a long, once trailing zeros beyond
+     * the decimal point are dropped.
+     */
+    public static boolean fitsFixedPoint(BigDecimal amount)
+    {
+        BigDecimal normalized = normalize(amount);
+        return normalized.scale() <= Byte.MAX_VALUE && normalized.unscaledValue().bitLength() < Long.SIZE;
+    }
+
+    // Keeps the scale the amount was given with unless it has to go to fit.
+    private static BigDecimal normalize(BigDecimal amount)
+    {
+        BigDecimal normalized = amount.scale() > Byte.MAX_VALUE || amount.unscaledValue().bitLength() >= Long.SIZE
+            ? amount.stripTrailingZeros()
+            : amount;
+
+        return normalized.scale() < 0 ? normalized.setScale(0) : normalized;
+    }
+
+    @Override
+    public String getId() {
+        return messageId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
     }
 
     // Getters and setters for various fields of the event object.
@@ -97,20 +204,52 @@ public class TransactionEvent {
         this.transactionStatus = transactionStatus;
     }
 
+    // The amount as a decimal, built from the fixed-point columns.
     public BigDecimal getAmount() {
-        return amount;
+        return amountUnits == null ? null : BigDecimal.valueOf(amountUnits, amountScale);
     }
 
+    /*
+     * Throws an ArithmeticException for an amount that doesn't fit in fixed
+     * point, see {@link #fitsFixedPoint}.
+     */
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        if (amount == null)
+        {
+            this.amountUnits = null;
+            this.amountScale = null;
+            return;
+        }
+
+        if (!fitsFixedPoint(amount))
+        {
+            throw new ArithmeticException("Amount " + amount + " does not fit in fixed point");
+        }
+
+        BigDecimal normalized = normalize(amount);
+        this.amountUnits = normalized.unscaledValue().longValue();
+        this.amountScale = (byte) normalized.scale();
     }
 
-    public String getTimeOfEvent() {
-        return timeOfEvent;
+    public Long getAmountUnits() {
+        return amountUnits;
+    }
+
+    public Byte getAmountScale() {
+        return amountScale;
+    }
+
+    public long getEventTime() {
+        return eventTime;
     }
 
-    public void setTimeOfEvent(String timeOfEvent) {
-        this.timeOfEvent = timeOfEvent;
+    public void setEventTime(long eventTime) {
+        this.eventTime = eventTime;
+    }
+
+    // The event time as an ISO-8601 instant.
+    public String getTimeOfEvent() {
+        return EventTime.format(eventTime);
     }
 
     public DebitCredit getDebitOrCredit() {
@@ -137,6 +276,14 @@ public class TransactionEvent {
         this.messageId = messageId;
     }
 
+    public Long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public void setSequenceNumber(Long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
     
 
     
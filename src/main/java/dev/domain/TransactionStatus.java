@@ -2,12 +2,50 @@ package dev.domain;
 
 /*
  * Custom enumerated type created to help indicate and provide more information
- * about the events stored in the database. Four entries that have values
- * corresponding to their ordinals.
+ * about the events stored in the database. Four entries, each stored as its
+ * code rather than its ordinal, so constants can be reordered or added
+ * without changing what stored events mean. A code may never be reused.
  */
 public enum TransactionStatus {
-    AUTH_SUCCESS,
-    AUTH_FAIL,
-    LOAD_SUCCESS,
-    LOAD_FAIL 
+    AUTH_SUCCESS(0),
+    AUTH_FAIL(1),
+    LOAD_SUCCESS(2),
+    LOAD_FAIL(3);
+
+    private static final TransactionStatus[] BY_CODE = new TransactionStatus[4];
+
+    static
+    {
+        for (TransactionStatus status : values())
+        {
+            BY_CODE[status.code] = status;
+        }
+    }
+
+    private final byte code;
+
+    TransactionStatus(int code)
+    {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * @param code
+     * @return TransactionStatus with the code.
+     *
+     * Throws an IllegalArgumentException for a code no status has.
+     */
+    public static TransactionStatus fromCode(int code)
+    {
+        if (code < 0 || code >= BY_CODE.length || BY_CODE[code] == null)
+        {
+            throw new IllegalArgumentException("Unknown transaction status code " + code);
+        }
+
+        return BY_CODE[code];
+    }
 }
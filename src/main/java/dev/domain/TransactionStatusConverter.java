@@ -0,0 +1,23 @@
+package dev.domain;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/*
+ * Stores a {@link TransactionStatus} as its code, a small integer.
+ */
+@Converter
+public class TransactionStatusConverter implements AttributeConverter<TransactionStatus, Byte> {
+
+    @Override
+    public Byte convertToDatabaseColumn(TransactionStatus status)
+    {
+        return status == null ? null : status.getCode();
+    }
+
+    @Override
+    public TransactionStatus convertToEntityAttribute(Byte code)
+    {
+        return code == null ? null : TransactionStatus.fromCode(code);
+    }
+}
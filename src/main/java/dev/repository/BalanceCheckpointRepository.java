@@ -0,0 +1,34 @@
+package dev.repository;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import dev.domain.BalanceCheckpoint;
+
+/*
+ * Stores the per-user {@link BalanceCheckpoint balance checkpoints}. Both
+ * lookups are range scans of the (user_id, event_time, sequence_number)
+ * index.
+ */
+
+public interface BalanceCheckpointRepository extends JpaRepository<BalanceCheckpoint, BalanceCheckpoint.Key> {
+
+    /**
+     * @param userId
+     * @param eventTime
+     * @return Optional<BalanceCheckpoint>, a row of the user's latest
+     * checkpoint at or before eventTime, if there is one.
+     */
+    Optional<BalanceCheckpoint> findFirstByUserIdAndEventTimeLessThanEqualOrderByEventTimeDescSequenceNumberDesc(String userId, long eventTime);
+
+    /**
+     * @param userId
+     * @param eventTime
+     * @param sequenceNumber
+     * @return List<BalanceCheckpoint>, every row of the checkpoint at that
+     * position, one per currency.
+     */
+    List<BalanceCheckpoint> findByUserIdAndEventTimeAndSequenceNumber(String userId, long eventTime, long sequenceNumber);
+}
@@ -0,0 +1,55 @@
+package dev.repository;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+
+/*
+ * Which of a user's events a history read hands back, see
+ * {@link EventStore#forEachByUser}. Stores that can push the filter down into
+ * their query read its parts; the others test each event with
+ * {@link #matches}.
+ */
+public final class EventFilter {
+
+    public static final EventFilter ALL = new EventFilter(null, null);
+
+    // Empty when events of every status are wanted.
+    private final Set<TransactionStatus> statuses;
+
+    // Null when events in every currency are wanted.
+    private final String currency;
+
+    /**
+     * @param statuses only events with one of these statuses, all if null or
+     * empty.
+     * @param currency only events in this currency, all if null.
+     */
+    public EventFilter(Set<TransactionStatus> statuses, String currency)
+    {
+        this.statuses = statuses == null || statuses.isEmpty()
+            ? EnumSet.noneOf(TransactionStatus.class)
+            : EnumSet.copyOf(statuses);
+        this.currency = currency;
+    }
+
+    /**
+     * @param event
+     * @return boolean, whether event passes the filter.
+     */
+    public boolean matches(TransactionEvent event)
+    {
+        return (statuses.isEmpty() || statuses.contains(event.getTransactionStatus()))
+            && (currency == null || currency.equals(event.getCurrency()));
+    }
+
+    public Set<TransactionStatus> getStatuses() {
+        return statuses;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+}
@@ -0,0 +1,90 @@
+package dev.repository;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import dev.domain.TransactionEvent;
+
+/*
+ * Storage engine for transaction events, as seen by the rest of the service.
+ * Events are only ever appended and read back, never changed, so this is all
+ * {@link dev.service.journal.EventJournal} and the services need; which engine
+ * sits behind it is selected with the "ledger.event-store" property.
+ *
+ * See {@link JpaEventStore} and {@link dev.repository.log.MappedEventLog}.
+ */
+public interface EventStore {
+
+    /**
+     * @param events
+     *
+     * Durably appends a batch of new events as one unit: either all of them
+     * are stored or, if this throws, none are.
+     */
+    void append(List<TransactionEvent> events);
+
+    /**
+     * @param userId
+     * @return List<TransactionEvent>, events related to user with userId, in
+     * the order they were appended.
+     */
+    List<TransactionEvent> findByUserId(String userId);
+
+    /**
+     * @param userId
+     * @param afterTime
+     * @param afterSequence
+     * @param filter
+     * @param limit
+     * @param consumer
+     *
+     * Streams up to limit of the user's events that pass filter and come
+     * after the event at (afterTime, afterSequence) in (event time, sequence
+     * number) order to consumer, in that order, without holding them in
+     * memory. The {@link dev.service.journal.EventJournal} never lets event
+     * times go backwards along the sequence, so reading a history page by
+     * page, each page starting after the last event of the one before, never
+     * skips or repeats an event, however many are appended in between.
+     */
+    void forEachByUser(String userId, long afterTime, long afterSequence, EventFilter filter, int limit, Consumer<TransactionEvent> consumer);
+
+    /**
+     * @param afterSequence
+     * @param consumer
+     *
+     * Streams every stored event with a sequence number above afterSequence
+     * to consumer, in sequence order, without holding them all in memory.
+     * Events appended while this runs may or may not be included.
+     */
+    void forEachAfter(long afterSequence, Consumer<TransactionEvent> consumer);
+
+    /**
+     * @param userId
+     * @param messageId
+     * @return boolean, whether an event with messageId is stored. userId is
+     * the user the event would belong to, which lets stores without a global
+     * message id index narrow the search.
+     */
+    boolean exists(String userId, String messageId);
+
+    /**
+     * @param consumer
+     *
+     * Streams the message id of every stored event to consumer, reading no
+     * more of each event than it has to.
+     */
+    void forEachMessageId(Consumer<String> consumer);
+
+    /**
+     * @return long, the highest sequence number stored, or 0 if there are no
+     * events yet.
+     */
+    long lastSequence();
+
+    /**
+     * @return long, the latest event time stored, in microseconds since the
+     * epoch (see {@link dev.domain.EventTime}), or 0 if there are no events
+     * yet.
+     */
+    long lastEventTime();
+}
@@ -0,0 +1,114 @@
+package dev.repository;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import dev.domain.TransactionEvent;
+import jakarta.annotation.PostConstruct;
+
+/*
+ * Event store backed by the relational database through
+ * {@link TransactionEventRepository}. Each appended batch is one transaction
+ * of batched inserts.
+ *
+ * This is the default store, selected with "ledger.event-store=jpa".
+ */
+@Component
+@ConditionalOnProperty(name = "ledger.event-store", havingValue = "jpa", matchIfMissing = true)
+public class JpaEventStore implements EventStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JpaEventStore.class);
+
+    private final TransactionEventRepository transactionEventRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    // Lets reads run on reader connections, see dev.repository.sqlite.SqliteWalConfiguration.
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    public JpaEventStore(TransactionEventRepository transactionEventRepository, PlatformTransactionManager transactionManager)
+    {
+        this.transactionEventRepository = transactionEventRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void append(List<TransactionEvent> events)
+    {
+        transactionTemplate.executeWithoutResult(status -> transactionEventRepository.insertAll(events));
+    }
+
+    @Override
+    public List<TransactionEvent> findByUserId(String userId)
+    {
+        return transactionEventRepository.findByUserId(userId);
+    }
+
+    @Override
+    public void forEachAfter(long afterSequence, Consumer<TransactionEvent> consumer)
+    {
+        readOnlyTransactionTemplate.executeWithoutResult(status -> transactionEventRepository.streamAfter(afterSequence, consumer));
+    }
+
+    @Override
+    public void forEachByUser(String userId, long afterTime, long afterSequence, EventFilter filter, int limit, Consumer<TransactionEvent> consumer)
+    {
+        readOnlyTransactionTemplate.executeWithoutResult(status ->
+            transactionEventRepository.streamByUser(userId, afterTime, afterSequence, filter, limit, consumer));
+    }
+
+    @Override
+    public boolean exists(String userId, String messageId)
+    {
+        return transactionEventRepository.existsById(messageId);
+    }
+
+    @Override
+    public void forEachMessageId(Consumer<String> consumer)
+    {
+        readOnlyTransactionTemplate.executeWithoutResult(status -> transactionEventRepository.streamMessageIds(consumer));
+    }
+
+    @Override
+    public long lastSequence()
+    {
+        return readOnlyTransactionTemplate.execute(status -> transactionEventRepository.maxSequenceNumber());
+    }
+
+    @Override
+    public long lastEventTime()
+    {
+        return readOnlyTransactionTemplate.execute(status -> transactionEventRepository.maxEventTime());
+    }
+
+    /*
+     * Events still in the legacy table are moved into the current one, then
+     * rows written before events carried sequence numbers are numbered once,
+     * in the order they were inserted, so they can be replayed like the rest.
+     */
+    @PostConstruct
+    void upgrade()
+    {
+        int migrated = transactionTemplate.execute(status -> transactionEventRepository.migrateLegacyEvents());
+
+        if (migrated > 0)
+        {
+            log.info("Migrated {} events from the legacy transaction_event table", migrated);
+        }
+
+        int backfilled = transactionTemplate.execute(status -> transactionEventRepository.backfillSequenceNumbers());
+
+        if (backfilled > 0)
+        {
+            log.info("Assigned sequence numbers to {} existing events", backfilled);
+        }
+    }
+}
@@ -11,9 +11,11 @@ import dev.domain.TransactionEvent;
  * 
  * Stores the Event, an Entity object, into the database with its key being a
  * generated Long. For more details in regard to that, please view {@link TransactionEvent}.
+ *
+ * The bulk append path lives in {@link TransactionEventRepositoryCustom}.
  */
 
-public interface TransactionEventRepository extends JpaRepository<TransactionEvent, String> {
+public interface TransactionEventRepository extends JpaRepository<TransactionEvent, String>, TransactionEventRepositoryCustom {
 
     /**
      * @param userId
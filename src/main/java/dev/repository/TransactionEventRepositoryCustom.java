@@ -0,0 +1,88 @@
+package dev.repository;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import dev.domain.TransactionEvent;
+
+/*
+ * Bulk paths of {@link TransactionEventRepository} that bypass the JPA
+ * persistence context. See {@link TransactionEventRepositoryImpl}.
+ */
+public interface TransactionEventRepositoryCustom {
+
+    /**
+     * @param events
+     *
+     * Appends new events with plain INSERTs, sent as a single JDBC batch over
+     * one prepared statement. Fails if any message id already exists. Runs in
+     * the caller's transaction.
+     */
+    void insertAll(List<TransactionEvent> events);
+
+    /**
+     * @param afterSequence
+     * @param consumer
+     *
+     * Reads the events with a sequence number above afterSequence, in
+     * sequence order, with a forward-only cursor, handing each event to
+     * consumer as its row arrives, so memory use stays flat however many
+     * events there are.
+     */
+    void streamAfter(long afterSequence, Consumer<TransactionEvent> consumer);
+
+    /**
+     * @param userId
+     * @param afterTime
+     * @param afterSequence
+     * @param filter
+     * @param limit
+     * @param consumer
+     *
+     * Reads at most limit of the user's events that come after the event at
+     * (afterTime, afterSequence) and pass filter, ordered by event time and
+     * then sequence number, the same way as {@link #streamAfter}. The filter
+     * is part of the query, and the (user_id, event_time, sequence_number)
+     * index lets it start right after the given event, so reading a page
+     * costs the same however far into the history it is.
+     */
+    void streamByUser(String userId, long afterTime, long afterSequence, EventFilter filter, int limit, Consumer<TransactionEvent> consumer);
+
+    /**
+     * @param consumer
+     *
+     * Reads just the message id column of the whole table, the same way as
+     * {@link #streamAfter}.
+     */
+    void streamMessageIds(Consumer<String> consumer);
+
+    /**
+     * @return long, the highest sequence number in the table, 0 if none.
+     */
+    long maxSequenceNumber();
+
+    /**
+     * @return long, the latest event time in the table, 0 if none. Scans the
+     * table, it is only read once on startup.
+     */
+    long maxEventTime();
+
+    /**
+     * @return int, the number of rows that were numbered.
+     *
+     * Numbers rows without a sequence number in insertion order, following
+     * the highest one already assigned. Runs in the caller's transaction.
+     */
+    int backfillSequenceNumbers();
+
+    /**
+     * @return int, the number of events migrated.
+     *
+     * Copies the events of the legacy "transaction_event" table, which kept
+     * times as text, enums as names and amounts as decimals, into the
+     * current table and drops it. Does nothing if there is no such table.
+     * Runs in the caller's transaction, so with SQLite, whose DDL is
+     * transactional, a failed migration leaves the legacy table as it was.
+     */
+    int migrateLegacyEvents();
+}
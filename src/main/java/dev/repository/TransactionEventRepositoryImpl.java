@@ -0,0 +1,317 @@
+package dev.repository;
+
+import java.math.BigDecimal;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dev.domain.EventTime;
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.schemas.DebitCredit;
+
+/*
+ * Plain JDBC implementation of {@link TransactionEventRepositoryCustom}.
+ * Events are immutable once written, so there is nothing for Hibernate's
+ * merge, dirty checking or first-level cache to do; this writes them straight
+ * through JDBC, reusing one prepared statement for the whole batch, and reads
+ * them back as a stream of rows instead of a managed list of entities.
+ */
+public class TransactionEventRepositoryImpl implements TransactionEventRepositoryCustom {
+
+
+    private static final String INSERT_SQL =
+        "insert into ledger_event (message_id, user_id, transaction_status, debit_or_credit, currency, amount_units, amount_scale, event_time, sequence_number) "
+        + "values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_COLUMNS =
+        "select message_id, user_id, transaction_status, debit_or_credit, currency, amount_units, amount_scale, event_time, sequence_number ";
+
+    private static final String SELECT_AFTER_SQL =
+        SELECT_COLUMNS + "from ledger_event where sequence_number > ? order by sequence_number";
+
+    // A range scan of the (user_id, event_time, sequence_number) index.
+    private static final String SELECT_BY_USER_SQL =
+        SELECT_COLUMNS + "from ledger_event where user_id = ? and (event_time, sequence_number) > (?, ?)";
+
+    private static final String MESSAGE_IDS_SQL = "select message_id from ledger_event";
+
+    private static final String MAX_SEQUENCE_SQL = "select coalesce(max(sequence_number), 0) from ledger_event";
+
+    private static final String MAX_EVENT_TIME_SQL = "select coalesce(max(event_time), 0) from ledger_event";
+
+    // Without an order by, SQLite and H2 both scan the table in insertion order.
+    private static final String UNNUMBERED_SQL = "select message_id from ledger_event where sequence_number is null";
+
+    private static final String NUMBER_SQL = "update ledger_event set sequence_number = ? where message_id = ?";
+
+    // Table of the layout events had before, with text times, enums and decimal amounts.
+    private static final String LEGACY_TABLE = "transaction_event";
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public TransactionEventRepositoryImpl(JdbcTemplate jdbcTemplate)
+    {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void insertAll(List<TransactionEvent> events)
+    {
+        jdbcTemplate.batchUpdate(INSERT_SQL, events, events.size(), (statement, event) -> {
+            statement.setString(1, event.getMessageId());
+            statement.setString(2, event.getUserId());
+            statement.setObject(3, event.getTransactionStatus() == null ? null : event.getTransactionStatus().getCode(), Types.TINYINT);
+            statement.setObject(4, event.getDebitOrCredit() == null ? null : event.getDebitOrCredit().getCode(), Types.TINYINT);
+            statement.setString(5, event.getCurrency());
+            statement.setObject(6, event.getAmountUnits(), Types.BIGINT);
+            statement.setObject(7, event.getAmountScale(), Types.TINYINT);
+            statement.setLong(8, event.getEventTime());
+            statement.setObject(9, event.getSequenceNumber(), Types.BIGINT);
+        });
+    }
+
+    @Override
+    public void streamAfter(long afterSequence, Consumer<TransactionEvent> consumer)
+    {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SELECT_AFTER_SQL,
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, afterSequence);
+            return statement;
+        }, row -> {
+            consumer.accept(mapEvent(row));
+        });
+    }
+
+    @Override
+    public void streamByUser(String userId, long afterTime, long afterSequence, EventFilter filter, int limit, Consumer<TransactionEvent> consumer)
+    {
+        StringBuilder sql = new StringBuilder(SELECT_BY_USER_SQL);
+        List<Object> parameters = new ArrayList<>(List.of(userId, afterTime, afterSequence));
+
+        if (!filter.getStatuses().isEmpty())
+        {
+            StringJoiner placeholders = new StringJoiner(", ", " and transaction_status in (", ")");
+
+            for (TransactionStatus status : filter.getStatuses())
+            {
+                placeholders.add("?");
+                parameters.add(status.getCode());
+            }
+
+            sql.append(placeholders);
+        }
+
+        if (filter.getCurrency() != null)
+        {
+            sql.append(" and currency = ?");
+            parameters.add(filter.getCurrency());
+        }
+
+        sql.append(" order by event_time, sequence_number limit ?");
+        parameters.add(limit);
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql.toString(),
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(Math.min(limit, FETCH_SIZE));
+
+            for (int i = 0; i < parameters.size(); i++)
+            {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+
+            return statement;
+        }, row -> {
+            consumer.accept(mapEvent(row));
+        });
+    }
+
+    @Override
+    public void streamMessageIds(Consumer<String> consumer)
+    {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(MESSAGE_IDS_SQL,
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, row -> {
+            consumer.accept(row.getString(1));
+        });
+    }
+
+    @Override
+    public long maxSequenceNumber()
+    {
+        return jdbcTemplate.queryForObject(MAX_SEQUENCE_SQL, Long.class);
+    }
+
+    @Override
+    public long maxEventTime()
+    {
+        return jdbcTemplate.queryForObject(MAX_EVENT_TIME_SQL, Long.class);
+    }
+
+    @Override
+    public int backfillSequenceNumbers()
+    {
+        List<String> messageIds = jdbcTemplate.queryForList(UNNUMBERED_SQL, String.class);
+
+        if (messageIds.isEmpty())
+        {
+            return 0;
+        }
+
+        long first = maxSequenceNumber() + 1;
+        List<Object[]> numbers = new ArrayList<>(messageIds.size());
+
+        for (int i = 0; i < messageIds.size(); i++)
+        {
+            numbers.add(new Object[] { first + i, messageIds.get(i) });
+        }
+
+        jdbcTemplate.batchUpdate(NUMBER_SQL, numbers);
+        return messageIds.size();
+    }
+
+    /*
+     * Streams the legacy rows in insertion order, so rows without a sequence
+     * number are later numbered in the same order they would have been, and
+     * writes them in batches of FETCH_SIZE.
+     */
+    @Override
+    public int migrateLegacyEvents()
+    {
+        Set<String> columns = legacyColumns();
+
+        if (columns.isEmpty())
+        {
+            return 0;
+        }
+
+        String select = "select message_id, user_id, transaction_status, debit_or_credit, currency, amount, time_of_event, "
+            + (columns.contains("sequence_number") ? "sequence_number" : "null") + " from " + LEGACY_TABLE;
+
+        List<TransactionEvent> batch = new ArrayList<>(FETCH_SIZE);
+        int[] migrated = new int[1];
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(select,
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, row -> {
+            batch.add(mapLegacyEvent(row));
+
+            if (batch.size() == FETCH_SIZE)
+            {
+                insertAll(batch);
+                migrated[0] += batch.size();
+                batch.clear();
+            }
+        });
+
+        if (!batch.isEmpty())
+        {
+            insertAll(batch);
+            migrated[0] += batch.size();
+        }
+
+        jdbcTemplate.execute("drop table " + LEGACY_TABLE);
+        return migrated[0];
+    }
+
+    // Lower case column names of the legacy table, empty if there is none.
+    private Set<String> legacyColumns()
+    {
+        return jdbcTemplate.execute((ConnectionCallback<Set<String>>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            Set<String> columns = new HashSet<>();
+
+            // Unquoted names are stored as written by SQLite, and in upper case by H2.
+            for (String table : new String[] { LEGACY_TABLE, LEGACY_TABLE.toUpperCase(Locale.ROOT) })
+            {
+                try (ResultSet rows = metaData.getColumns(null, null, table, null))
+                {
+                    while (rows.next())
+                    {
+                        columns.add(rows.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+
+            return columns;
+        });
+    }
+
+    private static TransactionEvent mapEvent(ResultSet row) throws SQLException
+    {
+        int status = row.getInt(3);
+        TransactionStatus transactionStatus = row.wasNull() ? null : TransactionStatus.fromCode(status);
+        int debitOrCredit = row.getInt(4);
+        DebitCredit direction = row.wasNull() ? null : DebitCredit.fromCode(debitOrCredit);
+        long amountUnits = row.getLong(6);
+        boolean noAmount = row.wasNull();
+
+        TransactionEvent event = noAmount
+            ? new TransactionEvent(row.getString(2), row.getString(1), transactionStatus, direction,
+                row.getString(5), (BigDecimal) null, row.getLong(8))
+            : new TransactionEvent(row.getString(2), row.getString(1), transactionStatus, direction,
+                row.getString(5), amountUnits, row.getInt(7), row.getLong(8));
+
+        long sequenceNumber = row.getLong(9);
+        event.setSequenceNumber(row.wasNull() ? null : sequenceNumber);
+
+        return event;
+    }
+
+    /*
+     * Amounts that don't fit in fixed point are dropped like unparseable ones
+     * and times that can't be parsed become 0, rather than failing the
+     * migration over a single bad row.
+     */
+    private static TransactionEvent mapLegacyEvent(ResultSet row) throws SQLException
+    {
+        String status = row.getString(3);
+        String debitOrCredit = row.getString(4);
+        BigDecimal amount = row.getBigDecimal(6);
+        String timeOfEvent = row.getString(7);
+        long eventTime = 0;
+
+        try
+        {
+            eventTime = timeOfEvent == null ? 0 : EventTime.parse(timeOfEvent);
+        }
+        catch (DateTimeParseException e)
+        {
+            // Left at 0, see above.
+        }
+
+        TransactionEvent event = new TransactionEvent(row.getString(2), row.getString(1),
+        status == null ? null : TransactionStatus.valueOf(status),
+        debitOrCredit == null ? null : DebitCredit.valueOf(debitOrCredit),
+        row.getString(5), amount == null || !TransactionEvent.fitsFixedPoint(amount) ? null : amount, eventTime);
+
+        long sequenceNumber = row.getLong(8);
+        event.setSequenceNumber(row.wasNull() ? null : sequenceNumber);
+
+        return event;
+    }
+}
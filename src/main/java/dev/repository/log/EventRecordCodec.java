@@ -0,0 +1,154 @@
+package dev.repository.log;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.schemas.DebitCredit;
+
+/*
+ * Binary encoding of a {@link TransactionEvent} as stored in the payload of a
+ * log record. Layout, all integers big-endian:
+ *
+ *   byte    format version
+ *   long    sequenceNumber, 0 if null
+ *   string  messageId
+ *   string  userId
+ *   byte    transactionStatus code, -1 if null
+ *   byte    debitOrCredit code, -1 if null
+ *   string  currency
+ *   byte    1 if an amount follows, 0 if null
+ *   long    amount unscaled value   (only if present)
+ *   byte    amount scale            (only if present)
+ *   long    eventTime, epoch microseconds
+ *
+ * where a string is an int byte length (-1 if null) followed by UTF-8 bytes.
+ * Enums are stored by their code, see {@link TransactionStatus#getCode}.
+ */
+final class EventRecordCodec {
+
+    static final byte VERSION = 2;
+
+    private EventRecordCodec() {}
+
+    /**
+     * @param event
+     * @return byte[], the encoded payload.
+     */
+    static byte[] encode(TransactionEvent event)
+    {
+        byte[] messageId = utf8(event.getMessageId());
+        byte[] userId = utf8(event.getUserId());
+        byte[] currency = utf8(event.getCurrency());
+        Long amountUnits = event.getAmountUnits();
+
+        int size = 1 + 8 + sizeOf(messageId) + sizeOf(userId) + 2 + sizeOf(currency)
+            + 1 + (amountUnits == null ? 0 : 9) + 8;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION);
+        buffer.putLong(event.getSequenceNumber() == null ? 0 : event.getSequenceNumber());
+        putString(buffer, messageId);
+        putString(buffer, userId);
+        buffer.put(event.getTransactionStatus() == null ? -1 : event.getTransactionStatus().getCode());
+        buffer.put(event.getDebitOrCredit() == null ? -1 : event.getDebitOrCredit().getCode());
+        putString(buffer, currency);
+
+        if (amountUnits == null)
+        {
+            buffer.put((byte) 0);
+        }
+        else
+        {
+            buffer.put((byte) 1);
+            buffer.putLong(amountUnits);
+            buffer.put(event.getAmountScale());
+        }
+
+        buffer.putLong(event.getEventTime());
+        return buffer.array();
+    }
+
+    /**
+     * @param payload positioned at the start of the payload, limited to its end.
+     * @return TransactionEvent, the decoded event.
+     */
+    static TransactionEvent decode(ByteBuffer payload)
+    {
+        byte version = payload.get();
+
+        if (version != VERSION)
+        {
+            throw new IllegalStateException("Unknown event record version " + version);
+        }
+
+        long sequenceNumber = payload.getLong();
+        String messageId = getString(payload);
+        String userId = getString(payload);
+        byte status = payload.get();
+        byte debitOrCredit = payload.get();
+        String currency = getString(payload);
+        boolean hasAmount = payload.get() != 0;
+        long amountUnits = hasAmount ? payload.getLong() : 0;
+        byte amountScale = hasAmount ? payload.get() : 0;
+        long eventTime = payload.getLong();
+
+        TransactionStatus transactionStatus = status < 0 ? null : TransactionStatus.fromCode(status);
+        DebitCredit direction = debitOrCredit < 0 ? null : DebitCredit.fromCode(debitOrCredit);
+
+        TransactionEvent event = hasAmount
+            ? new TransactionEvent(userId, messageId, transactionStatus, direction, currency, amountUnits, amountScale, eventTime)
+            : new TransactionEvent(userId, messageId, transactionStatus, direction, currency, (BigDecimal) null, eventTime);
+        event.setSequenceNumber(sequenceNumber == 0 ? null : sequenceNumber);
+
+        return event;
+    }
+
+    /**
+     * @param payload positioned at the start of the payload.
+     * @return String, the message id, without decoding the rest of the event.
+     */
+    static String decodeMessageId(ByteBuffer payload)
+    {
+        payload.position(payload.position() + 1 + 8);
+        return getString(payload);
+    }
+
+    private static byte[] utf8(String value)
+    {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int sizeOf(byte[] value)
+    {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value)
+    {
+        if (value == null)
+        {
+            buffer.putInt(-1);
+            return;
+        }
+
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+
+        if (length < 0)
+        {
+            return null;
+        }
+
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,18 @@
+package dev.repository.log;
+
+/*
+ * When {@link MappedEventLog} forces appended records from the page cache to
+ * disk.
+ *
+ * ALWAYS forces before every append returns, so an acknowledged event survives
+ * a power loss. INTERVAL leaves forcing to a background flusher that runs once
+ * per configured interval, whether or not more appends come, so a power loss
+ * takes at most about one interval of acknowledged events. NEVER leaves
+ * flushing to the operating system; records still survive a crash of the
+ * process itself, since they are already in the page cache.
+ */
+public enum FsyncPolicy {
+    ALWAYS,
+    INTERVAL,
+    NEVER
+}
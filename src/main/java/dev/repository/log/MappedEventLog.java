@@ -0,0 +1,761 @@
+package dev.repository.log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import dev.domain.TransactionEvent;
+import dev.repository.EventFilter;
+import dev.repository.EventStore;
+import jakarta.annotation.PreDestroy;
+
+/*
+ * Event store that appends events to memory-mapped segment files instead of a
+ * database, selected with "ledger.event-store=mmap". Appending a batch is a
+ * copy into the page cache plus, depending on the {@link FsyncPolicy}, one
+ * force to disk; there is no SQL, transaction or B-tree in the way.
+ *
+ * Each segment is a preallocated file of records:
+ *
+ *   int     payload length
+ *   int     CRC32 of the payload
+ *   byte[]  payload, see {@link EventRecordCodec}
+ *
+ * followed by a zero length marking the end. When a batch doesn't fit in
+ * what is left of the segment a new one is started. A batch is published by
+ * writing the length of its first record last, so if the process crashes
+ * midway the whole batch is unreadable rather than half of it, as everything
+ * written is in the page cache in the order it was written.
+ *
+ * That doesn't hold for an operating system crash or a power loss: dirty
+ * pages of the mapping reach disk in no particular order, so the first
+ * record of a batch can be on disk while a later one isn't, most of all
+ * under the INTERVAL and NEVER policies (see {@link FsyncPolicy}). There
+ * the per-record CRC is what protects the log. On startup the segments are
+ * scanned and the log is cut at the first record that is missing or fails
+ * its CRC, so a batch torn that way keeps the records before the first bad
+ * one and loses that record and every record after it.
+ *
+ * Lookups by user go through an in-memory index of record positions, and
+ * lookups by message id through a table of each segment's message ids, both
+ * rebuilt by the same scan. Unlike the database the log does not enforce
+ * unique message ids.
+ */
+@Component
+@ConditionalOnProperty(name = "ledger.event-store", havingValue = "mmap")
+public class MappedEventLog implements EventStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedEventLog.class);
+
+    private static final int HEADER_BYTES = 8;
+    private static final int TERMINATOR_BYTES = 4;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+
+    /*
+     * Guards the segments, the write position and the index. Appends come
+     * from the single journal writer, lookups from request threads.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Map<String, Positions> index = new HashMap<>();
+    private int writePosition;
+
+    // Highest sequence number in each segment, to skip whole segments when replaying a tail.
+    private final List<Long> segmentLastSequence = new ArrayList<>();
+
+    // Latest event time of any record.
+    private long lastEventTime;
+
+    // The message ids of each segment's records, see {@link MessageIds}.
+    private final List<MessageIds> segmentMessageIds = new ArrayList<>();
+
+    /*
+     * Under the INTERVAL policy, set by appends and cleared by the flusher
+     * before it forces the current segment, so an idle log isn't forced over
+     * and over.
+     */
+    private final AtomicBoolean unforced = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+
+    public MappedEventLog(@Value("${ledger.event-log.directory:./data/events}") String directory,
+    @Value("${ledger.event-log.segment-size:64MB}") DataSize segmentSize,
+    @Value("${ledger.event-log.fsync:always}") FsyncPolicy fsyncPolicy,
+    @Value("${ledger.event-log.fsync-interval:1s}") Duration fsyncInterval) throws IOException
+    {
+        if (segmentSize.toBytes() > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Segment size must be below 2GB");
+        }
+
+        this.directory = Paths.get(directory);
+        this.segmentSize = (int) segmentSize.toBytes();
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+
+        Files.createDirectories(this.directory);
+        recover();
+
+        if (fsyncPolicy == FsyncPolicy.INTERVAL)
+        {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "event-log-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            flusher.scheduleWithFixedDelay(this::flush, fsyncIntervalNanos, fsyncIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+        else
+        {
+            flusher = null;
+        }
+    }
+
+    @Override
+    public void append(List<TransactionEvent> events)
+    {
+        if (events.isEmpty())
+        {
+            return;
+        }
+
+        // Encode everything first so a bad event fails the batch before any of it is written.
+        byte[][] payloads = new byte[events.size()][];
+        int batchBytes = 0;
+
+        for (int i = 0; i < payloads.length; i++)
+        {
+            payloads[i] = EventRecordCodec.encode(events.get(i));
+            batchBytes += HEADER_BYTES + payloads[i].length;
+        }
+
+        if (batchBytes + TERMINATOR_BYTES > segmentSize)
+        {
+            throw new IllegalArgumentException("Batch of " + batchBytes + " bytes does not fit in a segment");
+        }
+
+        MappedByteBuffer segment;
+        MappedByteBuffer rolled = null;
+
+        lock.writeLock().lock();
+        try
+        {
+            segment = segments.get(segments.size() - 1);
+
+            if (writePosition + batchBytes + TERMINATOR_BYTES > segment.capacity())
+            {
+                rolled = segment;
+                segment = openSegment(segments.size());
+                writePosition = 0;
+            }
+
+            int segmentIndex = segments.size() - 1;
+
+            int first = writePosition;
+            int offset = first;
+            CRC32 crc = new CRC32();
+
+            for (int i = 0; i < payloads.length; i++)
+            {
+                crc.reset();
+                crc.update(payloads[i]);
+
+                segment.putInt(offset + 4, (int) crc.getValue());
+                segment.put(offset + HEADER_BYTES, payloads[i]);
+
+                if (i > 0)
+                {
+                    segment.putInt(offset, payloads[i].length);
+                }
+
+                offset += HEADER_BYTES + payloads[i].length;
+            }
+
+            segment.putInt(offset, 0);
+            segment.putInt(first, payloads[0].length);
+            writePosition = offset;
+
+            offset = first;
+            for (int i = 0; i < payloads.length; i++)
+            {
+                index.computeIfAbsent(events.get(i).getUserId(), k -> new Positions()).add(position(segmentIndex, offset));
+                segmentMessageIds.get(segmentIndex).add(events.get(i).getMessageId(), offset);
+                offset += HEADER_BYTES + payloads[i].length;
+                noteSequence(segmentIndex, events.get(i));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        // The flusher only sees the current segment, so a finished one's tail is forced here.
+        if (rolled != null && fsyncPolicy == FsyncPolicy.INTERVAL)
+        {
+            rolled.force();
+        }
+
+        force(segment);
+    }
+
+    @Override
+    public List<TransactionEvent> findByUserId(String userId)
+    {
+        lock.readLock().lock();
+        try
+        {
+            Positions positions = index.get(userId);
+
+            if (positions == null)
+            {
+                return new ArrayList<>();
+            }
+
+            List<TransactionEvent> events = new ArrayList<>(positions.size);
+
+            for (int i = 0; i < positions.size; i++)
+            {
+                long position = positions.values[i];
+                events.add(EventRecordCodec.decode(ByteBuffer.wrap(
+                readPayload(segments.get((int) (position >>> 32)), (int) position))));
+            }
+
+            return events;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * A user's positions are in append order, which is sequence order and so
+     * (event time, sequence) order, so the first record after the given one
+     * is found by binary search and the records from there on are decoded
+     * one at a time. Positions only ever
+     * get appended, so the ones that exist when this is called are read
+     * without holding the lock while consumer runs.
+     */
+    @Override
+    public void forEachByUser(String userId, long afterTime, long afterSequence, EventFilter filter, int limit, Consumer<TransactionEvent> consumer)
+    {
+        List<MappedByteBuffer> visible;
+        long[] values;
+        int size;
+
+        lock.readLock().lock();
+        try
+        {
+            Positions positions = index.get(userId);
+
+            if (positions == null)
+            {
+                return;
+            }
+
+            visible = new ArrayList<>(segments);
+            values = positions.values;
+            size = positions.size;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        int low = 0;
+        int high = size;
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            TransactionEvent event = decodeAt(visible, values[middle]);
+            long sequence = event.getSequenceNumber() == null ? 0 : event.getSequenceNumber();
+
+            if (event.getEventTime() > afterTime || (event.getEventTime() == afterTime && sequence > afterSequence))
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+
+        for (int i = low, found = 0; i < size && found < limit; i++)
+        {
+            TransactionEvent event = decodeAt(visible, values[i]);
+
+            if (filter.matches(event))
+            {
+                consumer.accept(event);
+                found++;
+            }
+        }
+    }
+
+    private TransactionEvent decodeAt(List<MappedByteBuffer> visible, long position)
+    {
+        return EventRecordCodec.decode(ByteBuffer.wrap(readPayload(visible.get((int) (position >>> 32)), (int) position)));
+    }
+
+    /*
+     * Probes the message id table of each segment, newest first, where a
+     * duplicate is most likely to be. Only records whose id hashes the same
+     * are read, so this costs a few probes per segment however many events
+     * the user has.
+     */
+    @Override
+    public boolean exists(String userId, String messageId)
+    {
+        int hash = messageId.hashCode();
+
+        lock.readLock().lock();
+        try
+        {
+            for (int segmentIndex = segments.size() - 1; segmentIndex >= 0; segmentIndex--)
+            {
+                long[] slots = segmentMessageIds.get(segmentIndex).slots;
+                int mask = slots.length - 1;
+
+                for (int i = MessageIds.slot(hash, mask); slots[i] != 0; i = (i + 1) & mask)
+                {
+                    if ((int) (slots[i] >>> 32) != hash)
+                    {
+                        continue;
+                    }
+
+                    byte[] payload = readPayload(segments.get(segmentIndex), (int) slots[i] - 1);
+
+                    if (messageId.equals(EventRecordCodec.decodeMessageId(ByteBuffer.wrap(payload))))
+                    {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachMessageId(Consumer<String> consumer)
+    {
+        forEachRecord(Long.MIN_VALUE, payload -> consumer.accept(EventRecordCodec.decodeMessageId(ByteBuffer.wrap(payload))));
+    }
+
+    /*
+     * Walks the records that were complete when this was called, skipping
+     * segments that hold nothing newer than afterSequence. Records are never
+     * changed once written, so appends carry on while this runs.
+     */
+    @Override
+    public void forEachAfter(long afterSequence, Consumer<TransactionEvent> consumer)
+    {
+        forEachRecord(afterSequence, payload -> {
+            TransactionEvent event = EventRecordCodec.decode(ByteBuffer.wrap(payload));
+
+            if (event.getSequenceNumber() != null && event.getSequenceNumber() > afterSequence)
+            {
+                consumer.accept(event);
+            }
+        });
+    }
+
+    /*
+     * Hands the payload of every complete record to consumer, leaving out
+     * segments with nothing newer than afterSequence.
+     */
+    private void forEachRecord(long afterSequence, Consumer<byte[]> consumer)
+    {
+        List<MappedByteBuffer> visible;
+        List<Long> lastSequences;
+        int end;
+
+        lock.readLock().lock();
+        try
+        {
+            visible = new ArrayList<>(segments);
+            lastSequences = new ArrayList<>(segmentLastSequence);
+            end = writePosition;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        for (int segmentIndex = 0; segmentIndex < visible.size(); segmentIndex++)
+        {
+            if (lastSequences.get(segmentIndex) <= afterSequence)
+            {
+                continue;
+            }
+
+            MappedByteBuffer segment = visible.get(segmentIndex);
+            int limit = segmentIndex == visible.size() - 1 ? end : segment.capacity();
+            int offset = 0;
+            byte[] payload;
+
+            while (offset + HEADER_BYTES <= limit && (payload = readPayload(segment, offset)) != null)
+            {
+                consumer.accept(payload);
+                offset += HEADER_BYTES + payload.length;
+            }
+        }
+    }
+
+    @Override
+    public long lastSequence()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return segmentLastSequence.isEmpty() ? 0 : segmentLastSequence.get(segmentLastSequence.size() - 1);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long lastEventTime()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return lastEventTime;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Forces whatever is still only in the page cache to disk, regardless of
+     * the fsync policy, so a clean shutdown never loses events. Segments
+     * before the current one were forced when the log moved past them.
+     */
+    @PreDestroy
+    public void close()
+    {
+        if (flusher != null)
+        {
+            flusher.shutdown();
+
+            try
+            {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        lock.readLock().lock();
+        try
+        {
+            if (!segments.isEmpty())
+            {
+                segments.get(segments.size() - 1).force();
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void force(MappedByteBuffer segment)
+    {
+        switch (fsyncPolicy)
+        {
+            case ALWAYS:
+                segment.force();
+                break;
+            case INTERVAL:
+                // Left to the flusher, see {@link #flush}.
+                unforced.set(true);
+                break;
+            case NEVER:
+                break;
+        }
+    }
+
+    /*
+     * Run by the flusher once per fsync interval under the INTERVAL policy.
+     * Forces the current segment if anything was appended since the last
+     * run, so acknowledged events reach the disk within about an interval
+     * even when appends stop coming.
+     */
+    void flush()
+    {
+        if (!unforced.getAndSet(false))
+        {
+            return;
+        }
+
+        MappedByteBuffer segment;
+
+        lock.readLock().lock();
+        try
+        {
+            segment = segments.get(segments.size() - 1);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        segment.force();
+    }
+
+    /*
+     * Maps every existing segment, indexing its records until the first one
+     * that is missing or corrupt. Anything after that point, including later
+     * segments, is discarded.
+     */
+    private void recover() throws IOException
+    {
+        int segmentCount;
+        try (Stream<Path> files = Files.list(directory))
+        {
+            segmentCount = (int) files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).count();
+        }
+
+        long events = 0;
+        boolean intact = true;
+
+        for (int segmentIndex = 0; segmentIndex < segmentCount && intact; segmentIndex++)
+        {
+            if (!Files.exists(segmentPath(segmentIndex)))
+            {
+                break;
+            }
+
+            MappedByteBuffer segment = openSegment(segmentIndex);
+            int offset = 0;
+
+            while (true)
+            {
+                byte[] payload = offset + HEADER_BYTES <= segment.capacity() ? readPayload(segment, offset) : null;
+
+                if (payload == null)
+                {
+                    // A torn record is the tail of the log; zero its length so it can't come back.
+                    if (offset + TERMINATOR_BYTES <= segment.capacity() && segment.getInt(offset) != 0)
+                    {
+                        segment.putInt(offset, 0);
+                        intact = false;
+                    }
+                    break;
+                }
+
+                TransactionEvent event = EventRecordCodec.decode(ByteBuffer.wrap(payload));
+                index.computeIfAbsent(event.getUserId(), k -> new Positions()).add(position(segmentIndex, offset));
+                segmentMessageIds.get(segmentIndex).add(event.getMessageId(), offset);
+                offset += HEADER_BYTES + payload.length;
+                noteSequence(segmentIndex, event);
+                events++;
+            }
+
+            writePosition = offset;
+        }
+
+        for (int segmentIndex = segments.size(); segmentIndex < segmentCount; segmentIndex++)
+        {
+            log.warn("Discarding event log segment {} after a corrupt record", segmentPath(segmentIndex));
+            Files.deleteIfExists(segmentPath(segmentIndex));
+        }
+
+        if (segments.isEmpty())
+        {
+            openSegment(0);
+            writePosition = 0;
+        }
+
+        log.info("Recovered {} events from {} event log segments in {}", events, segments.size(), directory);
+    }
+
+    /**
+     * @param segment
+     * @param offset
+     * @return byte[], the payload of the record at offset, or null if there
+     * is no complete record there whose CRC matches.
+     */
+    private byte[] readPayload(MappedByteBuffer segment, int offset)
+    {
+        int length = segment.getInt(offset);
+
+        if (length <= 0 || length > segment.capacity() - offset - HEADER_BYTES)
+        {
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        segment.get(offset + HEADER_BYTES, payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        return (int) crc.getValue() == segment.getInt(offset + 4) ? payload : null;
+    }
+
+    /*
+     * Maps a segment, preallocating it if it is new. Existing segments keep
+     * the size they were created with, so changing the configured size only
+     * affects segments created afterwards.
+     */
+    private MappedByteBuffer openSegment(int segmentIndex) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(segmentIndex).toFile(), "rw"))
+        {
+            if (file.length() == 0)
+            {
+                file.setLength(segmentSize);
+            }
+
+            MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            segments.add(segment);
+            segmentMessageIds.add(new MessageIds());
+            segmentLastSequence.add(segmentLastSequence.isEmpty() ? 0 : segmentLastSequence.get(segmentLastSequence.size() - 1));
+            return segment;
+        }
+    }
+
+    private void noteSequence(int segmentIndex, TransactionEvent event)
+    {
+        Long sequence = event.getSequenceNumber();
+
+        if (sequence != null && sequence > segmentLastSequence.get(segmentIndex))
+        {
+            segmentLastSequence.set(segmentIndex, sequence);
+        }
+
+        lastEventTime = Math.max(lastEventTime, event.getEventTime());
+    }
+
+    private Path segmentPath(int segmentIndex)
+    {
+        return directory.resolve(String.format("%010d%s", segmentIndex, SEGMENT_SUFFIX));
+    }
+
+    private static long position(int segmentIndex, int offset)
+    {
+        return ((long) segmentIndex << 32) | offset;
+    }
+
+    /*
+     * Growable list of packed (segment, offset) record positions, to avoid
+     * boxing a Long per event in the index.
+     */
+    private static final class Positions {
+
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(long position)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = position;
+        }
+    }
+
+    /*
+     * Open-addressing table of one segment's records by message id. Each slot
+     * packs the hash of the id, in the high half, with the record's offset
+     * plus one, so an empty slot is zero. Different ids can share a hash, so
+     * a matching slot is only a candidate, confirmed by reading the record.
+     */
+    private static final class MessageIds {
+
+        private long[] slots = new long[16];
+        private int size;
+
+        private void add(String messageId, int offset)
+        {
+            // Kept at most half full, so probe runs stay short.
+            if ((size + 1) * 2 > slots.length)
+            {
+                long[] grown = new long[slots.length * 2];
+
+                for (long entry : slots)
+                {
+                    if (entry != 0)
+                    {
+                        insert(grown, entry);
+                    }
+                }
+
+                slots = grown;
+            }
+
+            insert(slots, ((long) messageId.hashCode() << 32) | (offset + 1L));
+            size++;
+        }
+
+        private static void insert(long[] slots, long entry)
+        {
+            int mask = slots.length - 1;
+            int i = slot((int) (entry >>> 32), mask);
+
+            while (slots[i] != 0)
+            {
+                i = (i + 1) & mask;
+            }
+
+            slots[i] = entry;
+        }
+
+        // Spreads the high bits of the hash into the low ones the mask keeps, as HashMap does.
+        private static int slot(int hash, int mask)
+        {
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package dev.repository.sqlite;
+
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/*
+ * Sends connections of read-only transactions to the reader pool and
+ * everything else to the writer. It has to sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy},
+ * since the transaction is only marked read-only after it has begun, which
+ * is when the connection would otherwise be fetched.
+ */
+class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String WRITER = "writer";
+    private static final String READER = "reader";
+
+    ReadWriteRoutingDataSource(DataSource writer, DataSource readers)
+    {
+        setTargetDataSources(Map.of(WRITER, writer, READER, readers));
+        setDefaultTargetDataSource(writer);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey()
+    {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? READER : WRITER;
+    }
+}
@@ -0,0 +1,117 @@
+package dev.repository.sqlite;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.unit.DataSize;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * Datasource for running on SQLite with one writer and many readers,
+ * selected with "ledger.sqlite.mode=wal" when the datasource URL is a SQLite
+ * one.
+ *
+ * The database runs in WAL mode, where readers see the last committed state
+ * without blocking the writer or each other. SQLite still allows only one
+ * writer at a time, so instead of letting a shared pool's connections fight
+ * over the write lock (and time out as busy under load), every write goes
+ * through a single pinned writer connection; in practice that is the event
+ * journal's writer thread. Read-only transactions, such as history queries,
+ * get connections from a separate pool whose connections can't write.
+ *
+ * Both pools are hidden behind the routing proxy, where Boot can't find them
+ * to bind their metrics, so they report to the meter registry themselves;
+ * "hikaricp.connections.acquire" is how long requests wait for a connection.
+ */
+@Configuration
+@ConditionalOnExpression("'${ledger.sqlite.mode:default}' == 'wal' && '${spring.datasource.url:}'.startsWith('jdbc:sqlite:')")
+public class SqliteWalConfiguration implements DisposableBean {
+
+    private HikariDataSource writer;
+    private HikariDataSource readers;
+
+    @Bean
+    public DataSource dataSource(@Value("${spring.datasource.url}") String url,
+    @Value("${ledger.sqlite.readers:4}") int readerCount,
+    @Value("${ledger.sqlite.synchronous:normal}") SQLiteConfig.SynchronousMode synchronous,
+    @Value("${ledger.sqlite.cache-size:64MB}") DataSize cacheSize,
+    @Value("${ledger.sqlite.mmap-size:256MB}") DataSize mmapSize,
+    @Value("${ledger.sqlite.busy-timeout:5s}") Duration busyTimeout,
+    ObjectProvider<MeterRegistry> meterRegistry)
+    {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setSynchronous(synchronous);
+        // A negative cache size is in KiB rather than pages.
+        config.setCacheSize((int) -cacheSize.toKilobytes());
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, Long.toString(mmapSize.toBytes()));
+        config.setBusyTimeout((int) busyTimeout.toMillis());
+        config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+
+        // The writer comes first, so the database is in WAL mode before any reader opens it.
+        SQLiteConfig writerConfig = new SQLiteConfig(config.toProperties());
+        writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+
+        writer = pool("sqlite-writer", url, writerConfig, 1, false, registry);
+        readers = pool("sqlite-reader", url, new SQLiteConfig(config.toProperties()), readerCount, true, registry);
+
+        return new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(writer, readers));
+    }
+
+    /*
+     * SQLite only takes the read-only flag when a connection is opened and
+     * refuses to change it afterwards, so the pool is told the same.
+     */
+    private static HikariDataSource pool(String name, String url, SQLiteConfig config, int size, boolean readOnly,
+    MeterRegistry meterRegistry)
+    {
+        config.setReadOnly(readOnly);
+
+        SQLiteDataSource dataSource = new SQLiteDataSource(config);
+        dataSource.setUrl(url);
+
+        HikariConfig pool = new HikariConfig();
+        pool.setPoolName(name);
+        pool.setDataSource(dataSource);
+        pool.setMaximumPoolSize(size);
+        pool.setMinimumIdle(size);
+        pool.setReadOnly(readOnly);
+
+        if (meterRegistry != null)
+        {
+            pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        }
+
+        return new HikariDataSource(pool);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (readers != null)
+        {
+            readers.close();
+        }
+
+        if (writer != null)
+        {
+            writer.close();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package dev.schemas;
 
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 /*
  * As defined in the provided service specification file, object representing the 
@@ -16,9 +17,15 @@ public class Amount {
     @Size(min = 1)
     private String amount;
 
+    /*
+     * An ISO-4217 code. Checked here, before the request reaches the service,
+     * since every code that is loaded takes one of the limited entries of
+     * {@link dev.service.balance.CurrencyRegistry}.
+     */
     @NotNull
     @NotEmpty
     @Size(min = 1)
+    @Pattern(regexp = "[A-Z]{3}", message = "must be an ISO-4217 currency code")
     private String currency;
 
     /*
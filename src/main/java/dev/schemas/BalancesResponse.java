@@ -0,0 +1,50 @@
+package dev.schemas;
+
+import java.util.List;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+/*
+ * Response of the "/balances/{userId}" endpoint: the balances a user holds,
+ * one {@link Amount} per currency, all as of the same moment. Balances are
+ * funds held, so every amount is a CREDIT.
+ */
+public class BalancesResponse {
+
+    @Size(min = 1)
+    @NotEmpty
+    @NotNull
+    private String userId;
+
+    // Ordered by currency code.
+    @NotNull
+    @Valid
+    private List<Amount> balances;
+
+    public BalancesResponse(String userId, List<Amount> balances)
+    {
+        this.userId = userId;
+        this.balances = balances;
+    }
+
+    // Getters and Setters of the object's attributes.
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public List<Amount> getBalances() {
+        return balances;
+    }
+
+    public void setBalances(List<Amount> balances) {
+        this.balances = balances;
+    }
+}
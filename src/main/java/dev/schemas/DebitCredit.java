@@ -2,10 +2,41 @@ package dev.schemas;
 
 /*
  * Enumerated type for ease in understanding type of request (load or authorization).
- * Two options, mapped to their ordinals.
+ * Two options, stored with events as their codes, which like those of
+ * {@link dev.domain.TransactionStatus} may never be reused.
  */
 
 public enum DebitCredit {
-    DEBIT,
-    CREDIT
+    DEBIT(0),
+    CREDIT(1);
+
+    private final byte code;
+
+    DebitCredit(int code)
+    {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * @param code
+     * @return DebitCredit with the code.
+     *
+     * Throws an IllegalArgumentException for a code neither option has.
+     */
+    public static DebitCredit fromCode(int code)
+    {
+        switch (code)
+        {
+            case 0:
+                return DEBIT;
+            case 1:
+                return CREDIT;
+            default:
+                throw new IllegalArgumentException("Unknown debit or credit code " + code);
+        }
+    }
 }
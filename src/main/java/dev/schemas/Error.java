@@ -9,7 +9,7 @@ import jakarta.validation.constraints.Size;
  * 
  * See {@link ServerError} for related subclass.
  */
-public abstract class Error {
+public abstract class Error implements Result {
 
     // Error message and code (if applicable)
     @Size(min = 1)
@@ -48,5 +48,8 @@ public abstract class Error {
         this.code = code;
     }
 
-    
+    @Override
+    public boolean isError() {
+        return true;
+    }
 }
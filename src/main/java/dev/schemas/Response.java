@@ -13,7 +13,7 @@ import jakarta.validation.constraints.Size;
  * See {@link LoadResponse} and {@link AuthorizationResponse} for related
  * subclasses.
  */
-public abstract class Response {
+public abstract class Response implements Result {
 
     /*
      * The user id related to the request (i.e. the user the request is for)
@@ -68,5 +68,8 @@ public abstract class Response {
         this.balance = balance;
     }
 
-    
+    @Override
+    public boolean isError() {
+        return false;
+    }
 }
@@ -0,0 +1,20 @@
+package dev.schemas;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/*
+ * What the ledger answers a load or authorization with: either a
+ * {@link Response}, whether the request was approved or declined, or an
+ * {@link Error} if it couldn't be processed. Callers branch on
+ * {@link #isError()} rather than on the class of the result.
+ */
+public interface Result {
+
+    /**
+     * @return boolean, true if the request couldn't be processed.
+     *
+     * Not part of the JSON form of the result.
+     */
+    @JsonIgnore
+    boolean isError();
+}
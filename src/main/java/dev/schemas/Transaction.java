@@ -0,0 +1,73 @@
+package dev.schemas;
+
+import dev.domain.TransactionStatus;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+/*
+ * One entry of the "/users/{userId}/transactions" history: a load or
+ * authorization as it was recorded, whether or not it succeeded.
+ */
+public class Transaction {
+
+    @Size(min = 1)
+    @NotEmpty
+    @NotNull
+    private String messageId;
+
+    // What happened with the request, see {@link TransactionStatus}.
+    @NotNull
+    private TransactionStatus transactionStatus;
+
+    @NotNull
+    @Valid
+    private Amount transactionAmount;
+
+    // ISO-8601 instant at which the request was processed.
+    @NotNull
+    private String timeOfEvent;
+
+    public Transaction(String messageId, TransactionStatus transactionStatus, Amount transactionAmount, String timeOfEvent)
+    {
+        this.messageId = messageId;
+        this.transactionStatus = transactionStatus;
+        this.transactionAmount = transactionAmount;
+        this.timeOfEvent = timeOfEvent;
+    }
+
+    // Getters and Setters of the object's attributes.
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public TransactionStatus getTransactionStatus() {
+        return transactionStatus;
+    }
+
+    public void setTransactionStatus(TransactionStatus transactionStatus) {
+        this.transactionStatus = transactionStatus;
+    }
+
+    public Amount getTransactionAmount() {
+        return transactionAmount;
+    }
+
+    public void setTransactionAmount(Amount transactionAmount) {
+        this.transactionAmount = transactionAmount;
+    }
+
+    public String getTimeOfEvent() {
+        return timeOfEvent;
+    }
+
+    public void setTimeOfEvent(String timeOfEvent) {
+        this.timeOfEvent = timeOfEvent;
+    }
+}
@@ -0,0 +1,270 @@
+package dev.service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import dev.domain.BalanceCheckpoint;
+import dev.domain.EventTime;
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.BalanceCheckpointRepository;
+import dev.repository.EventFilter;
+import dev.repository.EventStore;
+import dev.schemas.Amount;
+import dev.schemas.BalancesResponse;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.FixedPoint;
+import jakarta.annotation.PreDestroy;
+
+/*
+ * Reconstructs a user's balances as they were at any point in time from the
+ * {@link EventStore}.
+ *
+ * Rather than replaying the user's whole history for every query, it starts
+ * from the latest {@link BalanceCheckpoint} at or before the requested time
+ * and folds only the events after it. Checkpoints are taken on the way: a
+ * query that has to fold more than "ledger.checkpoints.interval" balance
+ * changes leaves a checkpoint every that many changes, so the next query
+ * about the same user, at that time or any later one, starts from there.
+ *
+ * Queries only read. The checkpoints they take are handed to a background
+ * writer thread, so a query never holds up its response on a write, nor
+ * writes from a read-only request. Checkpoints only save work, so when the
+ * writer falls behind new ones are dropped rather than queued without bound.
+ *
+ * A checkpoint never goes stale, as the journal never commits an event
+ * before one it follows in (event time, sequence number) order. A user's
+ * events are stored in the order their changes were applied (see
+ * {@link BankLedgerService}) and are folded the way the balance rebuild
+ * replays them, so a balance as of now is the one held in memory, up to the
+ * events still on their way to the store.
+ *
+ * An event that can't be applied, like an approved authorization the balance
+ * doesn't cover, which the rebuild reports as an error, is left out of the
+ * answer. Checkpoints are permanent, so a fold takes none once it has left
+ * out an event, and later queries fold past it again.
+ */
+@Service
+public class BalanceHistoryService {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceHistoryService.class);
+
+    private static final EventFilter BALANCE_CHANGES =
+        new EventFilter(Set.of(TransactionStatus.LOAD_SUCCESS, TransactionStatus.AUTH_SUCCESS), null);
+
+    // Events read per query to the store.
+    private static final int CHUNK = 1000;
+
+    // Queries whose checkpoints may wait for the writer, see the class comment.
+    private static final int PENDING_CHECKPOINTS = 64;
+
+    private final EventStore eventStore;
+    private final BalanceCheckpointRepository checkpointRepository;
+    private final int interval;
+
+    private final ThreadPoolExecutor checkpointWriter;
+
+    public BalanceHistoryService(EventStore eventStore, BalanceCheckpointRepository checkpointRepository,
+    @Value("${ledger.checkpoints.interval:1000}") int interval)
+    {
+        this.eventStore = eventStore;
+        this.checkpointRepository = checkpointRepository;
+        this.interval = interval;
+
+        this.checkpointWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(PENDING_CHECKPOINTS), r -> {
+            Thread thread = new Thread(r, "balance-checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * @param userId
+     * @param asOf
+     * @return BalancesResponse with the user's balances just after the last
+     * event at or before asOf, ordered by currency.
+     *
+     * A user without events by then simply has no balances.
+     */
+    public BalancesResponse balancesAsOf(String userId, Instant asOf)
+    {
+        Fold fold = new Fold(userId, EventTime.of(asOf));
+        fold.run();
+
+        if (!fold.checkpoints.isEmpty())
+        {
+            checkpointWriter.execute(() -> saveCheckpoints(fold.checkpoints));
+        }
+
+        List<Amount> balances = new ArrayList<>(fold.balances.size());
+
+        for (Map.Entry<String, Long> balance : fold.balances.entrySet())
+        {
+            balances.add(BalanceQueryService.amount(balance.getKey(), balance.getValue()));
+        }
+
+        return new BalancesResponse(userId, balances);
+    }
+
+    /*
+     * Runs on the checkpoint writer. Another query about the same user may
+     * have written the same checkpoint first, which is fine, as they are
+     * identical.
+     */
+    private void saveCheckpoints(List<BalanceCheckpoint> checkpoints)
+    {
+        try
+        {
+            checkpointRepository.saveAll(checkpoints);
+        }
+        catch (DataIntegrityViolationException e)
+        {
+            log.debug("Balance checkpoint already written: {}", e.getMessage());
+        }
+        catch (RuntimeException e)
+        {
+            log.warn("Could not write {} balance checkpoint rows", checkpoints.size(), e);
+        }
+    }
+
+    // Writes the checkpoints still waiting before the repository goes away.
+    @PreDestroy
+    public void close()
+    {
+        checkpointWriter.shutdown();
+
+        try
+        {
+            checkpointWriter.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * The fold of one query, from the nearest checkpoint up to asOf.
+     */
+    private final class Fold {
+
+        private final String userId;
+        private final long asOf;
+
+        private final TreeMap<String, Long> balances = new TreeMap<>();
+        private final List<BalanceCheckpoint> checkpoints = new ArrayList<>();
+
+        private long lastTime = Long.MIN_VALUE;
+        private long lastSequence;
+        private int read;
+        private int sinceCheckpoint;
+        private boolean skipped;
+        private boolean done;
+
+        private Fold(String userId, long asOf)
+        {
+            this.userId = userId;
+            this.asOf = asOf;
+        }
+
+        // Starts from the nearest checkpoint, if there is one, and folds chunk by chunk.
+        private void run()
+        {
+            checkpointRepository.findFirstByUserIdAndEventTimeLessThanEqualOrderByEventTimeDescSequenceNumberDesc(userId, asOf)
+                .ifPresent(latest -> {
+                    lastTime = latest.getEventTime();
+                    lastSequence = latest.getSequenceNumber();
+
+                    for (BalanceCheckpoint row : checkpointRepository.findByUserIdAndEventTimeAndSequenceNumber(userId, lastTime, lastSequence))
+                    {
+                        balances.put(row.getCurrency(), row.getBalance());
+                    }
+                });
+
+            do
+            {
+                read = 0;
+                eventStore.forEachByUser(userId, lastTime, lastSequence, BALANCE_CHANGES, CHUNK, event -> {
+                    read++;
+
+                    if (done || event.getEventTime() > asOf)
+                    {
+                        done = true;
+                        return;
+                    }
+
+                    lastTime = event.getEventTime();
+                    lastSequence = event.getSequenceNumber();
+                    apply(event);
+
+                    if (++sinceCheckpoint == interval && !skipped)
+                    {
+                        checkpoint();
+                    }
+                });
+            }
+            while (!done && read == CHUNK);
+        }
+
+        private void checkpoint()
+        {
+            for (Map.Entry<String, Long> balance : balances.entrySet())
+            {
+                checkpoints.add(new BalanceCheckpoint(userId, lastTime, lastSequence, balance.getKey(), balance.getValue()));
+            }
+
+            sinceCheckpoint = 0;
+        }
+
+        // Applies the event, noting that the fold skipped one if it can't be, see the class comment.
+        private void apply(TransactionEvent event)
+        {
+            BigDecimal amount = event.getAmount();
+
+            if (amount == null)
+            {
+                return;
+            }
+
+            try
+            {
+                String currency = event.getCurrency();
+                // Only looked up, a query never registers a currency.
+                long units = FixedPoint.fromBigDecimal(amount, CurrencyRegistry.exponent(currency));
+                Long balance = balances.get(currency);
+
+                if (event.getTransactionStatus() == TransactionStatus.LOAD_SUCCESS)
+                {
+                    balances.put(currency, FixedPoint.add(balance == null ? 0 : balance, units));
+                }
+                else if (balance != null && balance >= units)
+                {
+                    balances.put(currency, balance - units);
+                }
+                else
+                {
+                    skipped = true;
+                }
+            }
+            catch (ArithmeticException e)
+            {
+                skipped = true;
+            }
+        }
+    }
+}
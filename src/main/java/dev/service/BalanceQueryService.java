@@ -0,0 +1,127 @@
+package dev.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import dev.schemas.Amount;
+import dev.schemas.BalancesResponse;
+import dev.schemas.DebitCredit;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.FixedPoint;
+import dev.service.jfr.BalanceLookupEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Answers balance queries straight from the in-memory balances kept by
+ * {@link UserService}, without touching the database or recording an event,
+ * so clients can poll a balance without the zero-amount loads they used to
+ * send for it.
+ *
+ * Every query is timed into the "ledger.balance.query" timer, which publishes
+ * a percentile histogram (see the actuator metrics endpoint), and the read
+ * of the user's balances is recorded as a {@link BalanceLookupEvent}.
+ */
+@Service
+public class BalanceQueryService {
+
+    private final UserService userService;
+    private final Timer latency;
+    private final int maxLookupUsers;
+
+    public BalanceQueryService(UserService userService, MeterRegistry meterRegistry,
+    @Value("${ledger.balance-lookup.max-users:10000}") int maxLookupUsers)
+    {
+        this.userService = userService;
+        this.maxLookupUsers = maxLookupUsers;
+        this.latency = Timer.builder("ledger.balance.query")
+            .description("Time taken to answer a balance query from memory")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    /**
+     * @param userId
+     * @param currency only this currency if not null.
+     * @return BalancesResponse with the user's balances, ordered by currency.
+     *
+     * All balances come from one consistent snapshot of the user. A user that
+     * doesn't exist simply has no balances, and asking for a single currency
+     * the user doesn't hold gives a zero balance in it.
+     */
+    public BalancesResponse getBalances(String userId, String currency)
+    {
+        return latency.record(() -> query(userId, currency));
+    }
+
+    /**
+     * @param userIds
+     * @param currency only this currency if not null.
+     * @return Stream<BalancesResponse>, one per user id and in the same order.
+     *
+     * Reads all of the users in one pass as of the same moment, see
+     * {@link UserService#getBalances(java.util.List)}. The responses are only
+     * built as the stream is consumed, so a caller writing them out one by
+     * one never holds more than one of them. Throws an
+     * IllegalArgumentException for more users than the configured limit, as
+     * the read briefly holds up updates to all of them.
+     */
+    public Stream<BalancesResponse> lookup(List<String> userIds, String currency)
+    {
+        if (userIds.size() > maxLookupUsers)
+        {
+            throw new IllegalArgumentException("At most " + maxLookupUsers + " users can be looked up at once");
+        }
+
+        List<Map<String, Long>> snapshots = userService.getBalances(userIds);
+
+        return IntStream.range(0, userIds.size())
+            .mapToObj(i -> response(userIds.get(i), snapshots.get(i), currency));
+    }
+
+    private BalancesResponse query(String userId, String currency)
+    {
+        BalanceLookupEvent event = new BalanceLookupEvent();
+        event.begin();
+
+        Map<String, Long> snapshot = userService.getBalances(userId);
+
+        event.finish(userId, snapshot.isEmpty() ? "empty" : "ok");
+
+        return response(userId, snapshot, currency);
+    }
+
+    private static BalancesResponse response(String userId, Map<String, Long> snapshot, String currency)
+    {
+        List<Amount> balances = new ArrayList<>();
+
+        if (currency != null)
+        {
+            Long units = snapshot.get(currency);
+            balances.add(amount(currency, units == null ? 0 : units));
+        }
+        else
+        {
+            for (Map.Entry<String, Long> balance : new TreeMap<>(snapshot).entrySet())
+            {
+                balances.add(amount(balance.getKey(), balance.getValue()));
+            }
+        }
+
+        return new BalancesResponse(userId, balances);
+    }
+
+    // Also used by {@link BalanceHistoryService}.
+    static Amount amount(String currency, long units)
+    {
+        // Currencies nobody has used yet aren't registered, and shouldn't be by a read.
+        return new Amount(FixedPoint.format(units, CurrencyRegistry.exponent(currency)), currency, DebitCredit.CREDIT);
+    }
+}
@@ -0,0 +1,301 @@
+package dev.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.EventStore;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.FixedPoint;
+import dev.service.snapshot.BalanceSnapshotStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/*
+ * Rebuilds the in-memory balances from the stored events when the service
+ * starts, since {@link UserService} itself keeps nothing across restarts.
+ *
+ * The latest {@link BalanceSnapshotStore snapshot} is loaded first, so only
+ * the events committed after it have to be replayed.
+ *
+ * Events are streamed out of the {@link EventStore} by one reader and handed
+ * to a fixed set of workers, each owning the users whose id hashes to it. A
+ * user's events therefore all go through one worker in the order they were
+ * stored, while different users are folded in parallel. Only successful loads
+ * and authorizations move a balance; failed requests are skipped.
+ *
+ * Each user's events are stored in the order their changes were applied (see
+ * {@link BankLedgerService}), so every approved authorization is covered by
+ * the events before it. One that isn't means the events no longer add up to
+ * the balances clients were told. It can't be applied without making the
+ * balance negative, so it is skipped, but loudly: each is logged as an error
+ * and their number is published in "ledger.rebuild.uncovered", which is zero
+ * after a sound rebuild and worth alerting on otherwise.
+ *
+ * This runs as a lifecycle phase ahead of the journal and the web server, so
+ * the service doesn't accept requests until every balance is back.
+ */
+@Component
+public class BalanceRebuilder implements SmartLifecycle, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceRebuilder.class);
+
+    // Events handed to a worker at a time, and chunks a worker may have queued.
+    private static final int CHUNK_SIZE = 1024;
+    private static final int QUEUED_CHUNKS = 16;
+
+    private static final List<TransactionEvent> END = new ArrayList<>();
+
+    private final EventStore eventStore;
+    private final BalanceSnapshotStore snapshotStore;
+    private final UserService userService;
+    private final boolean enabled;
+    private final int threads;
+
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong uncovered = new AtomicLong();
+    private volatile boolean running;
+
+    public BalanceRebuilder(EventStore eventStore, BalanceSnapshotStore snapshotStore, UserService userService,
+    @Value("${ledger.rebuild.enabled:true}") boolean enabled,
+    @Value("${ledger.rebuild.threads:0}") int threads)
+    {
+        this.eventStore = eventStore;
+        this.snapshotStore = snapshotStore;
+        this.userService = userService;
+        this.enabled = enabled;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public void start()
+    {
+        if (enabled)
+        {
+            rebuild();
+        }
+
+        running = true;
+    }
+
+    /**
+     * @return long, the number of events replayed.
+     *
+     * Loads the latest snapshot and streams every event stored after it into
+     * the balances, returning once all workers are done.
+     */
+    public long rebuild()
+    {
+        long started = System.nanoTime();
+        skipped.set(0);
+        uncovered.set(0);
+
+        long[] users = new long[1];
+        long fromSequence = snapshotStore.load((userId, balances) -> {
+            balances.forEach((currency, units) -> {
+                int currencyId = CurrencyRegistry.tryResolve(currency);
+
+                if (currencyId < 0)
+                {
+                    log.warn("Skipping {} balance of user {} from the snapshot: {}", currency, userId, CurrencyRegistry.TABLE_FULL);
+                    return;
+                }
+
+                userService.credit(userId, currencyId, units);
+            });
+            users[0]++;
+        });
+
+        if (fromSequence > 0)
+        {
+            log.info("Loaded balances of {} users from the snapshot at event {} in {} ms",
+            users[0], fromSequence, (System.nanoTime() - started) / 1_000_000);
+        }
+
+        List<BlockingQueue<List<TransactionEvent>>> queues = new ArrayList<>(threads);
+        List<List<TransactionEvent>> chunks = new ArrayList<>(threads);
+        List<Thread> workers = new ArrayList<>(threads);
+
+        for (int i = 0; i < threads; i++)
+        {
+            BlockingQueue<List<TransactionEvent>> queue = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+            queues.add(queue);
+            chunks.add(new ArrayList<>(CHUNK_SIZE));
+
+            Thread worker = new Thread(() -> fold(queue), "balance-rebuild-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long[] events = new long[1];
+
+        // The workers are told to finish even if reading fails, or they would wait for more events for ever.
+        try
+        {
+            eventStore.forEachAfter(fromSequence, event -> {
+                int partition = Math.floorMod(String.valueOf(event.getUserId()).hashCode(), threads);
+                List<TransactionEvent> chunk = chunks.get(partition);
+                chunk.add(event);
+
+                if (chunk.size() == CHUNK_SIZE)
+                {
+                    put(queues.get(partition), chunk);
+                    chunks.set(partition, new ArrayList<>(CHUNK_SIZE));
+                }
+
+                events[0]++;
+            });
+
+            for (int i = 0; i < threads; i++)
+            {
+                put(queues.get(i), chunks.get(i));
+            }
+        }
+        finally
+        {
+            for (BlockingQueue<List<TransactionEvent>> queue : queues)
+            {
+                put(queue, END);
+            }
+        }
+
+        for (Thread worker : workers)
+        {
+            try
+            {
+                worker.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while rebuilding balances", e);
+            }
+        }
+
+        if (uncovered.get() > 0)
+        {
+            log.error("Rebuilt balances differ from the ones clients were told: {} approved authorization(s) weren't"
+            + " covered by the events before them and were skipped", uncovered.get());
+        }
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+        log.info("Rebuilt balances from {} events in {} ms ({} events/s) on {} threads, {} events skipped",
+        events[0], elapsedMillis, events[0] * 1000 / elapsedMillis, threads, skipped.get());
+
+        return events[0];
+    }
+
+    private void fold(BlockingQueue<List<TransactionEvent>> queue)
+    {
+        try
+        {
+            List<TransactionEvent> chunk;
+
+            while ((chunk = queue.take()) != END)
+            {
+                for (TransactionEvent event : chunk)
+                {
+                    apply(event);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Replays one event. An authorization the balance doesn't cover is
+     * counted and logged as an error, see the class comment. Other events
+     * that can't be applied, e.g. a load that would overflow, are logged and
+     * skipped.
+     */
+    private void apply(TransactionEvent event)
+    {
+        TransactionStatus status = event.getTransactionStatus();
+        BigDecimal amount = event.getAmount();
+
+        if ((status != TransactionStatus.LOAD_SUCCESS && status != TransactionStatus.AUTH_SUCCESS) || amount == null)
+        {
+            return;
+        }
+
+        try
+        {
+            int currency = CurrencyRegistry.resolve(event.getCurrency());
+            long units = FixedPoint.fromBigDecimal(amount, CurrencyRegistry.exponent(currency));
+
+            if (status == TransactionStatus.LOAD_SUCCESS)
+            {
+                userService.credit(event.getUserId(), currency, units);
+            }
+            else if (!userService.debit(event.getUserId(), currency, units).isApplied())
+            {
+                uncovered.incrementAndGet();
+                log.error("Event {} of user {} authorized {} {} that the events before it don't cover",
+                event.getMessageId(), event.getUserId(), amount, event.getCurrency());
+            }
+        }
+        catch (RuntimeException e)
+        {
+            skipped.incrementAndGet();
+            log.warn("Skipping event {} while rebuilding balances: {}", event.getMessageId(), e.getMessage());
+        }
+    }
+
+    private static void put(BlockingQueue<List<TransactionEvent>> queue, List<TransactionEvent> chunk)
+    {
+        try
+        {
+            queue.put(chunk);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while rebuilding balances", e);
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry)
+    {
+        Gauge.builder("ledger.rebuild.uncovered", uncovered, AtomicLong::get)
+            .description("Approved authorizations the stored events didn't cover in the last balance rebuild")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /*
+     * Ahead of the journal (phase 0), the snapshotter and the web server.
+     */
+    @Override
+    public int getPhase()
+    {
+        return -1;
+    }
+}
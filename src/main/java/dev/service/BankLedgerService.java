@@ -1,43 +1,150 @@
 package dev.service;
 
 import java.math.BigDecimal;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-
+import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.google.common.util.concurrent.Striped;
+
+import dev.domain.EventTime;
 import dev.domain.TransactionStatus;
 import dev.domain.TransactionEvent;
-import dev.repository.*;
 import dev.schemas.Amount;
 import dev.schemas.AuthorizationRequest;
 import dev.schemas.AuthorizationResponse;
 import dev.schemas.DebitCredit;
 import dev.schemas.LoadRequest;
 import dev.schemas.LoadResponse;
+import dev.schemas.Request;
+import dev.schemas.Result;
 import dev.schemas.ResponseCode;
 import dev.schemas.ServerError;
+import dev.service.balance.BalanceUpdate;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.FixedPoint;
+import dev.service.idempotency.IdempotencyIndex;
+import dev.service.journal.EventJournal;
+import dev.service.jfr.BalanceMutationEvent;
+import dev.service.jfr.PersistenceEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 /*
  * This is the service responsible for providing the core functionality of
  * the API, handling requests to load and authorize assets (primarily money) for 
  * different users.
+ *
+ * Every request processed is counted in "ledger.requests", tagged with its
+ * operation (load or authorization) and outcome (approved, declined or
+ * error); duplicates answered from the idempotency index aren't counted
+ * again. The time a request waits for its event to be durable is timed into
+ * "ledger.event.persist".
+ *
+ * The balance update and the wait for the event are also recorded as Java
+ * Flight Recorder events, see {@link dev.service.jfr.StageEvent}.
+ *
+ * A user's requests change the balances and queue their events in the same
+ * order, see {@link #applyInOrder}, so replaying the stored events in
+ * sequence order gives back the balances the requests were answered with.
+ * Users whose balance had to part from their events, see {@link #undo}, are
+ * counted in "ledger.accounts.unreconciled".
  */
 
 @Service
 public class BankLedgerService {
 
+    private static final Logger log = LoggerFactory.getLogger(BankLedgerService.class);
+
     /*
-     * Instances of utilities for the service, refer to {@TransactionEventRepository}
-     * and {@link UserService to learn more about them}
+     * Instances of utilities for the service, refer to {@link EventJournal},
+     * {@link IdempotencyIndex} and {@link UserService to learn more about them}
      */
-    private final TransactionEventRepository transactionEventRepository;
+    private final EventJournal eventJournal;
+    private final IdempotencyIndex idempotencyIndex;
     private UserService userService;
 
-    public BankLedgerService(TransactionEventRepository transactionEventRepository, UserService userService)
+    /*
+     * The errors for requests that fail validation, built once and shared by
+     * every such request, so rejecting one doesn't allocate its answer.
+     * They are never modified.
+     */
+    private static final ServerError INVALID_DIRECTION = new ServerError("Invalid DebitCredit Input");
+    private static final ServerError INVALID_CURRENCY = new ServerError("Currency must be an ISO-4217 code");
+    private static final ServerError INVALID_AMOUNT = new ServerError(FixedPoint.message(FixedPoint.INVALID));
+    private static final ServerError TOO_PRECISE = new ServerError(FixedPoint.message(FixedPoint.TOO_PRECISE));
+    private static final ServerError OUT_OF_RANGE = new ServerError(FixedPoint.message(FixedPoint.OUT_OF_RANGE));
+    private static final ServerError TOO_MANY_CURRENCIES = new ServerError(CurrencyRegistry.TABLE_FULL);
+
+    // The declined debit of a currency nobody holds, see {@link #processAuthorization}.
+    private static final BalanceUpdate NOTHING_HELD = new BalanceUpdate(false, 0);
+
+    /*
+     * Held by a user's requests from their balance change until their events
+     * are queued, see {@link #applyInOrder}. As many stripes as the default
+     * {@link dev.service.balance.LockingBalanceStore}.
+     */
+    private static final int ORDER_STRIPES = 1024;
+    private final Striped<Lock> orderLocks = Striped.lock(ORDER_STRIPES);
+
+    // Users with a change that couldn't be undone, see {@link #undo}.
+    private final Set<String> unreconciledUsers = ConcurrentHashMap.newKeySet();
+
+    private final Counter authorizationsApproved;
+    private final Counter authorizationsDeclined;
+    private final Counter authorizationErrors;
+    private final Counter loadsApproved;
+    private final Counter loadErrors;
+    private final Timer persistLatency;
+
+    public BankLedgerService(EventJournal eventJournal, IdempotencyIndex idempotencyIndex, UserService userService,
+    MeterRegistry meterRegistry)
     {
-        this.transactionEventRepository = transactionEventRepository;
+        this.eventJournal = eventJournal;
+        this.idempotencyIndex = idempotencyIndex;
         this.userService = userService;
+
+        this.authorizationsApproved = requests(meterRegistry, "authorization", "approved");
+        this.authorizationsDeclined = requests(meterRegistry, "authorization", "declined");
+        this.authorizationErrors = requests(meterRegistry, "authorization", "error");
+        this.loadsApproved = requests(meterRegistry, "load", "approved");
+        this.loadErrors = requests(meterRegistry, "load", "error");
+        this.persistLatency = Timer.builder("ledger.event.persist")
+            .description("Time a request waits for its event to be durable")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+
+        Gauge.builder("ledger.accounts.unreconciled", unreconciledUsers, Set::size)
+            .description("Users whose balance no longer matches their events, as a change couldn't be undone")
+            .register(meterRegistry);
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String operation, String outcome)
+    {
+        return Counter.builder("ledger.requests")
+            .description("Load and authorization requests processed")
+            .tag("operation", operation)
+            .tag("outcome", outcome)
+            .register(meterRegistry);
     }
 
     /**
@@ -50,172 +157,692 @@ public class BankLedgerService {
      * the requested funds for a user, checking if they have enough money to do
      * so. If successful in checking, returns a response indicating if it happened
      * or not, and if there is an error then returns the error.
+     *
+     * A request whose message id was already processed isn't applied again,
+     * it gets the original response back, see {@link IdempotencyIndex}.
+     */
+    public Result authorize(AuthorizationRequest authorizationRequest)
+    {
+        ServerError invalid = checkAuthorization(authorizationRequest);
+
+        if (invalid != null)
+        {
+            return invalid;
+        }
+
+        return idempotencyIndex.execute(authorizationRequest.getUserId(), authorizationRequest.getMessageId(),
+        () -> processInOrder(authorizationRequest, this::processAuthorization));
+    }
+
+    // Processes an authorization that passed {@link #checkAuthorization}.
+    private Result processAuthorization(AuthorizationRequest authorizationRequest, Consumer<TransactionEvent> record)
+    {
+        // Get the specifics of the requested authorization.
+        Amount authAmount = authorizationRequest.getTransactionAmount();
+
+        /*
+         * Convert into more manageable types, the currency into its interned
+         * id and the amount into minor units of the currency.
+         *
+         * The currency is only looked up, not registered: nobody can hold
+         * a currency that was never loaded, so the authorization is simply
+         * declined, and codes that only ever show up here don't use up
+         * entries of the registry.
+         */
+        String userId = authorizationRequest.getUserId();
+        int targetCurrency = CurrencyRegistry.lookup(authAmount.getCurrency());
+        int scale = CurrencyRegistry.exponent(authAmount.getCurrency());
+        long targetBalance = FixedPoint.tryParse(authAmount.getAmount(), scale);
+
+        /*
+         * Checks if the user has enough money in the specified currency and,
+         * if so, withdraws it. The user service does the check and the update
+         * atomically so concurrent requests can't both spend the same funds.
+         */
+        BalanceMutationEvent mutation = new BalanceMutationEvent();
+        mutation.begin();
+
+        BalanceUpdate update = targetCurrency < 0 ? NOTHING_HELD : userService.debit(userId, targetCurrency, targetBalance);
+
+        mutation.finish(userId, update.isApplied() ? "applied" : "insufficient");
+
+        /*
+         * If the user didn't have enough money, saves as a failed authorization
+         * event, and returns as a failed authorization
+         */
+        if (!update.isApplied())
+        {
+            record.accept(new TransactionEvent(userId,
+            authorizationRequest.getMessageId(),
+            TransactionStatus.AUTH_FAIL,
+            authAmount.getDebitOrCredit(),
+            authAmount.getCurrency(),
+            targetBalance, scale,
+            EventTime.now()));
+
+            authAmount.setAmount(FixedPoint.format(update.getBalance(), scale));
+
+            AuthorizationResponse authResp = new AuthorizationResponse(userId, authorizationRequest.getMessageId(), 
+            ResponseCode.DECLINED, authAmount);
+
+            authorizationsDeclined.increment();
+            return authResp;
+        }
+
+        /*
+         * Recording the event and its status, since it went through it is
+         * success.
+         */ 
+        record.accept(new TransactionEvent(authorizationRequest.getUserId(),
+        authorizationRequest.getMessageId(),
+        TransactionStatus.AUTH_SUCCESS,
+        authAmount.getDebitOrCredit(),
+        authAmount.getCurrency(),
+        targetBalance, scale,
+        EventTime.now()));
+
+        /*
+         * Update to reflect the current balance after authorization and
+         * returns required information for the endpoint as specified in the
+         * service specification.
+         */
+        authAmount.setAmount(FixedPoint.format(update.getBalance(), scale));
+
+        AuthorizationResponse authResp = new AuthorizationResponse(authorizationRequest.getUserId(), authorizationRequest.getMessageId(), 
+        ResponseCode.APPROVED, authAmount);
+
+        authorizationsApproved.increment();
+        return authResp;
+    }
+
+    /**
+     * @param loadRequest
+     * @return LoadResponse or ServerError, result of trying to process the
+     * request.
+     *
+     * Loads the requested funds onto the user's balance. Like
+     * {@link #authorize}, duplicates of an earlier message id get the original
+     * response.
      */
-    public Object authorize(AuthorizationRequest authorizationRequest)
+    public Result load(LoadRequest loadRequest)
     {
+        ServerError invalid = checkLoad(loadRequest);
+
+        if (invalid != null)
+        {
+            return invalid;
+        }
+
+        return idempotencyIndex.execute(loadRequest.getUserId(), loadRequest.getMessageId(),
+        () -> processInOrder(loadRequest, this::processLoad));
+    }
+
+    // Processes a load that passed {@link #checkLoad}.
+    private Result processLoad(LoadRequest loadRequest, Consumer<TransactionEvent> record)
+    {
+        // Get the specifics of the requested load.
+        Amount loadAmount = loadRequest.getTransactionAmount();
+
+        /*
+         * Get what the requested amount to load is, in minor units, and what
+         * currency (as its id).
+         */
+        int scale = CurrencyRegistry.exponent(loadAmount.getCurrency());
+        long targetBalance = FixedPoint.tryParse(loadAmount.getAmount(), scale);
+
+        // Only a valid load registers its currency, see {@link CurrencyRegistry}.
+        int targetCurrency = CurrencyRegistry.tryResolve(loadAmount.getCurrency());
+
+        if (targetCurrency < 0)
+        {
+            return reject(TOO_MANY_CURRENCIES, loadErrors);
+        }
+
+        /*
+         * If the user already has funds in the currency, add to it. If they
+         * dont then add as a new entry to their balances. Applied atomically
+         * so concurrent loads don't overwrite each other.
+         */
+        BalanceMutationEvent mutation = new BalanceMutationEvent();
+        mutation.begin();
+
+        long newBalance;
+
         try
         {
-            // Get the specifics of the requested authorization.
-            Amount authAmount = authorizationRequest.getTransactionAmount();
+            newBalance = userService.credit(loadRequest.getUserId(), targetCurrency, targetBalance).getBalance();
+        }
+        catch (ArithmeticException e)
+        {
+            // The balance would overflow, nothing was changed.
+            return reject(new ServerError(e.getMessage()), loadErrors);
+        }
+
+        mutation.finish(loadRequest.getUserId(), "applied");
 
-            if (authAmount.getDebitOrCredit() != DebitCredit.DEBIT)
+        // Save the event as a successful load.
+        record.accept(new TransactionEvent(loadRequest.getUserId(),
+        loadRequest.getMessageId(),
+        TransactionStatus.LOAD_SUCCESS,
+        loadAmount.getDebitOrCredit(),
+        loadAmount.getCurrency(),
+        targetBalance, scale,
+        EventTime.now()));
+
+        // Return required format of response, with updated balance.
+        loadAmount.setAmount(FixedPoint.format(newBalance, scale));
+        LoadResponse resp = new LoadResponse(loadRequest.getUserId(), loadRequest.getMessageId(), loadAmount);
+
+        loadsApproved.increment();
+        return resp;
+    }
+    
+    
+    /*
+     * Processes a request that claimed its message id and waits for its
+     * events to be durable, see {@link #applyInOrder}.
+     */
+    private <R extends Request> Result processInOrder(R request, BiFunction<R, Consumer<TransactionEvent>, Result> process)
+    {
+        CompletableFuture<Result> response = applyInOrder(request, process);
+
+        PersistenceEvent persistence = new PersistenceEvent();
+        persistence.begin();
+
+        try
+        {
+            Result result = awaitDurable(response);
+            persistence.finish(request.getUserId(), "durable");
+            return result;
+        }
+        catch (RuntimeException e)
+        {
+            persistence.finish(request.getUserId(), "failed");
+            throw e;
+        }
+    }
+
+    /*
+     * Applies a request to the balances and queues the events it records,
+     * both while holding its user's order lock. The journal numbers events in
+     * the order they are queued, so a user's events are numbered in the order
+     * their changes were applied; were they queued after the lock, a debit
+     * could be numbered ahead of the load that paid for it, and a replay in
+     * sequence order would find it uncovered.
+     *
+     * The response completes once the events are durable. If they can't be
+     * persisted the change is undone first, so the request fails as a whole:
+     * the balances don't keep a change whose event was lost, no failed event
+     * is recorded in its place, and the caller can release the claim on its
+     * message id so a retry is processed afresh.
+     */
+    private <R extends Request> CompletableFuture<Result> applyInOrder(R request,
+    BiFunction<R, Consumer<TransactionEvent>, Result> process)
+    {
+        List<TransactionEvent> events = new ArrayList<>(1);
+        Result result;
+        CompletableFuture<Void> durable;
+        long queued;
+
+        Lock lock = orderLocks.get(request.getUserId());
+        lock.lock();
+        try
+        {
+            result = process.apply(request, events::add);
+            queued = System.nanoTime();
+            durable = eventJournal.append(events);
+        }
+        catch (RuntimeException | Error e)
+        {
+            undo(events);
+            throw e;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return durable.handle((ignored, e) -> {
+            persistLatency.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+
+            if (e != null)
             {
-                throw new Exception("Invalid DebitCredit Input");
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                undo(events);
+                throw new CompletionException(cause);
             }
 
-            // Get the current balance of the user for the specific currency
-            HashMap<String, BigDecimal> currentBalances = userService.getBalances(authorizationRequest.getUserId());
+            return result;
+        });
+    }
 
-            // Convert into more manageable types
-            String targetCurrency = authAmount.getCurrency();
-            BigDecimal targetBalance = new BigDecimal(authAmount.getAmount());
+    // Reverses the balance changes of events that couldn't be persisted, latest first.
+    private void undo(List<TransactionEvent> events)
+    {
+        for (int i = events.size() - 1; i >= 0; i--)
+        {
+            undo(events.get(i));
+        }
+    }
 
-            /*
-             * Checks if the user has enough money in the specified currency. If it doesn't then
-             * saves as a failed authorization event, and returns as a failed authorization
-             */
-            if (currentBalances.containsKey(targetCurrency) == false || currentBalances.get(targetCurrency).compareTo(targetBalance) < 0)
-            {
-                saveEvent(authorizationRequest.getUserId(),
-                authorizationRequest.getMessageId(),
-                TransactionStatus.AUTH_FAIL,
-                authAmount.getDebitOrCredit(),
-                authAmount.getCurrency(),
-                authAmount.getAmount(),
-                Instant.now().toString());
+    /*
+     * Reverses the balance change of an event that couldn't be persisted, if
+     * it made one. A load is taken back with a checked debit, as the user may
+     * have spent the loaded funds in the meantime, and the balance must never
+     * go below zero. If it can't be taken back, or the funds of an
+     * authorization can't be given back without overflowing, the balance is
+     * left as it is: it then no longer matches the user's events, which is
+     * logged as an error and marks the user, see {@link #getUnreconciledUsers}.
+     */
+    private void undo(TransactionEvent event)
+    {
+        TransactionStatus status = event.getTransactionStatus();
 
-                String newAmt = currentBalances.containsKey(targetCurrency) ? currentBalances.get(targetCurrency).toString() : "0";
-                authAmount.setAmount(newAmt);
+        if (status != TransactionStatus.LOAD_SUCCESS && status != TransactionStatus.AUTH_SUCCESS)
+        {
+            return;
+        }
 
-                AuthorizationResponse authResp = new AuthorizationResponse(authorizationRequest.getUserId(), authorizationRequest.getMessageId(), 
-                ResponseCode.DECLINED, authAmount);
+        String userId = event.getUserId();
+        int currencyId = CurrencyRegistry.lookup(event.getCurrency());
+        long units = event.getAmountUnits();
 
-                return authResp;
+        if (status == TransactionStatus.LOAD_SUCCESS)
+        {
+            if (!userService.debit(userId, currencyId, units).isApplied())
+            {
+                unreconciled(event, "its funds were already spent");
             }
 
-            // Applies authorization and withdraws the specified money from the user.
-            currentBalances.put(targetCurrency, currentBalances.get(targetCurrency).subtract(targetBalance));
-            userService.updateBalances(authorizationRequest.getUserId(), currentBalances);
+            return;
+        }
 
-            /*
-             * Recording the event and its status, since it went through it is
-             * success.
-             */ 
-            saveEvent(authorizationRequest.getUserId(),
-            authorizationRequest.getMessageId(),
-            TransactionStatus.AUTH_SUCCESS,
-            authAmount.getDebitOrCredit(),
-            authAmount.getCurrency(),
-            authAmount.getAmount(),
-            Instant.now().toString());
+        try
+        {
+            userService.credit(userId, currencyId, units);
+        }
+        catch (ArithmeticException e)
+        {
+            unreconciled(event, e.getMessage());
+        }
+    }
 
-            /*
-             * Update to reflect the current balance after authorization and
-             * returns required information for the endpoint as specified in the
-             * service specification.
-             */
-            authAmount.setAmount(currentBalances.get(targetCurrency).toString());
+    private void unreconciled(TransactionEvent event, String reason)
+    {
+        unreconciledUsers.add(event.getUserId());
 
-            AuthorizationResponse authResp = new AuthorizationResponse(authorizationRequest.getUserId(), authorizationRequest.getMessageId(), 
-            ResponseCode.APPROVED, authAmount);
+        log.error("Could not undo {} {} {} of user {} whose event {} wasn't persisted, {}; their balance no longer"
+        + " matches their events", event.getTransactionStatus(), FixedPoint.format(event.getAmountUnits(),
+        CurrencyRegistry.exponent(event.getCurrency())), event.getCurrency(), event.getUserId(), event.getMessageId(), reason);
+    }
 
-            return authResp;
+    /**
+     * @return Set<String>, read-only, of the users whose balance no longer
+     * matches their events because a change of theirs couldn't be undone.
+     *
+     * Their balance has to be reconciled by hand, see {@link #undo}.
+     */
+    public Set<String> getUnreconciledUsers()
+    {
+        return Collections.unmodifiableSet(unreconciledUsers);
+    }
+
+    // The error an authorization is answered with before it claims its message id, see {@link #check}.
+    private ServerError checkAuthorization(AuthorizationRequest authorizationRequest)
+    {
+        ServerError invalid = check(authorizationRequest, DebitCredit.DEBIT);
+
+        return invalid != null ? reject(invalid, authorizationErrors) : null;
+    }
+
+    // The error a load is answered with before it claims its message id, see {@link #check}.
+    private ServerError checkLoad(LoadRequest loadRequest)
+    {
+        ServerError invalid = check(loadRequest, DebitCredit.CREDIT);
+
+        return invalid != null ? reject(invalid, loadErrors) : null;
+    }
+
+    /*
+     * Checks everything about a request that doesn't depend on the balances:
+     * its direction, its currency code and its amount. Runs before the
+     * request claims its message id, so an invalid request is answered with
+     * its error without being recorded or remembered, and its message id can
+     * still be used once the request is fixed. Returns null if it is valid.
+     */
+    private static ServerError check(Request request, DebitCredit direction)
+    {
+        Amount amount = request.getTransactionAmount();
+
+        if (amount == null || amount.getDebitOrCredit() != direction)
+        {
+            return INVALID_DIRECTION;
         }
-        catch (Exception e)
+
+        if (!isCurrencyCode(amount.getCurrency()))
         {
-            /*
-             * If there is an issue when trying to process the request, catch
-             * the error and save the event as a failed authorization and then
-             * return the error.
-             */
+            return INVALID_CURRENCY;
+        }
 
-            Amount authAmount = authorizationRequest.getTransactionAmount();
+        if (amount.getAmount() == null)
+        {
+            return INVALID_AMOUNT;
+        }
 
-            saveEvent(authorizationRequest.getUserId(),
-            authorizationRequest.getMessageId(),
-            TransactionStatus.AUTH_FAIL,
-            authAmount.getDebitOrCredit(),
-            authAmount.getCurrency(),
-            authAmount.getAmount(),
-            Instant.now().toString());
+        return validate(FixedPoint.tryParse(amount.getAmount(), CurrencyRegistry.exponent(amount.getCurrency())));
+    }
 
-            return new ServerError(e.getMessage());
+    // Three upper case letters, as the schema requires, for callers that skip bean validation.
+    private static boolean isCurrencyCode(String currency)
+    {
+        if (currency == null || currency.length() != 3)
+        {
+            return false;
         }
-        
+
+        for (int i = 0; i < 3; i++)
+        {
+            char c = currency.charAt(i);
+
+            if (c < 'A' || c > 'Z')
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Checks the amount of a request as parsed by {@link FixedPoint#tryParse},
+     * returning the error to answer it with, or null if it is valid.
+     */
+    private static ServerError validate(long units)
+    {
+        if (units == FixedPoint.TOO_PRECISE)
+        {
+            return TOO_PRECISE;
+        }
+
+        if (units == FixedPoint.OUT_OF_RANGE)
+        {
+            return OUT_OF_RANGE;
+        }
+
+        return units < 0 ? INVALID_AMOUNT : null;
+    }
+
+    /*
+     * Counts a request that couldn't be processed and answers it with the
+     * error. Nothing is recorded for it, since it changed no balance.
+     */
+    private static ServerError reject(ServerError error, Counter errors)
+    {
+        errors.increment();
+        return error;
     }
 
-    public Object load(LoadRequest loadRequest)
+    /**
+     * @param loadRequests
+     * @return List of LoadResponse or ServerError, one per request and in the
+     * same order.
+     *
+     * Processes the requests one after another, as {@link #load} would, but
+     * commits all of their events together once at the end. See
+     * {@link #processBatch}.
+     */
+    public List<Result> loadBatch(List<LoadRequest> loadRequests)
+    {
+        return processBatch(loadRequests, this::checkLoad, this::processLoad);
+    }
+
+    /**
+     * @param authorizationRequests
+     * @return List of AuthorizationResponse or ServerError, one per request
+     * and in the same order.
+     *
+     * The batch counterpart of {@link #authorize}, see {@link #loadBatch}.
+     */
+    public List<Result> authorizeBatch(List<AuthorizationRequest> authorizationRequests)
     {
+        return processBatch(authorizationRequests, this::checkAuthorization, this::processAuthorization);
+    }
+
+    /*
+     * Applies the requests to the balances in order, so a user's requests
+     * see each other's effects just as they would one request at a time, and
+     * collects their events instead of writing each. The events are then
+     * appended to the journal as one unit, which stores them in a single
+     * transaction, and only once that is durable are the responses published
+     * to the idempotency index. The order locks of every user in the batch
+     * are held until the events are queued, as in {@link #applyInOrder}.
+     *
+     * If the events can't be appended, the balance changes already applied
+     * are undone in reverse order before the claims are released, so the
+     * whole batch fails and can be retried as it was.
+     *
+     * Invalid requests are answered with their error without claiming their
+     * message id, as a single request would be. A message id repeated within
+     * the batch gets the response of its first valid occurrence. One claimed
+     * by a request outside the batch is only waited for after this batch's
+     * own claims are settled, so two batches that share ids can't end up
+     * waiting on each other.
+     *
+     * The wait for the events is timed into "ledger.event.persist" once for
+     * the whole batch, as it is one append.
+     */
+    private <R extends Request> List<Result> processBatch(List<R> requests, Function<R, ServerError> check,
+    BiFunction<R, Consumer<TransactionEvent>, Result> process)
+    {
+        Result[] results = new Result[requests.size()];
+        List<TransactionEvent> events = new ArrayList<>(requests.size());
+
+        Map<String, Integer> firstOccurrence = new HashMap<>();
+        Map<Integer, IdempotencyIndex.Claim> claimed = new LinkedHashMap<>();
+        Map<Integer, IdempotencyIndex.Claim> elsewhere = new LinkedHashMap<>();
+        Map<Integer, Integer> repeated = new HashMap<>();
+        CompletableFuture<Void> durable;
+        long queued;
+
         try
-        {              
-            // Get the specifics of the requested load.
-            Amount loadAmount = loadRequest.getTransactionAmount();
+        {
+            Iterable<Lock> locks = lockUsers(requests);
 
-            if (loadAmount.getDebitOrCredit() != DebitCredit.CREDIT)
+            try
             {
-                throw new Exception("Invalid DebitCredit Input");
+                for (int i = 0; i < results.length; i++)
+                {
+                    R request = requests.get(i);
+                    ServerError invalid = check.apply(request);
+
+                    if (invalid != null)
+                    {
+                        results[i] = invalid;
+                        continue;
+                    }
+
+                    Integer first = request.getMessageId() == null ? null : firstOccurrence.putIfAbsent(request.getMessageId(), i);
+
+                    if (first != null)
+                    {
+                        repeated.put(i, first);
+                        continue;
+                    }
+
+                    IdempotencyIndex.Claim claim = idempotencyIndex.claim(request.getUserId(), request.getMessageId());
+
+                    if (!claim.isNew())
+                    {
+                        elsewhere.put(i, claim);
+                        continue;
+                    }
+
+                    claimed.put(i, claim);
+                    results[i] = process.apply(request, events::add);
+                }
+
+                queued = System.nanoTime();
+                durable = eventJournal.append(events);
+            }
+            finally
+            {
+                for (Lock lock : locks)
+                {
+                    lock.unlock();
+                }
             }
 
-            // Retrieve the current balances of the user.
-            HashMap<String, BigDecimal> currentBalances = userService.getBalances(loadRequest.getUserId());
-
-            // Get what the requested amount to load is and what currency.
-            String targetCurrency = loadAmount.getCurrency();
-            BigDecimal targetBalance = new BigDecimal(loadAmount.getAmount());
+            PersistenceEvent persistence = new PersistenceEvent();
+            persistence.begin();
 
-            /*
-             * If the user already has funds in the currency, add to it. If they
-             * dont then add as a new entry to their balances.
-             */
-            if (currentBalances.containsKey(loadAmount.getCurrency()))
+            try
             {
-                currentBalances.put(targetCurrency, currentBalances.get(targetCurrency).add(targetBalance));
+                awaitDurable(durable);
             }
-            else
+            finally
             {
-                currentBalances.put(targetCurrency, targetBalance);
+                persistLatency.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
             }
 
-            // Push changes to in-memory object holding current user balances.
-            userService.updateBalances(loadRequest.getUserId(), currentBalances);
-            
-            // Save the event as a successful load.
-            saveEvent(loadRequest.getUserId(),
-            loadRequest.getMessageId(),
-            TransactionStatus.LOAD_SUCCESS,
-            loadAmount.getDebitOrCredit(),
-            loadAmount.getCurrency(),
-            loadAmount.getAmount(),
-            Instant.now().toString());
+            persistence.finish(null, "durable");
+        }
+        catch (RuntimeException | Error e)
+        {
+            undo(events);
 
-            // Return required format of response, with updated balance.
-            loadAmount.setAmount(currentBalances.get(targetCurrency).toString());
-            LoadResponse resp = new LoadResponse(loadRequest.getUserId(), loadRequest.getMessageId(), loadAmount);
+            for (IdempotencyIndex.Claim claim : claimed.values())
+            {
+                claim.release(e);
+            }
 
-            return resp;
+            throw e;
         }
-        catch (Exception e)
+
+        for (Map.Entry<Integer, IdempotencyIndex.Claim> entry : claimed.entrySet())
         {
-            /*
-             * If there is an issue when trying to process the request, catch
-             * the error and save the event as a failed load, then return the error.
-             */
+            entry.getValue().complete(results[entry.getKey()]);
+        }
 
-            Amount loadAmount = loadRequest.getTransactionAmount();
+        for (Map.Entry<Integer, IdempotencyIndex.Claim> entry : elsewhere.entrySet())
+        {
+            try
+            {
+                results[entry.getKey()] = entry.getValue().await();
+            }
+            catch (RuntimeException e)
+            {
+                // The other request failed, this batch is committed regardless.
+                results[entry.getKey()] = new ServerError(e.getMessage());
+            }
+        }
 
-            saveEvent(loadRequest.getUserId(),
-            loadRequest.getMessageId(),
-            TransactionStatus.LOAD_FAIL,
-            loadAmount.getDebitOrCredit(),
-            loadAmount.getCurrency(),
-            loadAmount.getAmount(),
-            Instant.now().toString());
-            
-            return new ServerError(e.getMessage());
+        for (Map.Entry<Integer, Integer> entry : repeated.entrySet())
+        {
+            results[entry.getKey()] = results[entry.getValue()];
         }
+
+        return Arrays.asList(results);
     }
     
-    
+    /*
+     * Locks the order locks of every user of the requests. Guava hands out
+     * bulk locks in stripe order, so batches that share users can't deadlock,
+     * and a stripe shared by several users is simply locked more than once.
+     */
+    private Iterable<Lock> lockUsers(List<? extends Request> requests)
+    {
+        List<String> userIds = new ArrayList<>(requests.size());
+
+        for (Request request : requests)
+        {
+            userIds.add(request.getUserId());
+        }
+
+        Iterable<Lock> locks = orderLocks.bulkGet(userIds);
+
+        for (Lock lock : locks)
+        {
+            lock.lock();
+        }
+
+        return locks;
+    }
+
+    /**
+     * @param loadRequest
+     * @return CompletableFuture<Result> of the LoadResponse or ServerError.
+     *
+     * Variant of {@link #load} that doesn't wait for the event to be written.
+     * The balance is updated before this returns, so requests submitted one
+     * after another are applied in that order, while the future completes
+     * once the event is durable. Lets a caller keep processing while earlier
+     * requests are being persisted, see {@link dev.service.ingest.StreamIngestor}.
+     */
+    public CompletableFuture<Result> loadAsync(LoadRequest loadRequest)
+    {
+        return processAsync(loadRequest, this::checkLoad, this::processLoad);
+    }
+
+    /**
+     * @param authorizationRequest
+     * @return CompletableFuture<Result> of the AuthorizationResponse or
+     * ServerError.
+     *
+     * Variant of {@link #authorize}, see {@link #loadAsync}.
+     */
+    public CompletableFuture<Result> authorizeAsync(AuthorizationRequest authorizationRequest)
+    {
+        return processAsync(authorizationRequest, this::checkAuthorization, this::processAuthorization);
+    }
+
+    /*
+     * Like {@link IdempotencyIndex#execute}, except that the response is only
+     * published, and the claim only released on failure, once the journal
+     * has settled the event. An event the journal fails to persist has its
+     * balance change undone first, see {@link #applyInOrder}.
+     */
+    private <R extends Request> CompletableFuture<Result> processAsync(R request, Function<R, ServerError> check,
+    BiFunction<R, Consumer<TransactionEvent>, Result> process)
+    {
+        ServerError invalid = check.apply(request);
+
+        if (invalid != null)
+        {
+            return CompletableFuture.completedFuture(invalid);
+        }
+
+        IdempotencyIndex.Claim claim = idempotencyIndex.claim(request.getUserId(), request.getMessageId());
+
+        if (!claim.isNew())
+        {
+            return claim.response();
+        }
+
+        CompletableFuture<Result> response;
+
+        try
+        {
+            response = applyInOrder(request, process);
+        }
+        catch (RuntimeException | Error e)
+        {
+            claim.release(e);
+            throw e;
+        }
+
+        return response.handle((result, e) -> {
+            if (e != null)
+            {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                claim.release(cause);
+                throw new CompletionException(cause);
+            }
+
+            claim.complete(result);
+            return result;
+        });
+    }
+
     /**
      * @param userId
      * @param messageId
@@ -229,14 +856,43 @@ public class BankLedgerService {
      * 
      * A function that will take in all the information that is required to be
      * kept for an event and proceed to construct the event and write it to the
-     * database.
+     * database. The write goes through the {@link EventJournal}, which decides
+     * (per its durability mode) whether this waits for the commit.
      */
     public void saveEvent(String userId, String messageId, TransactionStatus transactionStatus, DebitCredit debitOrCredit, 
-    String currency, String amount, String timeOfEvent)
+    String currency, BigDecimal amount, String timeOfEvent)
     {
-        TransactionEvent event = new TransactionEvent(userId, messageId, transactionStatus, 
-        debitOrCredit, currency, amount, timeOfEvent);
+        persist(new TransactionEvent(userId, messageId, transactionStatus, 
+        debitOrCredit, currency, amount, timeOfEvent));
+    }
+
+    // Writes the event of a single request, see {@link #saveEvent}.
+    private void persist(TransactionEvent event)
+    {
+        PersistenceEvent persistence = new PersistenceEvent();
+        persistence.begin();
+
+        try
+        {
+            persistLatency.record(() -> awaitDurable(eventJournal.append(event)));
+            persistence.finish(event.getUserId(), "durable");
+        }
+        catch (RuntimeException e)
+        {
+            persistence.finish(event.getUserId(), "failed");
+            throw e;
+        }
+    }
 
-        transactionEventRepository.saveAndFlush(event);
+    private static <T> T awaitDurable(CompletableFuture<T> durable)
+    {
+        try
+        {
+            return durable.join();
+        }
+        catch (CompletionException e)
+        {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,166 @@
+package dev.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.EventFilter;
+import dev.repository.EventStore;
+import dev.schemas.Amount;
+import dev.schemas.Transaction;
+import dev.service.balance.FixedPoint;
+
+/*
+ * Reads a user's transaction history out of the {@link EventStore} one page
+ * at a time, oldest first by event time.
+ *
+ * Pages are cut by keyset rather than by offset: the cursor handed out with a
+ * page is the event time and sequence number of its last event, and the next
+ * page is read from just after it. That costs the same on the thousandth page
+ * as on the first, and events recorded between two requests don't shift what
+ * the next page holds.
+ */
+@Service
+public class TransactionHistoryService {
+
+    private final EventStore eventStore;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+
+    public TransactionHistoryService(EventStore eventStore,
+    @Value("${ledger.history.default-page-size:100}") int defaultPageSize,
+    @Value("${ledger.history.max-page-size:1000}") int maxPageSize)
+    {
+        this.eventStore = eventStore;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * @param userId
+     * @param cursor the cursor returned with the previous page, or null for
+     * the first page.
+     * @param limit most transactions on the page, the configured default if
+     * null.
+     * @param statuses only transactions with one of these statuses, all if
+     * null or empty.
+     * @param currency only transactions in this currency, all if null.
+     * @return Page, which reads the transactions when it is consumed.
+     *
+     * Throws an IllegalArgumentException for a cursor that wasn't handed out
+     * by this service or a limit outside 1 to the configured maximum, before
+     * anything is read.
+     */
+    public Page page(String userId, String cursor, Integer limit, Set<TransactionStatus> statuses, String currency)
+    {
+        int size = limit == null ? defaultPageSize : limit;
+
+        if (size < 1 || size > maxPageSize)
+        {
+            throw new IllegalArgumentException("limit must be between 1 and " + maxPageSize);
+        }
+
+        long[] after = cursor == null ? new long[] { Long.MIN_VALUE, 0 } : decodeCursor(cursor);
+
+        return new Page(userId, after[0], after[1], size, new EventFilter(statuses, currency));
+    }
+
+    // The cursor is "<event time>.<sequence number>" in URL-safe Base64.
+    private static String encodeCursor(long eventTime, long sequence)
+    {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((eventTime + "." + sequence).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long[] decodeCursor(String cursor)
+    {
+        try
+        {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII).split("\\.", -1);
+
+            if (parts.length == 2)
+            {
+                long[] after = { Long.parseLong(parts[0]), Long.parseLong(parts[1]) };
+
+                if (after[1] >= 0)
+                {
+                    return after;
+                }
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Falls through to the error below, NumberFormatException included.
+        }
+
+        throw new IllegalArgumentException("Invalid cursor");
+    }
+
+    private static Transaction transaction(TransactionEvent event)
+    {
+        Amount amount = new Amount(event.getAmountUnits() == null ? null : FixedPoint.format(event.getAmountUnits(), event.getAmountScale()),
+            event.getCurrency(), event.getDebitOrCredit());
+
+        return new Transaction(event.getMessageId(), event.getTransactionStatus(), amount, event.getTimeOfEvent());
+    }
+
+    /*
+     * One page of a history, read straight from the store's cursor when
+     * forEach is called, so only the transaction being handed over is held
+     * in memory.
+     */
+    public final class Page {
+
+        private final String userId;
+        private final long afterTime;
+        private final long afterSequence;
+        private final int size;
+        private final EventFilter filter;
+
+        private long lastTime;
+        private long lastSequence;
+        private int read;
+
+        private Page(String userId, long afterTime, long afterSequence, int size, EventFilter filter)
+        {
+            this.userId = userId;
+            this.afterTime = afterTime;
+            this.afterSequence = afterSequence;
+            this.size = size;
+            this.filter = filter;
+        }
+
+        /**
+         * @param consumer
+         * @return String, the cursor of the next page, or null if this is the
+         * last one.
+         *
+         * Hands the transactions of the page to consumer in order. One event
+         * more than fits on the page is read, to tell whether there is
+         * another page without an extra query.
+         */
+        public String forEach(Consumer<Transaction> consumer)
+        {
+            lastTime = afterTime;
+            lastSequence = afterSequence;
+            read = 0;
+
+            eventStore.forEachByUser(userId, afterTime, afterSequence, filter, size + 1, event -> {
+                if (read++ < size)
+                {
+                    lastTime = event.getEventTime();
+                    lastSequence = event.getSequenceNumber();
+                    consumer.accept(transaction(event));
+                }
+            });
+
+            return read > size ? encodeCursor(lastTime, lastSequence) : null;
+        }
+    }
+}
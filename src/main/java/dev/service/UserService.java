@@ -1,67 +1,97 @@
 package dev.service;
 
-import java.math.BigDecimal;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.springframework.stereotype.Service;
 
+import dev.service.balance.BalanceStore;
+import dev.service.balance.BalanceUpdate;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
 /*
  * This service handles the managment of a user in the service, essentially
  * CRUD operations for users. It is the utility to interact with the in-memory
  * object that applies the requests accordingly and shows the real time balances
  * of users.
+ *
+ * It publishes the number of users held in "ledger.users" and the number of
+ * (user, currency) balances in "ledger.balances".
  */
 
 @Service
-public class UserService {
+public class UserService implements MeterBinder {
 
     /*
      * This is the chosen in-memory object to retain information regarding users.
      * 
      * It is structured such that a user -> map of balances, where the map of
      * balances is such that it stores currency -> amount representing how much
-     * money the user has in each currency.
+     * money the user has in each currency, in minor units (see
+     * {@link dev.service.balance.FixedPoint}). The backend is picked through the
+     * "ledger.balance-store" property, see {@link BalanceStore}.
      */
-    private HashMap<String, HashMap<String, BigDecimal>> userMap;
+    private final BalanceStore balanceStore;
 
-    public UserService()
+    public UserService(BalanceStore balanceStore)
     {
-        this.userMap = new HashMap<String, HashMap<String, BigDecimal>>();
+        this.balanceStore = balanceStore;
     }
 
 
     /**
      * @param userId
-     * @return HashMap<String, BigDecimal> the current balances of the user.
+     * @return Map<String, Long> the current balances of the user, in minor units.
      * 
-     * Given a userId tied to a specific user, retrieves the current balances linked
-     * to the user. If the user doesn't exist, it creates one and starts with
-     * an empty account (no money).
+     * Given a userId tied to a specific user, retrieves a read-only snapshot of
+     * the current balances linked to the user. If the user doesn't exist, the
+     * snapshot is empty (no money).
      */
-    public HashMap<String, BigDecimal> getBalances(String userId)
+    public Map<String, Long> getBalances(String userId)
     {
-        if (userMap.containsKey(userId))
-        {
-            return userMap.get(userId);
-        }
+        return balanceStore.getBalances(userId);
+    }
 
-        HashMap<String, BigDecimal> balances = new HashMap<>();
-        userMap.put(userId, balances);
+    /**
+     * @param userIds
+     * @return List<Map<String, Long>> the current balances of each user, in
+     * the order of the ids.
+     *
+     * Like {@link #getBalances(String)} for many users at once, all read as
+     * of the same moment.
+     */
+    public List<Map<String, Long>> getBalances(List<String> userIds)
+    {
+        return balanceStore.getBalances(userIds);
+    }
 
-        return balances;
+    /**
+     * @param userId
+     * @param currencyId see {@link dev.service.balance.CurrencyRegistry}.
+     * @param amount in minor units of the currency.
+     * @return BalanceUpdate with the new balance of the user in the currency.
+     * 
+     * Atomically adds the amount to the user's balance in the currency.
+     */
+    public BalanceUpdate credit(String userId, int currencyId, long amount)
+    {
+        return balanceStore.credit(userId, currencyId, amount);
     }
 
     /**
      * @param userId
-     * @param newBalances
+     * @param currencyId see {@link dev.service.balance.CurrencyRegistry}.
+     * @param amount in minor units of the currency.
+     * @return BalanceUpdate, applied only if the user had sufficient funds.
      * 
-     * Given a userId pertaining to a specific user and a balance map, sets
-     * the provided balance map to be the balance map of the user in the
-     * in-memory object.
+     * Atomically checks that the user holds at least the amount in the currency
+     * and, if so, removes it from their balance.
      */
-    public void updateBalances(String userId, HashMap<String, BigDecimal> newBalances)
+    public BalanceUpdate debit(String userId, int currencyId, long amount)
     {
-        userMap.put(userId, newBalances);
+        return balanceStore.debit(userId, currencyId, amount);
     }
 
     /**
@@ -72,7 +102,18 @@ public class UserService {
      */
     public void deleteUser(String userId)
     {
-        userMap.remove(userId);
+        balanceStore.deleteUser(userId);
     }
 
+    @Override
+    public void bindTo(MeterRegistry meterRegistry)
+    {
+        Gauge.builder("ledger.users", balanceStore, BalanceStore::userCount)
+            .description("Users held in memory")
+            .register(meterRegistry);
+
+        Gauge.builder("ledger.balances", balanceStore, BalanceStore::balanceCount)
+            .description("Currencies held across all users")
+            .register(meterRegistry);
+    }
 }
@@ -0,0 +1,82 @@
+package dev.service.balance;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Helpers for the compact per-user balance layout shared by the stores: a
+ * single long[] of (currency id, minor units) pairs, i.e.
+ *
+ *   [id0, units0, id1, units1, ...]
+ *
+ * Users hold one to a few currencies, so a linear scan over the ids is faster
+ * than hashing and the whole account costs one small array instead of a
+ * HashMap with its table, nodes and boxed values.
+ */
+final class BalanceSlots {
+
+    static final long[] EMPTY = new long[0];
+
+    private BalanceSlots() {}
+
+    /**
+     * @return int, index of the units slot for the currency or -1 if the user
+     * doesn't hold it.
+     */
+    static int indexOf(long[] slots, int currencyId)
+    {
+        for (int i = 0; i < slots.length; i += 2)
+        {
+            if (slots[i] == currencyId)
+            {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return long[], a copy of slots with the currency set to units.
+     */
+    static long[] with(long[] slots, int currencyId, long units)
+    {
+        int index = indexOf(slots, currencyId);
+
+        if (index >= 0)
+        {
+            long[] copy = slots.clone();
+            copy[index] = units;
+
+            return copy;
+        }
+
+        long[] grown = Arrays.copyOf(slots, slots.length + 2);
+        grown[slots.length] = currencyId;
+        grown[slots.length + 1] = units;
+
+        return grown;
+    }
+
+    /**
+     * @return Map<String, Long>, read-only currency code -> units view.
+     */
+    static Map<String, Long> toMap(long[] slots)
+    {
+        if (slots == null || slots.length == 0)
+        {
+            return Collections.emptyMap();
+        }
+
+        HashMap<String, Long> balances = new HashMap<>();
+
+        for (int i = 0; i < slots.length; i += 2)
+        {
+            balances.put(CurrencyRegistry.code((int) slots[i]), slots[i + 1]);
+        }
+
+        return Collections.unmodifiableMap(balances);
+    }
+}
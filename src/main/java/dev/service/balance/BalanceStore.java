@@ -0,0 +1,81 @@
+package dev.service.balance;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Backend of {@link dev.service.UserService}, holding the current balances of
+ * every user in memory. Currencies are identified by their
+ * {@link CurrencyRegistry} id and amounts are fixed-point minor units of the
+ * currency, see {@link FixedPoint}. Each operation is atomic with respect to the user it
+ * touches, so callers never need to lock around a check-and-update themselves.
+ *
+ * Which implementation is used is selected with the "ledger.balance-store"
+ * property, see {@link LockingBalanceStore} and {@link CasBalanceStore}.
+ */
+public interface BalanceStore {
+
+    /**
+     * @param userId
+     * @return Map<String, Long>, currency -> minor units held by the user.
+     *
+     * Returns a consistent, read-only snapshot of a user's balances. Users that
+     * don't exist yet have an empty snapshot.
+     */
+    Map<String, Long> getBalances(String userId);
+
+    /**
+     * @param userIds
+     * @return List<Map<String, Long>>, the balances of each user, in the order
+     * of the ids.
+     *
+     * Reads several users' balances as of one moment, so no update lands
+     * between the first user being read and the last; totals taken across the
+     * users are consistent with each other.
+     */
+    List<Map<String, Long>> getBalances(List<String> userIds);
+
+    /**
+     * @param userId
+     * @param currencyId
+     * @param amount
+     * @return BalanceUpdate, always applied, with the new balance.
+     *
+     * Adds funds to a user in the given currency, creating the user and the
+     * currency entry if they don't exist yet. Throws an ArithmeticException,
+     * leaving the balance untouched, if the result would overflow.
+     */
+    BalanceUpdate credit(String userId, int currencyId, long amount);
+
+    /**
+     * @param userId
+     * @param currencyId
+     * @param amount
+     * @return BalanceUpdate, applied only if the user had enough funds.
+     *
+     * Removes funds from a user if their balance in the currency covers the
+     * amount. Otherwise nothing changes and the current balance is returned.
+     */
+    BalanceUpdate debit(String userId, int currencyId, long amount);
+
+    /**
+     * @param userId
+     *
+     * Removes the user and all of their balances.
+     */
+    void deleteUser(String userId);
+
+    /**
+     * @return int, the number of users held.
+     */
+    int userCount();
+
+    /**
+     * @return long, the number of (user, currency) balances held.
+     *
+     * Walks every user, so it is meant for metrics scrapes rather than the
+     * request path. Not a snapshot: users updated during the walk may or may
+     * not be counted with their new currencies.
+     */
+    long balanceCount();
+}
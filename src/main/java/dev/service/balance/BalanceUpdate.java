@@ -0,0 +1,26 @@
+package dev.service.balance;
+
+/*
+ * Immutable outcome of a credit or debit against a {@link BalanceStore}.
+ * Carries whether the change was applied and the user's balance in the
+ * currency afterwards, in minor units (zero if they never held it).
+ */
+public final class BalanceUpdate {
+
+    private final boolean applied;
+    private final long balance;
+
+    public BalanceUpdate(boolean applied, long balance)
+    {
+        this.applied = applied;
+        this.balance = balance;
+    }
+
+    public boolean isApplied() {
+        return applied;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+}
@@ -0,0 +1,184 @@
+package dev.service.balance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/*
+ * Non-blocking balance store. Every user maps to an immutable balance array
+ * (see {@link BalanceSlots}) that is never modified in place; an update
+ * builds a new array and installs it with a compare-and-swap, retrying if
+ * another request got there first. Readers simply take the current array,
+ * which is a consistent snapshot.
+ *
+ * Selected with "ledger.balance-store=cas".
+ */
+@Component
+@ConditionalOnProperty(name = "ledger.balance-store", havingValue = "cas")
+public class CasBalanceStore implements BalanceStore {
+
+    // Attempts at a multi-user snapshot before settling for one that may be torn.
+    private static final int MAX_COLLECTS = 64;
+
+    private final ConcurrentHashMap<String, long[]> userMap;
+
+    public CasBalanceStore()
+    {
+        this.userMap = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Map<String, Long> getBalances(String userId)
+    {
+        return BalanceSlots.toMap(userMap.get(userId));
+    }
+
+    /*
+     * Double collect: reads every user's array, then reads them again. Arrays
+     * are never reused, so if both passes saw the very same arrays nothing
+     * changed in between and the first pass is a snapshot as of the moment
+     * it finished. Under constant writes to the users this could go on for
+     * ever, so after a bounded number of attempts the last pass is taken as
+     * is, each user consistent but not necessarily with each other.
+     */
+    @Override
+    public List<Map<String, Long>> getBalances(List<String> userIds)
+    {
+        long[][] previous = collect(userIds);
+
+        for (int attempt = 1; attempt < MAX_COLLECTS; attempt++)
+        {
+            long[][] current = collect(userIds);
+
+            if (sameArrays(previous, current))
+            {
+                break;
+            }
+
+            previous = current;
+        }
+
+        List<Map<String, Long>> balances = new ArrayList<>(previous.length);
+
+        for (long[] slots : previous)
+        {
+            balances.add(BalanceSlots.toMap(slots));
+        }
+
+        return balances;
+    }
+
+    private long[][] collect(List<String> userIds)
+    {
+        long[][] arrays = new long[userIds.size()][];
+
+        for (int i = 0; i < arrays.length; i++)
+        {
+            arrays[i] = userMap.get(userIds.get(i));
+        }
+
+        return arrays;
+    }
+
+    private static boolean sameArrays(long[][] a, long[][] b)
+    {
+        for (int i = 0; i < a.length; i++)
+        {
+            if (a[i] != b[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public BalanceUpdate credit(String userId, int currencyId, long amount)
+    {
+        while (true)
+        {
+            long[] current = userMap.get(userId);
+            int index = current == null ? -1 : BalanceSlots.indexOf(current, currencyId);
+            long newBalance = index < 0 ? amount : FixedPoint.add(current[index], amount);
+
+            long[] replacement = BalanceSlots.with(current == null ? BalanceSlots.EMPTY : current, currencyId, newBalance);
+
+            if (install(userId, current, replacement))
+            {
+                return new BalanceUpdate(true, newBalance);
+            }
+        }
+    }
+
+    @Override
+    public BalanceUpdate debit(String userId, int currencyId, long amount)
+    {
+        while (true)
+        {
+            long[] current = userMap.get(userId);
+            int index = current == null ? -1 : BalanceSlots.indexOf(current, currencyId);
+
+            if (index < 0)
+            {
+                return new BalanceUpdate(false, 0);
+            }
+
+            if (current[index] < amount)
+            {
+                return new BalanceUpdate(false, current[index]);
+            }
+
+            long newBalance = current[index] - amount;
+
+            if (install(userId, current, BalanceSlots.with(current, currencyId, newBalance)))
+            {
+                return new BalanceUpdate(true, newBalance);
+            }
+        }
+    }
+
+    @Override
+    public void deleteUser(String userId)
+    {
+        userMap.remove(userId);
+    }
+
+    @Override
+    public int userCount()
+    {
+        return userMap.size();
+    }
+
+    @Override
+    public long balanceCount()
+    {
+        long count = 0;
+
+        for (long[] slots : userMap.values())
+        {
+            count += slots.length / 2;
+        }
+
+        return count;
+    }
+
+    /*
+     * Swaps in the new array if the user still maps to the expected one.
+     * Arrays use identity equality, so replace() is a true compare-and-swap on
+     * the reference.
+     */
+    private boolean install(String userId, long[] expected, long[] replacement)
+    {
+        if (expected == null)
+        {
+            return userMap.putIfAbsent(userId, replacement) == null;
+        }
+
+        return userMap.replace(userId, expected, replacement);
+    }
+}
@@ -0,0 +1,36 @@
+package dev.service.balance;
+
+import java.util.Currency;
+
+/*
+ * Resolves how many fraction digits (the ISO 4217 minor unit exponent) a
+ * currency has, e.g. USD -> 2, JPY -> 0, BHD -> 3. Codes the JDK doesn't know,
+ * or that have no minor unit defined, fall back to two digits.
+ *
+ * Lookups aren't cached here, {@link CurrencyRegistry} resolves each code once
+ * and keeps the exponent next to the currency's id.
+ */
+public final class CurrencyPrecision {
+
+    public static final int DEFAULT_EXPONENT = 2;
+
+    private CurrencyPrecision() {}
+
+    /**
+     * @param currencyCode
+     * @return int, number of fraction digits of the currency.
+     */
+    public static int exponent(String currencyCode)
+    {
+        try
+        {
+            int digits = Currency.getInstance(currencyCode).getDefaultFractionDigits();
+
+            return digits < 0 ? DEFAULT_EXPONENT : digits;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return DEFAULT_EXPONENT;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package dev.service.balance;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Global table interning currency codes to small integer ids, handed out in
+ * order of first use (so the common currencies end up with the lowest ids).
+ * Balances are stored against these ids, which means a request only hashes
+ * its currency string once, here, and everything after works on an int.
+ *
+ * The id also indexes the currency's code and minor unit exponent. Currency
+ * codes come from clients, so the table is capped to keep garbage codes from
+ * growing it without bound, and only loads register a code: paths that merely
+ * read or debit a currency use {@link #lookup}, since nobody can hold one
+ * that was never loaded.
+ */
+public final class CurrencyRegistry {
+
+    public static final int MAX_CURRENCIES = 4096;
+
+    public static final String TABLE_FULL = "Too many distinct currencies";
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+
+    /*
+     * Id -> code and id -> exponent. Copied on every (rare) registration and
+     * republished through the volatile fields before the id becomes visible
+     * in IDS, so anyone who holds an id can read its entry without locking.
+     */
+    private static volatile String[] codes = new String[0];
+    private static volatile int[] exponents = new int[0];
+    private static int size;
+
+    /*
+     * Guards registration. A lock rather than a monitor, so a request on a
+     * virtual thread that waits here parks instead of pinning its carrier.
+     */
+    private static final ReentrantLock REGISTER_LOCK = new ReentrantLock();
+
+    private CurrencyRegistry() {}
+
+    /**
+     * @param currencyCode
+     * @return int, the id of the currency, registering it on first use.
+     *
+     * Throws an IllegalArgumentException once the table is full.
+     */
+    public static int resolve(String currencyCode)
+    {
+        int id = tryResolve(currencyCode);
+
+        if (id < 0)
+        {
+            throw new IllegalArgumentException(TABLE_FULL);
+        }
+
+        return id;
+    }
+
+    /**
+     * @param currencyCode
+     * @return int, the id of the currency, registering it on first use, or
+     * -1 if it is new and the table is full.
+     *
+     * Like {@link #resolve}, for the request path where a new currency past
+     * the cap is a client error to answer rather than an exception to throw.
+     */
+    public static int tryResolve(String currencyCode)
+    {
+        Integer id = IDS.get(currencyCode);
+
+        return id != null ? id : register(currencyCode);
+    }
+
+    /**
+     * @param currencyCode
+     * @return int, the id of the currency or -1 if it was never registered.
+     */
+    public static int lookup(String currencyCode)
+    {
+        Integer id = IDS.get(currencyCode);
+
+        return id != null ? id : -1;
+    }
+
+    public static String code(int currencyId)
+    {
+        return codes[currencyId];
+    }
+
+    public static int exponent(int currencyId)
+    {
+        return exponents[currencyId];
+    }
+
+    /**
+     * @param currencyCode
+     * @return int, the minor unit exponent of the currency, see
+     * {@link CurrencyPrecision}, without registering it.
+     */
+    public static int exponent(String currencyCode)
+    {
+        int id = lookup(currencyCode);
+
+        return id >= 0 ? exponents[id] : CurrencyPrecision.exponent(currencyCode);
+    }
+
+    private static int register(String currencyCode)
+    {
+        REGISTER_LOCK.lock();
+
+        try
+        {
+            Integer existing = IDS.get(currencyCode);
+
+            if (existing != null)
+            {
+                return existing;
+            }
+
+            if (size == MAX_CURRENCIES)
+            {
+                return -1;
+            }
+
+            int id = size;
+
+            String[] grownCodes = Arrays.copyOf(codes, id + 1);
+            int[] grownExponents = Arrays.copyOf(exponents, id + 1);
+
+            grownCodes[id] = currencyCode;
+            grownExponents[id] = CurrencyPrecision.exponent(currencyCode);
+
+            exponents = grownExponents;
+            codes = grownCodes;
+
+            size++;
+            IDS.put(currencyCode, id);
+
+            return id;
+        }
+        finally
+        {
+            REGISTER_LOCK.unlock();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package dev.service.balance;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/*
+ * Conversions between decimal strings and fixed-point amounts held as a count
+ * of minor units in a long, e.g. "3.23" USD (scale 2) <-> 323. Balances are
+ * kept and updated in this form so the request path never allocates
+ * BigDecimals; they are only produced at the persistence edge.
+ *
+ * Every operation detects overflow instead of silently wrapping.
+ */
+public final class FixedPoint {
+
+    private FixedPoint() {}
+
+    /*
+     * What {@link #tryParse} returns instead of an amount when it can't parse
+     * one. Amounts are never negative, so these can't be mistaken for one.
+     */
+    public static final long INVALID = -1;
+    public static final long TOO_PRECISE = -2;
+    public static final long OUT_OF_RANGE = -3;
+
+    /**
+     * @param text
+     * @param scale number of fraction digits of the currency.
+     * @return long, the amount in minor units.
+     *
+     * Parses a plain non-negative decimal ("100", "3.23", "0.5", ".5") into
+     * minor units. Trailing zeros beyond the scale are accepted, any other
+     * extra precision, signs, exponents or whitespace are rejected with a
+     * NumberFormatException. Amounts that don't fit a long throw an
+     * ArithmeticException.
+     */
+    public static long parse(String text, int scale)
+    {
+        long units = tryParse(text, scale);
+
+        if (units == OUT_OF_RANGE)
+        {
+            throw new ArithmeticException(message(units));
+        }
+
+        if (units < 0)
+        {
+            throw new NumberFormatException(message(units));
+        }
+
+        return units;
+    }
+
+    /**
+     * @param text
+     * @param scale number of fraction digits of the currency.
+     * @return long, the amount in minor units, or INVALID, TOO_PRECISE or
+     * OUT_OF_RANGE if it can't be parsed.
+     *
+     * Like {@link #parse}, but reports a bad amount through the result
+     * instead of throwing, for the request path where bad amounts come from
+     * clients and are common enough that building exceptions for them shows.
+     */
+    public static long tryParse(String text, int scale)
+    {
+        int length = text.length();
+        long units = 0;
+        int fractionDigits = -1;
+        boolean anyDigit = false;
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+
+            if (c == '.')
+            {
+                if (fractionDigits >= 0)
+                {
+                    return INVALID;
+                }
+
+                fractionDigits = 0;
+                continue;
+            }
+
+            int digit = c - '0';
+
+            if (digit < 0 || digit > 9)
+            {
+                return INVALID;
+            }
+
+            anyDigit = true;
+
+            if (fractionDigits >= 0 && fractionDigits == scale)
+            {
+                // Past the precision of the currency only zeros are allowed.
+                if (digit != 0)
+                {
+                    return TOO_PRECISE;
+                }
+
+                continue;
+            }
+
+            if (fractionDigits >= 0)
+            {
+                fractionDigits++;
+            }
+
+            if (units > (Long.MAX_VALUE - digit) / 10)
+            {
+                return OUT_OF_RANGE;
+            }
+
+            units = units * 10 + digit;
+        }
+
+        if (!anyDigit)
+        {
+            return INVALID;
+        }
+
+        for (int pad = scale - Math.max(fractionDigits, 0); pad > 0; pad--)
+        {
+            if (units > Long.MAX_VALUE / 10)
+            {
+                return OUT_OF_RANGE;
+            }
+
+            units *= 10;
+        }
+
+        return units;
+    }
+
+    /**
+     * @param error INVALID, TOO_PRECISE or OUT_OF_RANGE.
+     * @return String, why {@link #tryParse} rejected an amount.
+     */
+    public static String message(long error)
+    {
+        if (error == TOO_PRECISE)
+        {
+            return "Amount has more decimal places than the currency allows";
+        }
+
+        return error == OUT_OF_RANGE ? "Amount out of range" : "Invalid amount";
+    }
+
+    /**
+     * @param text
+     * @return boolean, true if the text is a plain non-negative decimal of
+     * any size and precision, so it can be given to BigDecimal as is.
+     */
+    public static boolean isDecimal(String text)
+    {
+        boolean anyDigit = false;
+        boolean point = false;
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+
+            if (c == '.' && !point)
+            {
+                point = true;
+            }
+            else if (c >= '0' && c <= '9')
+            {
+                anyDigit = true;
+            }
+            else
+            {
+                return false;
+            }
+        }
+
+        return anyDigit;
+    }
+
+    /**
+     * @param units
+     * @param scale
+     * @return String, the amount with exactly scale fraction digits.
+     *
+     * Renders minor units back as a decimal string, e.g. 323 at scale 2 is
+     * "3.23" and 5 at scale 2 is "0.05".
+     */
+    public static String format(long units, int scale)
+    {
+        if (units == Long.MIN_VALUE)
+        {
+            return toBigDecimal(units, scale).toPlainString();
+        }
+
+        boolean negative = units < 0;
+        long remaining = negative ? -units : units;
+
+        char[] buffer = new char[21 + scale];
+        int pos = buffer.length;
+
+        for (int i = 0; i < scale; i++)
+        {
+            buffer[--pos] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+
+        if (scale > 0)
+        {
+            buffer[--pos] = '.';
+        }
+
+        do
+        {
+            buffer[--pos] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        while (remaining != 0);
+
+        if (negative)
+        {
+            buffer[--pos] = '-';
+        }
+
+        return new String(buffer, pos, buffer.length - pos);
+    }
+
+    /**
+     * @param units
+     * @param scale
+     * @return BigDecimal with the given scale.
+     *
+     * Only meant for the edges of the service, e.g. persisting an event.
+     */
+    public static BigDecimal toBigDecimal(long units, int scale)
+    {
+        return BigDecimal.valueOf(units, scale);
+    }
+
+    /**
+     * @param amount
+     * @param scale
+     * @return long, the amount in minor units.
+     *
+     * The inverse of {@link #toBigDecimal}, for amounts read back from storage.
+     * Throws an ArithmeticException if the amount has more precision than the
+     * scale or doesn't fit a long.
+     */
+    public static long fromBigDecimal(BigDecimal amount, int scale)
+    {
+        return amount.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    /**
+     * @param balance
+     * @param amount
+     * @return long, balance + amount.
+     *
+     * Adds two amounts of the same currency, throwing if the result overflows.
+     */
+    public static long add(long balance, long amount)
+    {
+        long result = balance + amount;
+
+        if (((balance ^ result) & (amount ^ result)) < 0)
+        {
+            throw new ArithmeticException("Balance out of range");
+        }
+
+        return result;
+    }
+}
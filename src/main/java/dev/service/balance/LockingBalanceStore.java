@@ -0,0 +1,193 @@
+package dev.service.balance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.Striped;
+
+/*
+ * Balance store that keeps a mutable balance array per user and guards every
+ * read-modify-write with a striped lock. Each user hashes to one stripe, so a
+ * single user's updates are serialized while users on different stripes
+ * proceed in parallel. The number of stripes bounds memory no matter how many
+ * users exist.
+ *
+ * This is the default store, selected with "ledger.balance-store=locking".
+ */
+@Component
+@ConditionalOnProperty(name = "ledger.balance-store", havingValue = "locking", matchIfMissing = true)
+public class LockingBalanceStore implements BalanceStore {
+
+    /*
+     * user -> (currency id, units) pairs, see {@link BalanceSlots}. The map is
+     * concurrent so users can be created in parallel, a user's array is only
+     * read or changed under that user's lock.
+     */
+    private final ConcurrentHashMap<String, long[]> userMap;
+
+    private final Striped<Lock> userLocks;
+
+    public LockingBalanceStore(@Value("${ledger.locks.stripes:1024}") int lockStripes)
+    {
+        this.userMap = new ConcurrentHashMap<>();
+        this.userLocks = Striped.lock(lockStripes);
+    }
+
+    @Override
+    public Map<String, Long> getBalances(String userId)
+    {
+        Lock userLock = userLocks.get(userId);
+        userLock.lock();
+        try
+        {
+            return BalanceSlots.toMap(userMap.get(userId));
+        }
+        finally
+        {
+            userLock.unlock();
+        }
+    }
+
+    /*
+     * Holds the locks of every stripe involved while copying, so no update to
+     * any of the users can interleave. Guava hands out bulk locks in stripe
+     * order, which keeps two overlapping lookups from deadlocking; a stripe
+     * shared by several users is simply locked more than once.
+     */
+    @Override
+    public List<Map<String, Long>> getBalances(List<String> userIds)
+    {
+        List<long[]> copies = new ArrayList<>(userIds.size());
+        Iterable<Lock> locks = userLocks.bulkGet(userIds);
+
+        for (Lock lock : locks)
+        {
+            lock.lock();
+        }
+
+        try
+        {
+            for (String userId : userIds)
+            {
+                long[] slots = userMap.get(userId);
+                copies.add(slots == null ? null : slots.clone());
+            }
+        }
+        finally
+        {
+            for (Lock lock : locks)
+            {
+                lock.unlock();
+            }
+        }
+
+        // Building the maps can wait until the locks are released.
+        List<Map<String, Long>> balances = new ArrayList<>(copies.size());
+
+        for (long[] slots : copies)
+        {
+            balances.add(BalanceSlots.toMap(slots));
+        }
+
+        return balances;
+    }
+
+    @Override
+    public BalanceUpdate credit(String userId, int currencyId, long amount)
+    {
+        Lock userLock = userLocks.get(userId);
+        userLock.lock();
+        try
+        {
+            long[] slots = userMap.get(userId);
+            int index = slots == null ? -1 : BalanceSlots.indexOf(slots, currencyId);
+
+            if (index >= 0)
+            {
+                slots[index] = FixedPoint.add(slots[index], amount);
+
+                return new BalanceUpdate(true, slots[index]);
+            }
+
+            // First time the user holds this currency, grow their array by one pair.
+            userMap.put(userId, BalanceSlots.with(slots == null ? BalanceSlots.EMPTY : slots, currencyId, amount));
+
+            return new BalanceUpdate(true, amount);
+        }
+        finally
+        {
+            userLock.unlock();
+        }
+    }
+
+    @Override
+    public BalanceUpdate debit(String userId, int currencyId, long amount)
+    {
+        Lock userLock = userLocks.get(userId);
+        userLock.lock();
+        try
+        {
+            long[] slots = userMap.get(userId);
+            int index = slots == null ? -1 : BalanceSlots.indexOf(slots, currencyId);
+
+            if (index < 0)
+            {
+                return new BalanceUpdate(false, 0);
+            }
+
+            if (slots[index] < amount)
+            {
+                return new BalanceUpdate(false, slots[index]);
+            }
+
+            slots[index] -= amount;
+
+            return new BalanceUpdate(true, slots[index]);
+        }
+        finally
+        {
+            userLock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteUser(String userId)
+    {
+        Lock userLock = userLocks.get(userId);
+        userLock.lock();
+        try
+        {
+            userMap.remove(userId);
+        }
+        finally
+        {
+            userLock.unlock();
+        }
+    }
+
+    @Override
+    public int userCount()
+    {
+        return userMap.size();
+    }
+
+    @Override
+    public long balanceCount()
+    {
+        long count = 0;
+
+        for (long[] slots : userMap.values())
+        {
+            count += slots.length / 2;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,292 @@
+package dev.service.idempotency;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import dev.repository.EventStore;
+import dev.schemas.Result;
+import dev.schemas.ServerError;
+
+/*
+ * Deduplicates requests by message id, so a retried request gets the original
+ * response instead of being applied twice.
+ *
+ * A message id claimed by a request still being processed is held with a
+ * future of its response, so a duplicate arriving meanwhile waits for that
+ * response rather than racing it. These claims are never evicted; once the
+ * response is published they move to a bounded cache of recent ids. Ids that
+ * have dropped out of the cache are caught by a Bloom filter of every message
+ * id seen: a miss there proves an id is new without a lookup, and only a hit
+ * (a duplicate or a rare false positive) is checked against the
+ * {@link EventStore}. Such old duplicates are rejected with an error since
+ * their response is no longer known.
+ *
+ * Message ids are unique across users, as the event store keys events by
+ * them, but a response is only handed back to the user it belongs to. A
+ * request reusing the message id of another user's request is rejected with
+ * the same error as an old duplicate, and learns nothing of the original.
+ *
+ * The filter is filled from the event store on startup, before any request
+ * is accepted.
+ */
+@Component
+public class IdempotencyIndex implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyIndex.class);
+
+    static final String DUPLICATE_MESSAGE = "Duplicate messageId";
+
+    private final EventStore eventStore;
+    private final BloomFilter<CharSequence> seen;
+    private final ConcurrentHashMap<String, Original> inFlight = new ConcurrentHashMap<>();
+    private final Cache<String, Original> responses;
+
+    private volatile boolean running;
+
+    public IdempotencyIndex(EventStore eventStore,
+    @Value("${ledger.idempotency.expected-ids:10000000}") long expectedIds,
+    @Value("${ledger.idempotency.false-positive-rate:0.001}") double falsePositiveRate,
+    @Value("${ledger.idempotency.cache-size:100000}") long cacheSize)
+    {
+        this.eventStore = eventStore;
+        this.seen = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedIds, falsePositiveRate);
+        this.responses = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /**
+     * @param userId
+     * @param messageId
+     * @param request processes the request, only called if it is new.
+     * @return Result, the response of request, or of the first request with
+     * the same message id.
+     *
+     * If processing throws, the message id is released again so a retry
+     * gets another chance.
+     */
+    public Result execute(String userId, String messageId, Supplier<Result> request)
+    {
+        Claim claim = claim(userId, messageId);
+
+        if (!claim.isNew())
+        {
+            return claim.await();
+        }
+
+        try
+        {
+            Result result = request.get();
+            claim.complete(result);
+            return result;
+        }
+        catch (RuntimeException | Error e)
+        {
+            claim.release(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param userId
+     * @param messageId
+     * @return Claim, new if the message id wasn't seen before, otherwise
+     * holding the response (or the future of it) of the earlier request.
+     *
+     * The building block of {@link #execute}, for callers that need to decide
+     * themselves when a response is published, e.g. only once several
+     * requests have been committed together. Whoever gets a new claim must
+     * complete or release it, or duplicates of it wait forever.
+     */
+    public Claim claim(String userId, String messageId)
+    {
+        Original mine = new Original(userId);
+
+        if (messageId == null)
+        {
+            return new Claim(null, mine, true);
+        }
+
+        /*
+         * Checking the cache and taking the id happen under the id's entry
+         * in the in-flight map, which is also where a published response
+         * moves to the cache, so a claim can't fall between the two.
+         */
+        Original[] earlier = new Original[1];
+
+        inFlight.compute(messageId, (id, pending) -> {
+            earlier[0] = pending != null ? pending : responses.getIfPresent(id);
+            return earlier[0] != null ? pending : mine;
+        });
+
+        if (earlier[0] != null)
+        {
+            return Objects.equals(earlier[0].userId, userId) ? new Claim(messageId, earlier[0], false) : duplicate(messageId, userId);
+        }
+
+        if (seen.mightContain(messageId) && eventStore.exists(userId, messageId))
+        {
+            // Answered before it is removed, for claims that found it meanwhile.
+            mine.response.complete(new ServerError(DUPLICATE_MESSAGE));
+            inFlight.remove(messageId, mine);
+            return new Claim(messageId, mine, false);
+        }
+
+        seen.put(messageId);
+
+        return new Claim(messageId, mine, true);
+    }
+
+    // A claim answered with the duplicate error, see the class comment.
+    private Claim duplicate(String messageId, String userId)
+    {
+        Original rejected = new Original(userId);
+        rejected.response.complete(new ServerError(DUPLICATE_MESSAGE));
+
+        return new Claim(messageId, rejected, false);
+    }
+
+    private static Result await(CompletableFuture<Result> original)
+    {
+        try
+        {
+            return original.join();
+        }
+        catch (CompletionException e)
+        {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public void start()
+    {
+        long started = System.nanoTime();
+        long[] ids = new long[1];
+
+        eventStore.forEachMessageId(messageId -> {
+            seen.put(messageId);
+            ids[0]++;
+        });
+
+        log.info("Indexed {} message ids for deduplication in {} ms", ids[0], (System.nanoTime() - started) / 1_000_000);
+
+        running = true;
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /*
+     * With the balance rebuild, ahead of the journal and the web server.
+     */
+    @Override
+    public int getPhase()
+    {
+        return -1;
+    }
+
+    // The request that claimed a message id first, and its response.
+    private static final class Original {
+
+        private final String userId;
+        private final CompletableFuture<Result> response = new CompletableFuture<>();
+
+        private Original(String userId)
+        {
+            this.userId = userId;
+        }
+    }
+
+    /*
+     * A message id taken by {@link #claim}. A new claim is owned by the
+     * caller, which publishes the response with complete, or gives the id up
+     * with release if processing failed, so a retry gets another chance.
+     */
+    public final class Claim {
+
+        private final String messageId;
+        private final Original original;
+        private final CompletableFuture<Result> response;
+        private final boolean isNew;
+
+        private Claim(String messageId, Original original, boolean isNew)
+        {
+            this.messageId = messageId;
+            this.original = original;
+            this.response = original.response;
+            this.isNew = isNew;
+        }
+
+        public boolean isNew() {
+            return isNew;
+        }
+
+        /**
+         * @return CompletableFuture<Result> of the earlier response, for
+         * callers that would rather not block on it. Not to be completed by
+         * them, use {@link #complete} on a new claim instead.
+         */
+        public CompletableFuture<Result> response()
+        {
+            return response.copy();
+        }
+
+        // The earlier response, waiting for it if that request is still being processed.
+        public Result await()
+        {
+            return IdempotencyIndex.await(response);
+        }
+
+        // Publishes the response and moves the id from the in-flight claims to the cache.
+        public void complete(Result result)
+        {
+            response.complete(result);
+
+            if (messageId != null)
+            {
+                inFlight.computeIfPresent(messageId, (id, pending) -> {
+                    if (pending != original)
+                    {
+                        return pending;
+                    }
+
+                    responses.put(id, pending);
+                    return null;
+                });
+            }
+        }
+
+        public void release(Throwable cause)
+        {
+            if (messageId != null)
+            {
+                inFlight.remove(messageId, original);
+            }
+
+            response.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package dev.service.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import dev.schemas.AuthorizationRequest;
+import dev.schemas.DebitCredit;
+import dev.schemas.LoadRequest;
+import dev.schemas.Response;
+import dev.schemas.Result;
+import dev.schemas.ServerError;
+import dev.service.BankLedgerService;
+import dev.service.jfr.DeserializationEvent;
+import dev.service.jfr.SerializationEvent;
+import dev.service.jfr.StageEvent;
+import dev.service.jfr.ValidationEvent;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+/*
+ * Processes a stream of newline-delimited JSON requests and writes one
+ * newline-delimited JSON result per request back, in the same order.
+ *
+ * Each line is a request in the shape /load and /authorization accept; a
+ * CREDIT is a load and a DEBIT an authorization. Lines are parsed and applied
+ * to the balances one at a time while the events of earlier lines are still
+ * being persisted by the journal, and results are written as soon as they
+ * and everything before them are durable. At most a window of results is
+ * outstanding, and appending to a full journal blocks, so a slow journal
+ * stops the reading of further lines rather than letting them pile up.
+ * Memory use therefore doesn't depend on the length of the stream.
+ *
+ * Results only come back while lines are still being sent, so a client has
+ * to read them as it goes; one that sends everything before reading anything
+ * stalls once a window of results has filled the connection's buffers.
+ *
+ * Parsing, validating and writing each line are recorded as the same Java
+ * Flight Recorder events as for the single-request endpoints, see
+ * {@link dev.service.jfr.StageEvent}.
+ */
+@Service
+public class StreamIngestor {
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final BankLedgerService bankLedgerService;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader lineReader;
+    private final Validator validator;
+
+    private final int window;
+    private final int maxLineLength;
+
+    public StreamIngestor(BankLedgerService bankLedgerService, ObjectMapper objectMapper, Validator validator,
+    @Value("${ledger.ingest.window:1024}") int window,
+    @Value("${ledger.ingest.max-line-length:16384}") int maxLineLength)
+    {
+        this.bankLedgerService = bankLedgerService;
+        this.objectMapper = objectMapper;
+        this.lineReader = objectMapper.readerFor(LoadRequest.class);
+        this.validator = validator;
+        this.window = window;
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * @param in the request lines.
+     * @param out where the results are written, one line per non-blank
+     * request line.
+     * @return long, the number of requests processed.
+     *
+     * Returns once every line has been read and every result written. A line
+     * that can't be parsed or fails validation gets a ServerError as its
+     * result, it doesn't end the stream.
+     */
+    public long ingest(InputStream in, OutputStream out) throws IOException
+    {
+        LineReader lines = new LineReader(in, maxLineLength);
+        ArrayDeque<CompletableFuture<Result>> pending = new ArrayDeque<>(window);
+        long processed = 0;
+
+        while (lines.next())
+        {
+            if (lines.isBlank())
+            {
+                continue;
+            }
+
+            pending.add(lines.isTooLong()
+                ? CompletableFuture.completedFuture(new ServerError("Line longer than " + maxLineLength + " characters"))
+                : submit(lines.text()));
+            processed++;
+
+            // Write whatever has finished, waiting only while the window is full.
+            while (!pending.isEmpty() && (pending.size() >= window || pending.peek().isDone()))
+            {
+                if (!pending.peek().isDone())
+                {
+                    out.flush();
+                }
+
+                write(out, pending.poll());
+            }
+        }
+
+        out.flush();
+
+        while (!pending.isEmpty())
+        {
+            write(out, pending.poll());
+        }
+
+        out.flush();
+
+        return processed;
+    }
+
+    /*
+     * Parses, validates and hands a line to the service, which applies it to
+     * the balances right away and persists it in the background.
+     */
+    private CompletableFuture<Result> submit(String line)
+    {
+        LoadRequest request;
+        DeserializationEvent deserialization = new DeserializationEvent();
+        deserialization.begin();
+
+        try
+        {
+            request = lineReader.readValue(line);
+            deserialization.finish(request == null ? null : request.getUserId(), "ok");
+        }
+        catch (JsonProcessingException e)
+        {
+            deserialization.finish(null, "malformed");
+            return CompletableFuture.completedFuture(new ServerError("Malformed request: " + e.getOriginalMessage()));
+        }
+
+        ValidationEvent validation = new ValidationEvent();
+        validation.begin();
+
+        Set<ConstraintViolation<LoadRequest>> violations = request == null ? Set.of() : validator.validate(request);
+
+        validation.finish(request == null ? null : request.getUserId(),
+            request == null || !violations.isEmpty() ? "invalid" : "valid");
+
+        if (request == null || !violations.isEmpty())
+        {
+            String message = request == null ? "Empty request" : violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+
+            return CompletableFuture.completedFuture(new ServerError(message));
+        }
+
+        try
+        {
+            if (request.getTransactionAmount().getDebitOrCredit() == DebitCredit.DEBIT)
+            {
+                return bankLedgerService.authorizeAsync(new AuthorizationRequest(request.getUserId(),
+                    request.getMessageId(), request.getTransactionAmount()));
+            }
+
+            return bankLedgerService.loadAsync(request);
+        }
+        catch (RuntimeException e)
+        {
+            return CompletableFuture.completedFuture(new ServerError(e.getMessage()));
+        }
+    }
+
+    private void write(OutputStream out, CompletableFuture<Result> result) throws IOException
+    {
+        Result response;
+
+        try
+        {
+            response = result.join();
+        }
+        catch (CompletionException e)
+        {
+            response = new ServerError(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+
+        SerializationEvent serialization = new SerializationEvent();
+        serialization.begin();
+
+        out.write(objectMapper.writeValueAsBytes(response));
+        out.write(NEWLINE);
+
+        serialization.finish(response instanceof Response ? ((Response) response).getUserId() : null,
+            StageEvent.outcome(response));
+    }
+
+    /*
+     * Reads a stream line by line, without line terminators. A line longer
+     * than the limit is flagged and the rest of it skipped, so a single huge
+     * line can't exhaust memory.
+     */
+    private static final class LineReader {
+
+        private final Reader reader;
+        private final int maxLength;
+        private final StringBuilder line = new StringBuilder();
+
+        private boolean tooLong;
+
+        private LineReader(InputStream in, int maxLength)
+        {
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            this.maxLength = maxLength;
+        }
+
+        // Moves to the next line, false at the end of the stream.
+        private boolean next() throws IOException
+        {
+            line.setLength(0);
+            tooLong = false;
+
+            int c;
+
+            while ((c = reader.read()) != -1 && c != '\n')
+            {
+                if (line.length() < maxLength)
+                {
+                    line.append((char) c);
+                }
+                else
+                {
+                    tooLong = true;
+                }
+            }
+
+            if (c == -1 && line.length() == 0)
+            {
+                return false;
+            }
+
+            if (line.length() > 0 && line.charAt(line.length() - 1) == '\r')
+            {
+                line.setLength(line.length() - 1);
+            }
+
+            return true;
+        }
+
+        private boolean isBlank()
+        {
+            return !tooLong && line.toString().trim().isEmpty();
+        }
+
+        private boolean isTooLong()
+        {
+            return tooLong;
+        }
+
+        private String text()
+        {
+            return line.toString();
+        }
+    }
+}
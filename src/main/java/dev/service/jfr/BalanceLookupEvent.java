@@ -0,0 +1,14 @@
+package dev.service.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * Reading a user's balances from memory, see {@link dev.service.BalanceQueryService}.
+ */
+@Name("dev.ledger.BalanceLookup")
+@Label("Balance Lookup")
+@Description("Reading a user's balances from memory")
+public class BalanceLookupEvent extends StageEvent {
+}
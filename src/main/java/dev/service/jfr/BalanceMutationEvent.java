@@ -0,0 +1,16 @@
+package dev.service.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * Crediting or debiting a user's balance, see {@link dev.service.BankLedgerService}.
+ * A debit checks the funds and withdraws them in one step, so the check is
+ * part of this stage.
+ */
+@Name("dev.ledger.BalanceMutation")
+@Label("Balance Mutation")
+@Description("Crediting or debiting a user's balance")
+public class BalanceMutationEvent extends StageEvent {
+}
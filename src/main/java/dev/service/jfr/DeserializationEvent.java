@@ -0,0 +1,14 @@
+package dev.service.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * Reading a request body from JSON, see {@link dev.controllers.RecordingJsonConverter}.
+ */
+@Name("dev.ledger.Deserialization")
+@Label("Request Deserialization")
+@Description("Reading a request body from JSON")
+public class DeserializationEvent extends StageEvent {
+}
@@ -0,0 +1,14 @@
+package dev.service.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * Waiting for a request's event to be durable, see {@link dev.service.BankLedgerService}.
+ */
+@Name("dev.ledger.EventPersistence")
+@Label("Event Persistence")
+@Description("Waiting for a request's event to be durable")
+public class PersistenceEvent extends StageEvent {
+}
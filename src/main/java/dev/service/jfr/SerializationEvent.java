@@ -0,0 +1,14 @@
+package dev.service.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * Writing a response body as JSON, see {@link dev.controllers.RecordingJsonConverter}.
+ */
+@Name("dev.ledger.ResponseSerialization")
+@Label("Response Serialization")
+@Description("Writing a response body as JSON")
+public class SerializationEvent extends StageEvent {
+}
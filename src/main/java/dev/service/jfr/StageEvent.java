@@ -0,0 +1,75 @@
+package dev.service.jfr;
+
+import dev.schemas.AuthorizationResponse;
+import dev.schemas.Response;
+import dev.schemas.ResponseCode;
+import dev.schemas.ServerError;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/*
+ * Base of the Java Flight Recorder events timing the stages of a ledger
+ * request, one event type per stage. They show up in a recording under
+ * "Ledger", so after a latency incident a recording tells which stage the
+ * slow requests spent their time in, for which users and with what outcome.
+ *
+ * Recording them is cheap and, while no recording has them enabled, the
+ * events are never committed and the JIT removes them. Stack traces are off
+ * as they would cost more than the stage itself; per-stage thresholds can be
+ * set in the recording's settings, e.g. to only keep stages over 1 ms.
+ *
+ * The user is recorded as the hash of the id rather than the id itself, so
+ * recordings can be pulled from production without carrying account ids
+ * while the requests of one user can still be told apart.
+ */
+@Category({ "Ledger", "Request" })
+@StackTrace(false)
+public abstract class StageEvent extends Event {
+
+    @Label("User Id Hash")
+    int userIdHash;
+
+    @Label("Outcome")
+    String outcome;
+
+    /**
+     * @param userId of the request, or null if the stage isn't tied to one
+     * user.
+     * @param outcome what came out of the stage, e.g. "approved".
+     *
+     * Ends the stage and commits the event if the recording wants it.
+     */
+    public void finish(String userId, String outcome)
+    {
+        end();
+
+        if (shouldCommit())
+        {
+            this.userIdHash = userId == null ? 0 : userId.hashCode();
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    /**
+     * @param result of a ledger request, or any other response body.
+     * @return String, "approved", "declined" or "error" for the results of
+     * ledger requests and "ok" for anything else.
+     */
+    public static String outcome(Object result)
+    {
+        if (result instanceof AuthorizationResponse)
+        {
+            return ((AuthorizationResponse) result).getResponse() == ResponseCode.DECLINED ? "declined" : "approved";
+        }
+
+        if (result instanceof Response)
+        {
+            return "approved";
+        }
+
+        return result instanceof ServerError ? "error" : "ok";
+    }
+}
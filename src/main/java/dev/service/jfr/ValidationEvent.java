@@ -0,0 +1,14 @@
+package dev.service.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * Bean validation of a request body, see {@link dev.controllers.RecordingValidator}.
+ */
+@Name("dev.ledger.Validation")
+@Label("Request Validation")
+@Description("Bean validation of a request body")
+public class ValidationEvent extends StageEvent {
+}
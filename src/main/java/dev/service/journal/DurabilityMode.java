@@ -0,0 +1,23 @@
+package dev.service.journal;
+
+/*
+ * How long a request waits for its event to be persisted by the
+ * {@link EventJournal}, selected with "ledger.journal.mode".
+ */
+public enum DurabilityMode {
+
+    // Every event is committed in its own transaction before the request returns.
+    SYNC,
+
+    /*
+     * Events are committed in batches and the request returns once the batch
+     * holding its event is durable.
+     */
+    GROUP_COMMIT,
+
+    /*
+     * Events are committed in batches but the request returns as soon as its
+     * event is queued. Queued events are lost if the process dies.
+     */
+    FIRE_AND_FORGET
+}
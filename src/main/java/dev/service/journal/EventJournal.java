@@ -0,0 +1,372 @@
+package dev.service.journal;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import dev.domain.TransactionEvent;
+import dev.repository.EventStore;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Write-behind stage between the request threads and the {@link EventStore}.
+ * Requests queue their events into a bounded ring buffer and a single writer
+ * thread commits them in batches, so many requests share one transaction
+ * (and one fsync) instead of each paying for its own. When the buffer is full
+ * appending blocks, which pushes back on callers instead of growing memory.
+ *
+ * How long a caller waits is decided by the {@link DurabilityMode}. On
+ * shutdown the writer drains everything already queued before it exits.
+ *
+ * Every append to the store is timed into "ledger.journal.commit" and its
+ * number of events recorded in "ledger.journal.batch.size"; the
+ * "ledger.journal.queue" gauge is the number of requests waiting for the
+ * writer.
+ */
+@Component
+public class EventJournal implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(EventJournal.class);
+
+    private final EventStore eventStore;
+
+    private final DurabilityMode mode;
+    private final int maxBatch;
+    private final long maxLatencyNanos;
+
+    private final ArrayBlockingQueue<PendingEvent> queue;
+
+    private final Timer commitLatency;
+    private final DistributionSummary batchSize;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    /*
+     * Held shared by appends from their running check until their event is
+     * queued, and exclusively by stop to flip the flag, so once stop has
+     * flipped it no append can still be on its way into the queue.
+     */
+    private final ReentrantReadWriteLock accepting = new ReentrantReadWriteLock();
+
+    // Last sequence number handed out, only touched by the writer.
+    private long sequence;
+
+    /*
+     * Latest event time handed out, only touched by the writer. Events are
+     * stamped on the request threads and can reach the writer slightly out of
+     * order; raising an earlier time to this keeps time order the same as
+     * sequence order, which is what lets history pages be cut by time
+     * without skipping an event that committed late. Seeded from the store
+     * on start, so that holds across restarts even if the clock went back.
+     */
+    private long eventTime;
+
+    public EventJournal(EventStore eventStore, MeterRegistry meterRegistry,
+    @Value("${ledger.journal.mode:group-commit}") DurabilityMode mode,
+    @Value("${ledger.journal.capacity:8192}") int capacity,
+    @Value("${ledger.journal.max-batch:512}") int maxBatch,
+    @Value("${ledger.journal.max-latency:2ms}") Duration maxLatency)
+    {
+        this.eventStore = eventStore;
+        this.mode = mode;
+        this.maxBatch = mode == DurabilityMode.SYNC ? 1 : maxBatch;
+        this.maxLatencyNanos = maxLatency.toNanos();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        this.commitLatency = Timer.builder("ledger.journal.commit")
+            .description("Time taken to append a batch of events to the event store")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("ledger.journal.batch.size")
+            .description("Events appended to the event store at once")
+            .baseUnit("events")
+            .register(meterRegistry);
+        Gauge.builder("ledger.journal.queue", queue, ArrayBlockingQueue::size)
+            .description("Requests whose events are waiting for the journal writer")
+            .register(meterRegistry);
+    }
+
+    /**
+     * @param event
+     * @return CompletableFuture<Void> that completes once the event is durable,
+     * or right away in FIRE_AND_FORGET mode.
+     *
+     * Queues an event for the writer, blocking while the buffer is full.
+     */
+    public CompletableFuture<Void> append(TransactionEvent event)
+    {
+        return append(List.of(event));
+    }
+
+    /**
+     * @param events
+     * @return CompletableFuture<Void> that completes once all of the events
+     * are durable, or right away in FIRE_AND_FORGET mode.
+     *
+     * Queues events that must be committed together: they get consecutive
+     * sequence numbers and end up in the same append, so either all of them
+     * are stored or none are.
+     */
+    public CompletableFuture<Void> append(List<TransactionEvent> events)
+    {
+        if (events.isEmpty())
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        PendingEvent pending = new PendingEvent(events);
+
+        accepting.readLock().lock();
+        try
+        {
+            if (!running)
+            {
+                throw new IllegalStateException("Event journal is not running");
+            }
+
+            queue.put(pending);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing event", e);
+        }
+        finally
+        {
+            accepting.readLock().unlock();
+        }
+
+        return mode == DurabilityMode.FIRE_AND_FORGET ? CompletableFuture.completedFuture(null) : pending.durable;
+    }
+
+    public DurabilityMode getMode() {
+        return mode;
+    }
+
+    /*
+     * Writer loop: wait for a first event, then keep collecting until the
+     * batch is full or the latency window that started with the first event
+     * has passed, and commit the whole batch at once.
+     */
+    private void writeLoop()
+    {
+        List<PendingEvent> batch = new ArrayList<>(maxBatch);
+
+        while (running || !queue.isEmpty())
+        {
+            try
+            {
+                PendingEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null)
+                {
+                    continue;
+                }
+
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxLatencyNanos;
+
+                while (batch.size() < maxBatch)
+                {
+                    // Take whatever is already there without waiting.
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0)
+                    {
+                        continue;
+                    }
+
+                    long remaining = deadline - System.nanoTime();
+                    PendingEvent next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+
+                    if (next == null)
+                    {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+
+                commit(batch);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+    }
+
+    /*
+     * Numbers (and if need be re-times) the events of a batch and commits it
+     * as one append. If that fails, e.g. because one event violates a
+     * constraint, falls back to one append per queued entry so a single bad
+     * event doesn't fail its batch-mates (events queued together still fail
+     * together). Events that fail leave a gap in the sequence, which is
+     * harmless.
+     */
+    private void commit(List<PendingEvent> batch)
+    {
+        List<TransactionEvent> events = new ArrayList<>(batch.size());
+
+        for (PendingEvent pending : batch)
+        {
+            for (TransactionEvent event : pending.events)
+            {
+                event.setSequenceNumber(++sequence);
+                eventTime = Math.max(eventTime, event.getEventTime());
+                event.setEventTime(eventTime);
+                events.add(event);
+            }
+        }
+
+        try
+        {
+            store(events);
+
+            for (PendingEvent pending : batch)
+            {
+                pending.durable.complete(null);
+            }
+
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            if (batch.size() == 1)
+            {
+                fail(batch.get(0), e);
+                return;
+            }
+        }
+
+        for (PendingEvent pending : batch)
+        {
+            try
+            {
+                store(pending.events);
+                pending.durable.complete(null);
+            }
+            catch (RuntimeException e)
+            {
+                fail(pending, e);
+            }
+        }
+    }
+
+    private void store(List<TransactionEvent> events)
+    {
+        batchSize.record(events.size());
+        commitLatency.record(() -> eventStore.append(events));
+    }
+
+    private void fail(PendingEvent pending, RuntimeException e)
+    {
+        if (mode == DurabilityMode.FIRE_AND_FORGET)
+        {
+            log.error("Dropping {} event(s) starting with {} that could not be persisted",
+                pending.events.size(), pending.events.get(0).getMessageId(), e);
+        }
+
+        pending.durable.completeExceptionally(e);
+    }
+
+    @Override
+    public void start()
+    {
+        sequence = eventStore.lastSequence();
+        eventTime = eventStore.lastEventTime();
+        running = true;
+
+        writer = new Thread(this::writeLoop, "event-journal-writer");
+        writer.start();
+    }
+
+    /*
+     * Stops accepting events and waits for the writer to commit what is
+     * already queued. Appends that come in after this fail instead of queueing
+     * an event nobody would write. The writer isn't interrupted, it notices
+     * the flag within one poll interval, so a commit is never cut off halfway.
+     */
+    @Override
+    public void stop()
+    {
+        // Waits for appends that already passed their check to finish queueing.
+        accepting.writeLock().lock();
+        try
+        {
+            running = false;
+        }
+        finally
+        {
+            accepting.writeLock().unlock();
+        }
+
+        if (writer != null)
+        {
+            try
+            {
+                writer.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Anything still queued if the writer was interrupted.
+        List<PendingEvent> leftover = new ArrayList<>();
+        queue.drainTo(leftover);
+
+        if (!leftover.isEmpty())
+        {
+            commit(leftover);
+        }
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /*
+     * Started before and stopped after the web server, so no request can
+     * reach a journal that isn't running.
+     */
+    @Override
+    public int getPhase()
+    {
+        return 0;
+    }
+
+    // Events waiting in the buffer together with their caller's future.
+    private static final class PendingEvent {
+
+        private final List<TransactionEvent> events;
+        private final CompletableFuture<Void> durable;
+
+        private PendingEvent(List<TransactionEvent> events)
+        {
+            this.events = events;
+            this.durable = new CompletableFuture<>();
+        }
+    }
+}
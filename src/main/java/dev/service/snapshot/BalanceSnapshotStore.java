@@ -0,0 +1,369 @@
+package dev.service.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/*
+ * Snapshot files of every user's balances, each tagged with the sequence
+ * number of the last event it includes. Layout, all integers big-endian:
+ *
+ *   int     magic "LSNP"
+ *   byte    format version
+ *   long    sequence number of the last included event
+ *   per user:
+ *     byte    1
+ *     string  userId
+ *     short   number of currencies
+ *     per currency: string code, long balance in minor units
+ *   byte    0
+ *   long    CRC32 of everything above
+ *
+ * where a string is Java's modified UTF-8 with a short length. A snapshot is
+ * written to a temporary file, forced to disk and then renamed, so a crash
+ * never leaves a half-written snapshot under a real name; one that fails its
+ * CRC anyway is skipped in favour of the one before it.
+ */
+@Component
+public class BalanceSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceSnapshotStore.class);
+
+    private static final int MAGIC = 0x4C534E50;
+    private static final byte VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    private final Path directory;
+    private final int retain;
+
+    // Latest snapshot known to be intact, found on first use and kept up to date by commits.
+    private Path latest;
+    private long latestSequence;
+    private boolean scanned;
+
+    public BalanceSnapshotStore(@Value("${ledger.snapshot.directory:./data/snapshots}") String directory,
+    @Value("${ledger.snapshot.retain:2}") int retain)
+    {
+        this.directory = Paths.get(directory);
+        this.retain = Math.max(1, retain);
+    }
+
+    /**
+     * @return long, the sequence number of the latest intact snapshot, or 0
+     * if there is none.
+     */
+    public synchronized long latestSequence()
+    {
+        scan();
+        return latestSequence;
+    }
+
+    /**
+     * @param consumer called with each user's balances, currency -> minor units.
+     * @return long, the sequence number of the loaded snapshot, or 0 if there
+     * is none and nothing was loaded.
+     */
+    public synchronized long load(BiConsumer<String, Map<String, Long>> consumer)
+    {
+        scan();
+
+        if (latest == null)
+        {
+            return 0;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(latest))))
+        {
+            readHeader(in);
+
+            while (in.readByte() == 1)
+            {
+                String userId = in.readUTF();
+                int currencies = in.readUnsignedShort();
+                Map<String, Long> balances = new HashMap<>(currencies * 2);
+
+                for (int i = 0; i < currencies; i++)
+                {
+                    balances.put(in.readUTF(), in.readLong());
+                }
+
+                consumer.accept(userId, balances);
+            }
+
+            return latestSequence;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param sequence of the last event the snapshot will include.
+     * @return Writer, to add users to and then commit.
+     */
+    public Writer create(long sequence)
+    {
+        try
+        {
+            Files.createDirectories(directory);
+            return new Writer(sequence, Files.createTempFile(directory, PREFIX, ".tmp"));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * Finds the newest snapshot whose CRC checks out, once.
+     */
+    private void scan()
+    {
+        if (scanned)
+        {
+            return;
+        }
+
+        scanned = true;
+
+        for (Path path : snapshots())
+        {
+            try
+            {
+                latestSequence = verify(path);
+                latest = path;
+                return;
+            }
+            catch (IOException e)
+            {
+                log.warn("Ignoring unreadable snapshot {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    // Snapshot files, newest first.
+    private List<Path> snapshots()
+    {
+        if (!Files.isDirectory(directory))
+        {
+            return List.of();
+        }
+
+        try (Stream<Path> files = Files.list(directory))
+        {
+            return files.filter(p -> p.getFileName().toString().startsWith(PREFIX) && p.getFileName().toString().endsWith(SUFFIX))
+                .sorted(Comparator.comparing(Path::getFileName).reversed())
+                .collect(Collectors.toList());
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param path
+     * @return long, the sequence number in the snapshot's header.
+     *
+     * Throws an IOException if the snapshot is malformed or fails its CRC.
+     */
+    private static long verify(Path path) throws IOException
+    {
+        long size = Files.size(path);
+
+        if (size < 4 + 1 + 8 + 1 + 8)
+        {
+            throw new IOException("Truncated snapshot");
+        }
+
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path)))
+        {
+            long remaining = size - 8;
+
+            while (remaining > 0)
+            {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                if (read < 0)
+                {
+                    throw new IOException("Truncated snapshot");
+                }
+
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+
+            if (new DataInputStream(in).readLong() != crc.getValue())
+            {
+                throw new IOException("CRC mismatch");
+            }
+        }
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path)))
+        {
+            return readHeader(in);
+        }
+    }
+
+    private static long readHeader(DataInputStream in) throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readByte() != VERSION)
+        {
+            throw new IOException("Not a balance snapshot");
+        }
+
+        return in.readLong();
+    }
+
+    private synchronized void committed(Path path, long sequence)
+    {
+        scanned = true;
+        latest = path;
+        latestSequence = sequence;
+
+        List<Path> snapshots = snapshots();
+
+        for (Path old : snapshots.subList(Math.min(retain, snapshots.size()), snapshots.size()))
+        {
+            try
+            {
+                Files.deleteIfExists(old);
+            }
+            catch (IOException e)
+            {
+                log.warn("Could not delete old snapshot {}: {}", old, e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Writes one snapshot. Nothing is visible until commit(); closing an
+     * uncommitted writer throws the partial file away.
+     */
+    public final class Writer implements Closeable {
+
+        private final long sequence;
+        private final Path temporary;
+        private final CheckedOutputStream checked;
+        private final DataOutputStream out;
+        private boolean committed;
+
+        private Writer(long sequence, Path temporary) throws IOException
+        {
+            this.sequence = sequence;
+            this.temporary = temporary;
+            this.checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024), new CRC32());
+            this.out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(sequence);
+        }
+
+        /**
+         * @param userId
+         * @param balances currency -> minor units.
+         */
+        public void writeUser(String userId, Map<String, Long> balances)
+        {
+            try
+            {
+                out.writeByte(1);
+                out.writeUTF(userId);
+                out.writeShort(balances.size());
+
+                for (Map.Entry<String, Long> balance : balances.entrySet())
+                {
+                    out.writeUTF(balance.getKey());
+                    out.writeLong(balance.getValue());
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return Path, where the snapshot now lives.
+         *
+         * Seals the snapshot, forces it to disk and publishes it as the
+         * latest, removing snapshots beyond the retained number.
+         */
+        public Path commit()
+        {
+            try
+            {
+                out.writeByte(0);
+                out.writeLong(checked.getChecksum().getValue());
+                out.close();
+
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE))
+                {
+                    channel.force(true);
+                }
+
+                Path target = directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+                committed = true;
+                committed(target, sequence);
+
+                return target;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            if (committed)
+            {
+                return;
+            }
+
+            try
+            {
+                out.close();
+                Files.deleteIfExists(temporary);
+            }
+            catch (IOException e)
+            {
+                log.warn("Could not delete partial snapshot {}: {}", temporary, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package dev.service.snapshot;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.EventStore;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.FixedPoint;
+
+/*
+ * Periodically writes a new balance snapshot, so a restart only has to
+ * replay the events committed since the last one.
+ *
+ * The live balances in {@link dev.service.UserService} run ahead of the event
+ * store (a balance changes before its event is committed), so they can't be
+ * tagged with an exact event position. Instead each snapshot is derived from
+ * the store itself: the events committed after the previous snapshot are
+ * folded onto it, giving balances that are exactly those of every event up
+ * to the new snapshot's sequence number. Memory use is bounded by the tail,
+ * not by the number of users, since the previous snapshot is streamed from
+ * disk while the new one is written.
+ *
+ * Every restart trusts the latest snapshot, so one is only written if every
+ * event of the tail could be applied. An event that can't, like an approved
+ * authorization the balance doesn't cover (see
+ * {@link dev.service.BalanceRebuilder}), leaves the previous snapshot in
+ * place and is reported as an error on every run until it is dealt with.
+ */
+@Component
+public class Snapshotter implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(Snapshotter.class);
+
+    private final EventStore eventStore;
+    private final BalanceSnapshotStore snapshotStore;
+    private final boolean enabled;
+    private final Duration interval;
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    public Snapshotter(EventStore eventStore, BalanceSnapshotStore snapshotStore,
+    @Value("${ledger.snapshot.enabled:true}") boolean enabled,
+    @Value("${ledger.snapshot.interval:5m}") Duration interval)
+    {
+        this.eventStore = eventStore;
+        this.snapshotStore = snapshotStore;
+        this.enabled = enabled;
+        this.interval = interval;
+    }
+
+    /**
+     * @return long, the sequence number of the latest snapshot after this
+     * run; unchanged if no events were committed since the previous one.
+     */
+    public synchronized long snapshot()
+    {
+        long started = System.nanoTime();
+        long previous = snapshotStore.latestSequence();
+
+        // Changes per user since the previous snapshot, in commit order.
+        Map<String, Changes> tail = new HashMap<>();
+        long[] last = { previous };
+        long[] skipped = new long[1];
+
+        eventStore.forEachAfter(previous, event -> {
+            last[0] = Math.max(last[0], event.getSequenceNumber());
+
+            if (!movesBalance(event))
+            {
+                return;
+            }
+
+            int currencyId = CurrencyRegistry.tryResolve(event.getCurrency());
+            long units = currencyId < 0 ? -1 : units(event, currencyId);
+
+            if (units < 0)
+            {
+                skipped[0]++;
+                return;
+            }
+
+            tail.computeIfAbsent(event.getUserId(), k -> new Changes())
+            .add(currencyId, event.getTransactionStatus() == TransactionStatus.LOAD_SUCCESS, units);
+        });
+
+        if (last[0] == previous)
+        {
+            return previous;
+        }
+
+        long[] users = new long[1];
+
+        try (BalanceSnapshotStore.Writer writer = snapshotStore.create(last[0]))
+        {
+            snapshotStore.load((userId, balances) -> {
+                Changes changes = tail.remove(userId);
+
+                if (changes != null)
+                {
+                    skipped[0] += changes.applyTo(balances);
+                }
+
+                writer.writeUser(userId, balances);
+                users[0]++;
+            });
+
+            for (Map.Entry<String, Changes> user : tail.entrySet())
+            {
+                Map<String, Long> balances = new HashMap<>();
+                skipped[0] += user.getValue().applyTo(balances);
+
+                writer.writeUser(user.getKey(), balances);
+                users[0]++;
+            }
+
+            if (skipped[0] > 0)
+            {
+                log.error("Not writing the balance snapshot up to event {}: {} event(s) after event {} couldn't be"
+                + " applied to the balances", last[0], skipped[0], previous);
+                return previous;
+            }
+
+            writer.commit();
+        }
+
+        log.info("Wrote balance snapshot of {} users up to event {} in {} ms",
+        users[0], last[0], (System.nanoTime() - started) / 1_000_000);
+
+        return last[0];
+    }
+
+    // Whether the event is a successful load or authorization, the only events that move a balance.
+    private static boolean movesBalance(TransactionEvent event)
+    {
+        TransactionStatus status = event.getTransactionStatus();
+
+        return (status == TransactionStatus.LOAD_SUCCESS || status == TransactionStatus.AUTH_SUCCESS) && event.getAmount() != null;
+    }
+
+    // Amount in minor units by which the event moves its balance, or -1 if it can't be represented.
+    private static long units(TransactionEvent event, int currencyId)
+    {
+        try
+        {
+            return FixedPoint.fromBigDecimal(event.getAmount(), CurrencyRegistry.exponent(currencyId));
+        }
+        catch (ArithmeticException e)
+        {
+            return -1;
+        }
+    }
+
+    @Override
+    public void start()
+    {
+        if (enabled)
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "balance-snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            scheduler.scheduleWithFixedDelay(this::snapshotQuietly, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        running = true;
+    }
+
+    private void snapshotQuietly()
+    {
+        try
+        {
+            snapshot();
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Balance snapshot failed, keeping the previous one", e);
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+
+        if (scheduler != null)
+        {
+            scheduler.shutdown();
+
+            try
+            {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /*
+     * Balance changes of one user as packed (currency, amount) pairs, where
+     * the currency id is bit-flipped for a debit. They are replayed like the
+     * startup rebuild replays them, and a credit that would overflow or a
+     * debit the balance doesn't cover is counted, see the class comment.
+     */
+    private static final class Changes {
+
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(int currencyId, boolean credit, long units)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = credit ? currencyId : ~currencyId;
+            values[size++] = units;
+        }
+
+        // Applies the changes in order, returning how many of them couldn't be applied.
+        private int applyTo(Map<String, Long> balances)
+        {
+            int skipped = 0;
+
+            for (int i = 0; i < size; i += 2)
+            {
+                boolean credit = values[i] >= 0;
+                String currency = CurrencyRegistry.code((int) (credit ? values[i] : ~values[i]));
+                long units = values[i + 1];
+                Long balance = balances.get(currency);
+
+                if (credit)
+                {
+                    try
+                    {
+                        balances.put(currency, FixedPoint.add(balance == null ? 0 : balance, units));
+                    }
+                    catch (ArithmeticException e)
+                    {
+                        skipped++;
+                    }
+                }
+                else if (balance != null && balance >= units)
+                {
+                    balances.put(currency, balance - units);
+                }
+                else
+                {
+                    skipped++;
+                }
+            }
+
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package dev.benchmark;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import dev.repository.EventStore;
+import dev.schemas.Amount;
+import dev.schemas.AuthorizationRequest;
+import dev.schemas.DebitCredit;
+import dev.schemas.LoadRequest;
+import dev.service.BankLedgerService;
+import dev.service.UserService;
+import dev.service.balance.BalanceStore;
+import dev.service.balance.CasBalanceStore;
+import dev.service.balance.LockingBalanceStore;
+import dev.service.idempotency.IdempotencyIndex;
+import dev.service.journal.DurabilityMode;
+import dev.service.journal.EventJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * Contention benchmark for the balance stores behind {@link BankLedgerService}.
+ * The event store is stubbed out and the journal doesn't wait for it, so only
+ * the balance check-and-update is measured. For an increasing number of threads it reports throughput when
+ * every thread works on its own users (should scale with cores) and when
+ * every thread hammers the same user, once per store so they can be compared.
+ *
+ * Not a unit test, run it directly:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=dev.benchmark.BalanceStoreContentionBenchmark
+ */
+public class BalanceStoreContentionBenchmark {
+
+    private static final int USERS_PER_THREAD = 1_000;
+    private static final long DURATION_MILLIS = 2_000;
+
+    public static void main(String[] args) throws Exception
+    {
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+        Supplier<BalanceStore> locking = () -> new LockingBalanceStore(1024);
+        Supplier<BalanceStore> cas = CasBalanceStore::new;
+
+        // Warm up the JIT before anything is measured.
+        run(locking, maxThreads, false);
+        run(cas, maxThreads, false);
+
+        System.out.printf("%-8s %-18s %-18s %-18s %-18s%n", "threads",
+            "locking distinct", "locking same-user", "cas distinct", "cas same-user");
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2)
+        {
+            System.out.printf("%-8d %-18d %-18d %-18d %-18d%n", threads,
+                run(locking, threads, false), run(locking, threads, true),
+                run(cas, threads, false), run(cas, threads, true));
+        }
+    }
+
+    /*
+     * Runs load + authorize pairs on a fresh service for a fixed duration and
+     * returns the number of requests completed per second.
+     */
+    private static long run(Supplier<BalanceStore> store, int threads, boolean sameUser) throws Exception
+    {
+        EventStore eventStore = mock(EventStore.class, withSettings().stubOnly());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        EventJournal journal = new EventJournal(eventStore, meterRegistry, DurabilityMode.FIRE_AND_FORGET,
+            8192, 512, Duration.ofMillis(2));
+        journal.start();
+
+        IdempotencyIndex idempotencyIndex = new IdempotencyIndex(eventStore, 10_000_000, 0.001, 100_000);
+        BankLedgerService service = new BankLedgerService(journal, idempotencyIndex, new UserService(store.get()),
+            meterRegistry);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong completed = new AtomicLong();
+        long deadline = System.currentTimeMillis() + DURATION_MILLIS;
+
+        List<Future<?>> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++)
+        {
+            final int worker = t;
+
+            workers.add(pool.submit(() -> {
+                start.await();
+
+                long ops = 0;
+                long i = 0;
+
+                while (System.currentTimeMillis() < deadline)
+                {
+                    String userId = sameUser ? "hot" : "user-" + worker + "-" + (i % USERS_PER_THREAD);
+
+                    service.load(new LoadRequest(userId, "m", new Amount("1.00", "USD", DebitCredit.CREDIT)));
+                    service.authorize(new AuthorizationRequest(userId, "m", new Amount("1.00", "USD", DebitCredit.DEBIT)));
+
+                    ops += 2;
+                    i++;
+                }
+
+                completed.addAndGet(ops);
+                return null;
+            }));
+        }
+
+        start.countDown();
+
+        for (Future<?> worker : workers)
+        {
+            worker.get();
+        }
+
+        pool.shutdown();
+        journal.stop();
+
+        return completed.get() * 1000 / DURATION_MILLIS;
+    }
+}
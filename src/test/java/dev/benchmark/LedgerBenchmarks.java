@@ -0,0 +1,54 @@
+package dev.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the JMH benchmarks of the ledger hot path, {@link LedgerServiceBenchmark},
+ * {@link UserServiceBenchmark} and {@link RequestParsingBenchmark}, each over
+ * the uniform and the Zipfian {@link Population}, once on a single thread and
+ * once on as many threads as there are cores, and writes the results to
+ * target/jmh-ledger-<threads>.json as well as the console.
+ *
+ * Not a unit test, run it directly:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=dev.benchmark.LedgerBenchmarks
+ *
+ * Any JMH command line options are passed on, e.g. -Dexec.args="-f 3" for
+ * more forks or -Dexec.args="LedgerServiceBenchmark.authorize" for one
+ * benchmark; -t picks a single thread count instead of both.
+ */
+public class LedgerBenchmarks {
+
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        int[] threadCounts = commandLine.getThreads().hasValue()
+            ? new int[] { commandLine.getThreads().get() }
+            : cores > 1 ? new int[] { 1, cores } : new int[] { 1 };
+
+        for (int threads : threadCounts)
+        {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .threads(threads)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-ledger-" + threads + ".json");
+
+            if (commandLine.getIncludes().isEmpty())
+            {
+                options.include(LedgerServiceBenchmark.class.getSimpleName())
+                    .include(UserServiceBenchmark.class.getSimpleName())
+                    .include(RequestParsingBenchmark.class.getSimpleName());
+            }
+
+            new Runner(options.build()).run();
+        }
+    }
+}
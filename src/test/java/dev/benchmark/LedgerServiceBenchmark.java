@@ -0,0 +1,108 @@
+package dev.benchmark;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.repository.EventStore;
+import dev.schemas.Amount;
+import dev.schemas.AuthorizationRequest;
+import dev.schemas.DebitCredit;
+import dev.schemas.LoadRequest;
+import dev.service.BankLedgerService;
+import dev.service.UserService;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.LockingBalanceStore;
+import dev.service.idempotency.IdempotencyIndex;
+import dev.service.journal.DurabilityMode;
+import dev.service.journal.EventJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * JMH benchmark of {@link BankLedgerService#load} and
+ * {@link BankLedgerService#authorize}, the whole request path below the
+ * controller: the idempotency check, the amount parsing, the balance update,
+ * building the event and the response. The event store is stubbed out and
+ * the journal doesn't wait for it, so no I/O is measured.
+ *
+ * Every user starts with a balance in every currency large enough that
+ * authorizations are approved, as most are in production. Each request has a
+ * new message id. Run with {@link LedgerBenchmarks}.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class LedgerServiceBenchmark {
+
+    private static final long OPENING_UNITS = 1_000_000_000_000L;
+
+    private EventJournal journal;
+    private BankLedgerService service;
+
+    @Setup(Level.Trial)
+    public void setUp(Population population)
+    {
+        EventStore eventStore = mock(EventStore.class, withSettings().stubOnly());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        journal = new EventJournal(eventStore, meterRegistry, DurabilityMode.FIRE_AND_FORGET, 8192, 512, Duration.ofMillis(2));
+        journal.start();
+
+        IdempotencyIndex idempotencyIndex = new IdempotencyIndex(eventStore, 10_000_000, 0.001, 100_000);
+        idempotencyIndex.start();
+
+        UserService userService = new UserService(new LockingBalanceStore(1024));
+
+        for (String userId : population.userIds)
+        {
+            for (String currency : population.currencies)
+            {
+                userService.credit(userId, CurrencyRegistry.resolve(currency), OPENING_UNITS);
+            }
+        }
+
+        service = new BankLedgerService(journal, idempotencyIndex, userService, meterRegistry);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        journal.stop();
+    }
+
+    @Benchmark
+    public Object load(Workload workload)
+    {
+        workload.advance();
+
+        return service.load(new LoadRequest(workload.userId(), workload.messageId(),
+            new Amount(workload.amount(), workload.currency(), DebitCredit.CREDIT)));
+    }
+
+    @Benchmark
+    public Object authorize(Workload workload)
+    {
+        workload.advance();
+
+        return service.authorize(new AuthorizationRequest(workload.userId(), workload.messageId(),
+            new Amount(workload.amount(), workload.currency(), DebitCredit.DEBIT)));
+    }
+}
@@ -0,0 +1,465 @@
+package dev.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/*
+ * Load generator for a running instance of the service. It drives /load and
+ * /authorization at a fixed target rate over many connections and reports
+ * the latency distribution, the outcomes, and the throughput reached.
+ *
+ * The traffic is either replayed from a file of newline-delimited JSON
+ * requests in the shape /load and /authorization (and /ingest) accept, a
+ * DEBIT going to /authorization and anything else to /load, or synthesized
+ * over a {@link Population} of users and currencies with a given share of
+ * authorizations. A replayed file starts over when it runs out, with the
+ * message ids of later passes suffixed so they aren't taken as duplicates.
+ *
+ * Every connection is a closed loop: it sends a request, waits for the
+ * response, and sends the next one when it is due. Requests are due at
+ * evenly spaced intended times, so that all connections together send at
+ * the target rate. When the service stalls, later requests go out late, and
+ * only timing each request from its send would hide that wait. So latency
+ * is measured from the intended send time (corrected for coordinated
+ * omission), and the time from the actual send is reported next to it.
+ *
+ * Not a unit test, run it directly against a started service:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=dev.benchmark.LoadGenerator \
+ *       -Dexec.args="--rate=2000 --duration=60 --connections=64"
+ *
+ * Options, all --name=value:
+ *
+ *   url           base URL of the service (http://localhost:8080)
+ *   rate          target requests per second over all connections (1000)
+ *   duration      seconds measured (30), after warmup seconds (5) not measured
+ *   connections   concurrent connections (32)
+ *   input         file to replay; without one, traffic is synthesized from:
+ *   users         number of users (10000)
+ *   distribution  "uniform" or "zipfian" (zipfian), with skew (1.0)
+ *   currencies    currency mix, e.g. "USD:0.7,EUR:0.3" (as in Population)
+ *   auth-ratio    share of authorizations (0.5)
+ *   server-cores  cores of the service, for the throughput per core (this machine's)
+ *   report        where the JSON report is written (target/load-report.json)
+ *   max-p99-ms    if given, exits with 1 when the corrected p99 is above it
+ *
+ * The run also exits with 1 if it fell more than 5% short of the target
+ * rate, so a CI job can gate on both.
+ */
+public class LoadGenerator {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args)
+        {
+            int equals = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || equals < 0)
+            {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+
+        String url = options.getOrDefault("url", "http://localhost:8080");
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "32"));
+        int serverCores = Integer.parseInt(options.getOrDefault("server-cores",
+            Integer.toString(Runtime.getRuntime().availableProcessors())));
+        File report = new File(options.getOrDefault("report", "target/load-report.json"));
+
+        Traffic traffic = options.containsKey("input")
+            ? new Replay(Path.of(options.get("input")))
+            : new Synthetic(options, connections);
+
+        Run run = new Run(url, rate, connections, warmup, duration, traffic);
+        run.execute();
+
+        Map<String, Object> results = run.results(serverCores);
+        results.put("options", new LinkedHashMap<>(options));
+
+        report.getAbsoluteFile().getParentFile().mkdirs();
+        objectMapper.enable(SerializationFeature.INDENT_OUTPUT).writeValue(report, results);
+
+        System.out.println(objectMapper.writeValueAsString(results));
+        System.out.println("Report written to " + report.getPath());
+
+        boolean shortOfRate = (double) results.get("achievedRate") < rate * 0.95;
+        boolean overBudget = options.containsKey("max-p99-ms")
+            && run.corrected.getValueAtPercentile(99) / 1000.0 > Double.parseDouble(options.get("max-p99-ms"));
+
+        if (shortOfRate || overBudget)
+        {
+            System.out.println((shortOfRate ? "Fell short of the target rate. " : "")
+                + (overBudget ? "Corrected p99 is over budget." : ""));
+            System.exit(1);
+        }
+    }
+
+    /*
+     * One request: the endpoint and the JSON body.
+     */
+    private static final class Request {
+
+        private final String path;
+        private final byte[] body;
+
+        private Request(String path, byte[] body)
+        {
+            this.path = path;
+            this.body = body;
+        }
+    }
+
+    private interface Traffic {
+
+        /**
+         * @param connection
+         * @return Request, the next request to send on that connection.
+         */
+        Request next(int connection);
+    }
+
+    /*
+     * Replays the requests of a file, in order over all connections.
+     */
+    private static final class Replay implements Traffic {
+
+        private final List<ObjectNode> requests = new ArrayList<>();
+        private final List<byte[]> bodies = new ArrayList<>();
+        private final AtomicLong cursor = new AtomicLong();
+
+        private Replay(Path input) throws IOException
+        {
+            for (String line : Files.readAllLines(input, StandardCharsets.UTF_8))
+            {
+                if (!line.isBlank())
+                {
+                    ObjectNode request = (ObjectNode) objectMapper.readTree(line);
+                    requests.add(request);
+                    bodies.add(objectMapper.writeValueAsBytes(request));
+                }
+            }
+
+            if (requests.isEmpty())
+            {
+                throw new IllegalArgumentException("No requests in " + input);
+            }
+        }
+
+        @Override
+        public Request next(int connection)
+        {
+            long index = cursor.getAndIncrement();
+            int line = (int) (index % requests.size());
+            long pass = index / requests.size();
+            ObjectNode request = requests.get(line);
+            byte[] body = bodies.get(line);
+
+            if (pass > 0)
+            {
+                ObjectNode again = request.deepCopy();
+                again.put("messageId", request.path("messageId").asText() + "~" + pass);
+
+                try
+                {
+                    body = objectMapper.writeValueAsBytes(again);
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            boolean debit = "DEBIT".equals(request.path("transactionAmount").path("debitOrCredit").asText());
+
+            return new Request(debit ? "/authorization" : "/load", body);
+        }
+    }
+
+    /*
+     * Draws requests from a {@link Population}, with a random generator and
+     * message ids of its own per connection. The message ids start with the
+     * time of the run, so runs against the same database don't collide.
+     */
+    private static final class Synthetic implements Traffic {
+
+        private final Population population = new Population();
+        private final double authRatio;
+        private final String runId = Long.toString(System.currentTimeMillis(), 36);
+        private final SplittableRandom[] randoms;
+        private final long[] messages;
+
+        private Synthetic(Map<String, String> options, int connections)
+        {
+            population.users = Integer.parseInt(options.getOrDefault("users", "10000"));
+            population.distribution = options.getOrDefault("distribution", "zipfian");
+            population.skew = Double.parseDouble(options.getOrDefault("skew", "1.0"));
+            population.currencyMix = options.getOrDefault("currencies", "USD:0.55,EUR:0.20,GBP:0.12,JPY:0.10,BHD:0.03");
+            population.setUp();
+
+            this.authRatio = Double.parseDouble(options.getOrDefault("auth-ratio", "0.5"));
+            this.randoms = new SplittableRandom[connections];
+            this.messages = new long[connections];
+
+            for (int i = 0; i < connections; i++)
+            {
+                randoms[i] = new SplittableRandom(i);
+            }
+        }
+
+        // Only ever called by the connection's own thread.
+        @Override
+        public Request next(int connection)
+        {
+            SplittableRandom random = randoms[connection];
+            boolean authorization = random.nextDouble() < authRatio;
+            int currency = population.nextCurrency(random);
+
+            String body = "{\"userId\":\"" + population.userIds[population.nextUser(random)]
+                + "\",\"messageId\":\"lg-" + runId + "-" + connection + "-" + messages[connection]++
+                + "\",\"transactionAmount\":{\"amount\":\"" + population.amounts[currency]
+                + "\",\"currency\":\"" + population.currencies[currency]
+                + "\",\"debitOrCredit\":\"" + (authorization ? "DEBIT" : "CREDIT") + "\"}}";
+
+            return new Request(authorization ? "/authorization" : "/load", body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /*
+     * The connections of one run and what they measured. Latencies are
+     * recorded in microseconds.
+     */
+    private static final class Run {
+
+        private final String url;
+        private final double rate;
+        private final int connections;
+        private final long warmupNanos;
+        private final long durationNanos;
+        private final Traffic traffic;
+
+        private final ExecutorService clientExecutor;
+        private final HttpClient client;
+
+        private final Histogram corrected = new Histogram(3);
+        private final Histogram uncorrected = new Histogram(3);
+        private final Map<String, Long> outcomes = new LinkedHashMap<>();
+        private long measuredNanos;
+
+        private Run(String url, double rate, int connections, int warmupSeconds, int durationSeconds, Traffic traffic)
+        {
+            this.url = url;
+            this.rate = rate;
+            this.connections = connections;
+            this.warmupNanos = warmupSeconds * 1_000_000_000L;
+            this.durationNanos = durationSeconds * 1_000_000_000L;
+            this.traffic = traffic;
+            this.clientExecutor = Executors.newFixedThreadPool(Math.max(2, connections / 4));
+            this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientExecutor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+            for (String outcome : new String[] { "approved", "declined", "clientError", "serverError", "failed" })
+            {
+                outcomes.put(outcome, 0L);
+            }
+        }
+
+        private void execute() throws Exception
+        {
+            ExecutorService pool = Executors.newFixedThreadPool(connections);
+            long start = System.nanoTime() + 100_000_000L;
+            List<Future<Connection>> running = new ArrayList<>();
+
+            for (int i = 0; i < connections; i++)
+            {
+                Connection connection = new Connection(i, start);
+                running.add(pool.submit(() -> {
+                    connection.run();
+                    return connection;
+                }));
+            }
+
+            for (Future<Connection> future : running)
+            {
+                Connection connection = future.get();
+                corrected.add(connection.corrected);
+                uncorrected.add(connection.uncorrected);
+
+                for (Map.Entry<String, Long> outcome : connection.outcomes.entrySet())
+                {
+                    outcomes.merge(outcome.getKey(), outcome.getValue(), Long::sum);
+                }
+
+                measuredNanos = Math.max(measuredNanos, connection.lastCompleted - (start + warmupNanos));
+            }
+
+            pool.shutdown();
+            clientExecutor.shutdown();
+        }
+
+        private Map<String, Object> results(int serverCores)
+        {
+            long requests = corrected.getTotalCount();
+            double achievedRate = requests * 1e9 / Math.max(1, measuredNanos);
+
+            Map<String, Object> results = new LinkedHashMap<>();
+            results.put("targetRate", rate);
+            results.put("achievedRate", achievedRate);
+            results.put("serverCores", serverCores);
+            results.put("achievedRatePerCore", achievedRate / serverCores);
+            results.put("connections", connections);
+            results.put("measuredSeconds", measuredNanos / 1e9);
+            results.put("requests", requests);
+            results.put("outcomes", outcomes);
+            results.put("latencyMillis", percentiles(corrected));
+            results.put("serviceTimeMillis", percentiles(uncorrected));
+
+            return results;
+        }
+
+        private static Map<String, Object> percentiles(Histogram histogram)
+        {
+            Map<String, Object> percentiles = new LinkedHashMap<>();
+            percentiles.put("mean", histogram.getMean() / 1000);
+
+            for (double percentile : new double[] { 50, 90, 99, 99.9, 99.99 })
+            {
+                percentiles.put("p" + (percentile == (long) percentile ? Long.toString((long) percentile) : Double.toString(percentile)),
+                    histogram.getValueAtPercentile(percentile) / 1000.0);
+            }
+
+            percentiles.put("max", histogram.getMaxValue() / 1000.0);
+
+            return percentiles;
+        }
+
+        /*
+         * One connection's closed loop. Its requests are due every
+         * connections / rate seconds, the connections staggered evenly
+         * within that period.
+         */
+        private final class Connection {
+
+            private final int id;
+            private final long start;
+
+            private final Histogram corrected = new Histogram(3);
+            private final Histogram uncorrected = new Histogram(3);
+            private final Map<String, Long> outcomes = new HashMap<>();
+            private long lastCompleted;
+
+            private Connection(int id, long start)
+            {
+                this.id = id;
+                this.start = start;
+            }
+
+            private void run()
+            {
+                double period = connections * 1e9 / rate;
+                long measureFrom = start + warmupNanos;
+                long end = measureFrom + durationNanos;
+
+                for (long k = 0; ; k++)
+                {
+                    long intended = start + (long) ((k + (double) id / connections) * period);
+
+                    if (intended >= end)
+                    {
+                        return;
+                    }
+
+                    long wait;
+
+                    while ((wait = intended - System.nanoTime()) > 0)
+                    {
+                        LockSupport.parkNanos(wait);
+                    }
+
+                    Request request = traffic.next(id);
+                    long sent = System.nanoTime();
+                    String outcome = send(request);
+                    long completed = System.nanoTime();
+
+                    if (intended >= measureFrom)
+                    {
+                        corrected.recordValue((completed - intended) / 1_000);
+                        uncorrected.recordValue((completed - sent) / 1_000);
+                        outcomes.merge(outcome, 1L, Long::sum);
+                        lastCompleted = completed;
+                    }
+                }
+            }
+
+            private String send(Request request)
+            {
+                try
+                {
+                    HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url + request.path))
+                        .timeout(Duration.ofSeconds(30))
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(request.body))
+                        .build(), HttpResponse.BodyHandlers.ofString());
+
+                    if (response.statusCode() >= 500)
+                    {
+                        return "serverError";
+                    }
+
+                    if (response.statusCode() >= 400)
+                    {
+                        return "clientError";
+                    }
+
+                    return response.body().contains("\"DECLINED\"") ? "declined" : "approved";
+                }
+                catch (IOException e)
+                {
+                    return "failed";
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return "failed";
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package dev.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import dev.domain.EventTime;
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.TransactionEventRepository;
+import dev.repository.sqlite.SqliteWalConfiguration;
+import dev.schemas.DebitCredit;
+
+/*
+ * Benchmark of the ways events can be written through
+ * {@link TransactionEventRepository}, and of reading them back with
+ * findByUserId, on SQLite (a file in WAL mode, as configured for production,
+ * and in memory) and on H2 in memory.
+ *
+ * Each write strategy writes the same number of events in transactions of
+ * increasing size, into an emptied table:
+ *
+ *   save-and-flush  saveAndFlush per event, i.e. one INSERT round trip each
+ *   save-all        saveAll per transaction, batched by Hibernate
+ *   jdbc-batch      insertAll per transaction, one plain JDBC batch
+ *
+ * and reports events per second and the latency percentiles of the
+ * transactions, in microseconds. Reads are findByUserId calls for random
+ * users of a table of the same number of events spread over USERS users.
+ * Only the repository and its datasource are started, nothing else of the
+ * service. A first pass over every strategy is thrown away as warm-up.
+ *
+ * Not a unit test, run it directly:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=dev.benchmark.PersistenceBenchmark \
+ *       -Dexec.args="20000"
+ *
+ * The argument is the number of events per run (20,000 by default). The
+ * results are also written to target/persistence-benchmark.json.
+ */
+public class PersistenceBenchmark {
+
+    private static final int USERS = 1_000;
+    private static final int[] TRANSACTION_SIZES = { 1, 10, 100, 1000 };
+    private static final int READS = 5_000;
+    private static final int WARMUP_EVENTS = 2_000;
+
+    private static final String SQLITE_DIALECT = "org.hibernate.community.dialect.SQLiteDialect";
+    private static final String H2_DIALECT = "org.hibernate.dialect.H2Dialect";
+
+    private enum Strategy {
+        SAVE_AND_FLUSH, SAVE_ALL, JDBC_BATCH;
+
+        String label()
+        {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Path directory = Files.createTempDirectory("ledger-persistence-benchmark");
+
+        String[][] targets = {
+            { "sqlite-file", "jdbc:sqlite:" + directory.resolve("ledger.db"), "org.sqlite.JDBC", SQLITE_DIALECT, "wal" },
+            { "sqlite-memory", "jdbc:sqlite:file:ledger-benchmark?mode=memory&cache=shared", "org.sqlite.JDBC", SQLITE_DIALECT, "default" },
+            { "h2-memory", "jdbc:h2:mem:ledger-benchmark;DB_CLOSE_DELAY=-1", "org.h2.Driver", H2_DIALECT, "default" }
+        };
+
+        List<Map<String, Object>> results = new ArrayList<>();
+
+        System.out.printf("%-14s %-15s %8s %12s %10s %10s %10s %10s%n",
+            "database", "operation", "tx size", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us");
+
+        for (String[] target : targets)
+        {
+            try (ConfigurableApplicationContext context = start(target))
+            {
+                Harness harness = new Harness(target[0], context);
+
+                for (Strategy strategy : Strategy.values())
+                {
+                    harness.write(strategy, 10, WARMUP_EVENTS);
+                }
+
+                for (Strategy strategy : Strategy.values())
+                {
+                    for (int size : TRANSACTION_SIZES)
+                    {
+                        results.add(print(harness.write(strategy, size, events)));
+                    }
+                }
+
+                results.add(print(harness.read(events, READS)));
+            }
+        }
+
+        File report = new File("target/persistence-benchmark.json");
+        report.getParentFile().mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report, results);
+
+        System.out.println("Results written to " + report.getPath());
+    }
+
+    private static ConfigurableApplicationContext start(String[] target)
+    {
+        return new SpringApplicationBuilder(Storage.class)
+            .web(WebApplicationType.NONE)
+            .bannerMode(Banner.Mode.OFF)
+            .logStartupInfo(false)
+            .properties(
+                "spring.datasource.url=" + target[1],
+                "spring.datasource.driver-class-name=" + target[2],
+                "spring.jpa.database-platform=" + target[3],
+                "ledger.sqlite.mode=" + target[4],
+                "spring.jpa.hibernate.ddl-auto=create",
+                "logging.level.root=WARN")
+            .run();
+    }
+
+    private static Map<String, Object> print(Map<String, Object> result)
+    {
+        System.out.printf("%-14s %-15s %8s %12.0f %10d %10d %10d %10d%n",
+            result.get("database"), result.get("operation"), result.get("transactionSize"), result.get("opsPerSecond"),
+            result.get("p50Micros"), result.get("p99Micros"), result.get("p999Micros"), result.get("maxMicros"));
+
+        return result;
+    }
+
+    /*
+     * Just the repository and the datasource, SQLite's WAL one when
+     * "ledger.sqlite.mode" is "wal", see {@link SqliteWalConfiguration}.
+     */
+    @Configuration
+    @EnableAutoConfiguration
+    @EntityScan(basePackageClasses = TransactionEvent.class)
+    @EnableJpaRepositories(basePackageClasses = TransactionEventRepository.class)
+    @Import(SqliteWalConfiguration.class)
+    static class Storage {}
+
+    /*
+     * Runs the measurements against one started database.
+     */
+    private static final class Harness {
+
+        private final String database;
+        private final TransactionEventRepository repository;
+        private final TransactionTemplate transactionTemplate;
+        private final JdbcTemplate jdbcTemplate;
+        private final SplittableRandom random = new SplittableRandom(42);
+
+        private long messages;
+
+        private Harness(String database, ConfigurableApplicationContext context)
+        {
+            this.database = database;
+            this.repository = context.getBean(TransactionEventRepository.class);
+            this.transactionTemplate = context.getBean(TransactionTemplate.class);
+            this.jdbcTemplate = context.getBean(JdbcTemplate.class);
+        }
+
+        private Map<String, Object> write(Strategy strategy, int size, int events)
+        {
+            jdbcTemplate.update("delete from ledger_event");
+
+            Histogram latency = new Histogram(3);
+            long started = System.nanoTime();
+
+            for (int written = 0; written < events; written += size)
+            {
+                List<TransactionEvent> batch = events(Math.min(size, events - written));
+                long transactionStarted = System.nanoTime();
+
+                transactionTemplate.executeWithoutResult(status -> {
+                    switch (strategy)
+                    {
+                        case SAVE_AND_FLUSH:
+                            for (TransactionEvent event : batch)
+                            {
+                                repository.saveAndFlush(event);
+                            }
+                            break;
+                        case SAVE_ALL:
+                            repository.saveAll(batch);
+                            break;
+                        case JDBC_BATCH:
+                            repository.insertAll(batch);
+                            break;
+                    }
+                });
+
+                latency.recordValue((System.nanoTime() - transactionStarted) / 1_000);
+            }
+
+            return result(strategy.label(), size, events, System.nanoTime() - started, latency);
+        }
+
+        private Map<String, Object> read(int events, int reads)
+        {
+            jdbcTemplate.update("delete from ledger_event");
+
+            for (int written = 0; written < events; written += 1000)
+            {
+                List<TransactionEvent> batch = events(Math.min(1000, events - written));
+                transactionTemplate.executeWithoutResult(status -> repository.insertAll(batch));
+            }
+
+            Histogram latency = new Histogram(3);
+            long started = System.nanoTime();
+
+            for (int i = 0; i < reads; i++)
+            {
+                String userId = "user-" + random.nextInt(USERS);
+                long readStarted = System.nanoTime();
+
+                repository.findByUserId(userId);
+
+                latency.recordValue((System.nanoTime() - readStarted) / 1_000);
+            }
+
+            return result("find-by-user-id", 1, reads, System.nanoTime() - started, latency);
+        }
+
+        private List<TransactionEvent> events(int count)
+        {
+            List<TransactionEvent> events = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++)
+            {
+                TransactionEvent event = new TransactionEvent("user-" + random.nextInt(USERS), "bench-" + ++messages,
+                    TransactionStatus.LOAD_SUCCESS, DebitCredit.CREDIT, "USD", 1234, 2, EventTime.now());
+                event.setSequenceNumber(messages);
+                events.add(event);
+            }
+
+            return events;
+        }
+
+        private Map<String, Object> result(String operation, int size, int ops, long nanos, Histogram latency)
+        {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("database", database);
+            result.put("operation", operation);
+            result.put("transactionSize", size);
+            result.put("operations", ops);
+            result.put("opsPerSecond", ops * 1e9 / nanos);
+            result.put("p50Micros", latency.getValueAtPercentile(50));
+            result.put("p99Micros", latency.getValueAtPercentile(99));
+            result.put("p999Micros", latency.getValueAtPercentile(99.9));
+            result.put("maxMicros", latency.getMaxValue());
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package dev.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dev.service.balance.CurrencyPrecision;
+import dev.service.balance.FixedPoint;
+
+/*
+ * The users and currencies a JMH benchmark draws its requests from, shared by
+ * all of its threads, and that the {@link LoadGenerator} synthesizes traffic
+ * over.
+ *
+ * Users are picked either uniformly or Zipfian, where user k is picked in
+ * proportion to 1 / k^s: with the default s = 1 and 100,000 users the
+ * hottest account gets about 8% of all requests and the top 100 about 43%,
+ * as with a few merchant or payroll accounts among many quiet ones.
+ * Currencies are picked by their share of a mix, "USD:0.55,EUR:0.20,..."
+ * by default, of two, zero and three digit ones. Every request in a currency
+ * is for the same amount, 12.34 in its number of fraction digits.
+ */
+@State(Scope.Benchmark)
+public class Population {
+
+    @Param({ "uniform", "zipfian" })
+    public String distribution;
+
+    @Param({ "100000" })
+    public int users;
+
+    @Param({ "1.0" })
+    public double skew;
+
+    @Param({ "USD:0.55,EUR:0.20,GBP:0.12,JPY:0.10,BHD:0.03" })
+    public String currencyMix;
+
+    String[] userIds;
+    String[] currencies;
+    String[] amounts;
+
+    private double[] userCdf;
+    private double[] currencyCdf;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        userIds = new String[users];
+
+        for (int i = 0; i < users; i++)
+        {
+            userIds[i] = "user-" + i;
+        }
+
+        double[] weights = new double[users];
+
+        for (int k = 0; k < users; k++)
+        {
+            weights[k] = "zipfian".equals(distribution) ? 1 / Math.pow(k + 1, skew) : 1;
+        }
+
+        userCdf = cdf(weights);
+
+        String[] mix = currencyMix.split(",");
+        double[] shares = new double[mix.length];
+        currencies = new String[mix.length];
+        amounts = new String[mix.length];
+
+        for (int i = 0; i < mix.length; i++)
+        {
+            String[] share = mix[i].trim().split(":");
+            int exponent = CurrencyPrecision.exponent(share[0]);
+
+            currencies[i] = share[0];
+            shares[i] = Double.parseDouble(share[1]);
+            amounts[i] = FixedPoint.format(exponent >= 2 ? 1234 * pow10(exponent - 2) : 1234 / pow10(2 - exponent), exponent);
+        }
+
+        currencyCdf = cdf(shares);
+    }
+
+    /**
+     * @param random
+     * @return int, the index of a user in userIds.
+     */
+    int nextUser(SplittableRandom random)
+    {
+        return pick(userCdf, random);
+    }
+
+    /**
+     * @param random
+     * @return int, the index of a currency in currencies.
+     */
+    int nextCurrency(SplittableRandom random)
+    {
+        return pick(currencyCdf, random);
+    }
+
+    private static int pick(double[] cdf, SplittableRandom random)
+    {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+
+        return Math.min(index >= 0 ? index : -index - 1, cdf.length - 1);
+    }
+
+    private static long pow10(int exponent)
+    {
+        long power = 1;
+
+        for (int i = 0; i < exponent; i++)
+        {
+            power *= 10;
+        }
+
+        return power;
+    }
+
+    private static double[] cdf(double[] weights)
+    {
+        double total = 0;
+
+        for (double weight : weights)
+        {
+            total += weight;
+        }
+
+        double[] cdf = new double[weights.length];
+        double sum = 0;
+
+        for (int i = 0; i < weights.length; i++)
+        {
+            sum += weights[i];
+            cdf[i] = sum / total;
+        }
+
+        return cdf;
+    }
+}
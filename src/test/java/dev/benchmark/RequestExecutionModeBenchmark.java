@@ -0,0 +1,177 @@
+package dev.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import dev.Application;
+
+/*
+ * End-to-end benchmark of the two request execution modes, see
+ * {@link dev.controllers.VirtualThreadConfiguration}. Starts the service
+ * in-process on a fresh SQLite database once per mode and keeps 1k and then
+ * 10k connections busy with load requests, each connection sending its next
+ * request as soon as the previous one is answered. Reports throughput,
+ * latency percentiles and failed requests per mode and connection count.
+ *
+ * The client runs in the same JVM and competes for the same cores, so the
+ * numbers compare the modes with each other rather than measure the
+ * service. 10k connections need about 20k file descriptors (both ends live
+ * in this process), raise "ulimit -n" if requests fail to connect. On a
+ * runtime older than Java 21 the virtual mode falls back to platform
+ * threads, which the service logs on startup.
+ *
+ * Not a unit test, run it directly:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=dev.benchmark.RequestExecutionModeBenchmark
+ */
+public class RequestExecutionModeBenchmark {
+
+    private static final int[] CONNECTIONS = {1_000, 10_000};
+    private static final long WARMUP_MILLIS = 5_000;
+    private static final long DURATION_MILLIS = 15_000;
+
+    // Latency histogram in 100 microsecond buckets up to the 60s request timeout.
+    private static final int BUCKET_MICROS = 100;
+    private static final int BUCKETS = 600_000;
+
+    public static void main(String[] args) throws Exception
+    {
+        System.out.printf("%-10s %-12s %-12s %-10s %-10s %-10s %-10s%n", "mode",
+            "connections", "requests/s", "p50 ms", "p99 ms", "max ms", "failed");
+
+        for (String mode : new String[] {"platform", "virtual"})
+        {
+            Path directory = Files.createTempDirectory("ledger-bench-" + mode);
+
+            // Passed as arguments so they override application.yml.
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:sqlite:" + directory.resolve("ledger.db"),
+                "--ledger.threads.mode=" + mode,
+                "--ledger.snapshot.directory=" + directory.resolve("snapshots"),
+                "--server.tomcat.max-connections=20000",
+                "--server.tomcat.accept-count=10000",
+                "--logging.level.root=warn");
+
+            try
+            {
+                // One client per mode, so later runs reuse the connections of earlier ones.
+                HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(30)).build();
+                URI uri = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/load");
+
+                run(client, uri, "warmup", CONNECTIONS[0], WARMUP_MILLIS);
+
+                for (int connections : CONNECTIONS)
+                {
+                    Result result = run(client, uri, "run" + connections, connections, DURATION_MILLIS);
+
+                    System.out.printf("%-10s %-12d %-12d %-10.1f %-10.1f %-10.1f %-10d%n", mode, connections,
+                        result.completed.get() * 1000 / DURATION_MILLIS, result.percentile(0.50), result.percentile(0.99),
+                        result.percentile(1.0), result.failed.get());
+                }
+            }
+            finally
+            {
+                context.close();
+            }
+        }
+    }
+
+    /*
+     * Keeps the given number of requests in flight until the duration is up
+     * and waits for the last ones to be answered. Message ids are prefixed
+     * with the run's name so they don't repeat an earlier run's on the same
+     * database, which would be answered as duplicates.
+     */
+    private static Result run(HttpClient client, URI uri, String name, int connections, long durationMillis)
+    {
+        Result result = new Result();
+        long deadline = System.currentTimeMillis() + durationMillis;
+        CompletableFuture<?>[] loops = new CompletableFuture<?>[connections];
+
+        for (int c = 0; c < connections; c++)
+        {
+            loops[c] = loop(client, uri, name + "-" + c, new AtomicLong(), deadline, result);
+        }
+
+        CompletableFuture.allOf(loops).join();
+
+        return result;
+    }
+
+    private static CompletableFuture<Void> loop(HttpClient client, URI uri, String userId, AtomicLong counter,
+    long deadline, Result result)
+    {
+        if (System.currentTimeMillis() >= deadline)
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String body = "{\"userId\":\"" + userId + "\",\"messageId\":\"" + userId + "-" + counter.incrementAndGet()
+            + "\",\"transactionAmount\":{\"amount\":\"1.00\",\"currency\":\"USD\",\"debitOrCredit\":\"CREDIT\"}}";
+
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60))
+            .header("Content-Type", "application/json")
+            .PUT(HttpRequest.BodyPublishers.ofString(body)).build();
+
+        long start = System.nanoTime();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+            .handle((response, error) -> {
+                result.record(System.nanoTime() - start, error == null && response.statusCode() == 201);
+                return null;
+            })
+            .thenCompose(ignored -> loop(client, uri, userId, counter, deadline, result));
+    }
+
+    private static final class Result {
+
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        private void record(long nanos, boolean ok)
+        {
+            if (!ok)
+            {
+                failed.incrementAndGet();
+                return;
+            }
+
+            histogram.incrementAndGet((int) Math.min(nanos / 1000 / BUCKET_MICROS, BUCKETS - 1));
+            completed.incrementAndGet();
+        }
+
+        // Upper edge of the bucket holding the given quantile, in milliseconds.
+        private double percentile(double quantile)
+        {
+            long target = (long) Math.ceil(completed.get() * quantile);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += histogram.get(i);
+
+                if (seen >= target && seen > 0)
+                {
+                    return (i + 1) * BUCKET_MICROS / 1000.0;
+                }
+            }
+
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package dev.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.domain.EventTime;
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.schemas.DebitCredit;
+import dev.schemas.LoadRequest;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.FixedPoint;
+
+/*
+ * JMH benchmark of the per-request conversions around the balance update:
+ * reading a request body into its {@link dev.schemas.Amount}, parsing the
+ * amount into minor units and formatting the new balance back, and building
+ * the {@link TransactionEvent} that gets recorded. Run with
+ * {@link LedgerBenchmarks}.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RequestParsingBenchmark {
+
+    private static final int BODIES = 1024;
+
+    // Configured like the application's, which reads the constructor parameter names.
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final byte[][] bodies = new byte[BODIES][];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(Workload workload)
+    {
+        for (int i = 0; i < BODIES; i++)
+        {
+            workload.advance();
+
+            bodies[i] = ("{\"userId\":\"" + workload.userId() + "\",\"messageId\":\"" + workload.messageId()
+                + "\",\"transactionAmount\":{\"amount\":\"" + workload.amount() + "\",\"currency\":\""
+                + workload.currency() + "\",\"debitOrCredit\":\"CREDIT\"}}").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public LoadRequest readRequest() throws Exception
+    {
+        next = (next + 1) & (BODIES - 1);
+
+        return objectMapper.readValue(bodies[next], LoadRequest.class);
+    }
+
+    @Benchmark
+    public long parseAmount(Workload workload)
+    {
+        workload.advance();
+
+        return FixedPoint.parse(workload.amount(), CurrencyRegistry.exponent(CurrencyRegistry.resolve(workload.currency())));
+    }
+
+    @Benchmark
+    public String formatAmount(Workload workload)
+    {
+        workload.advance();
+
+        return FixedPoint.format(123_456_789L, CurrencyRegistry.exponent(CurrencyRegistry.resolve(workload.currency())));
+    }
+
+    @Benchmark
+    public TransactionEvent newTransactionEvent(Workload workload)
+    {
+        workload.advance();
+
+        return new TransactionEvent(workload.userId(), workload.messageId(), TransactionStatus.LOAD_SUCCESS,
+            DebitCredit.CREDIT, workload.currency(), 1234, 2, EventTime.now());
+    }
+}
@@ -0,0 +1,85 @@
+package dev.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.service.UserService;
+import dev.service.balance.BalanceStore;
+import dev.service.balance.BalanceUpdate;
+import dev.service.balance.CasBalanceStore;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.LockingBalanceStore;
+
+/*
+ * JMH benchmark of the balance reads and updates of {@link UserService},
+ * once per balance store. The updates are the credit and debit the ledger
+ * makes for a load and an authorization; there is no separate
+ * "updateBalances" any more. Run with {@link LedgerBenchmarks}.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+
+    private static final long OPENING_UNITS = 1_000_000_000_000L;
+
+    @Param({ "locking", "cas" })
+    public String store;
+
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp(Population population)
+    {
+        BalanceStore balanceStore = "cas".equals(store) ? new CasBalanceStore() : new LockingBalanceStore(1024);
+        userService = new UserService(balanceStore);
+
+        for (String userId : population.userIds)
+        {
+            for (String currency : population.currencies)
+            {
+                userService.credit(userId, CurrencyRegistry.resolve(currency), OPENING_UNITS);
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, Long> getBalances(Workload workload)
+    {
+        workload.advance();
+
+        return userService.getBalances(workload.userId());
+    }
+
+    @Benchmark
+    public BalanceUpdate credit(Workload workload)
+    {
+        workload.advance();
+
+        return userService.credit(workload.userId(), CurrencyRegistry.resolve(workload.currency()), 1234);
+    }
+
+    @Benchmark
+    public BalanceUpdate debit(Workload workload)
+    {
+        workload.advance();
+
+        return userService.debit(workload.userId(), CurrencyRegistry.resolve(workload.currency()), 1234);
+    }
+}
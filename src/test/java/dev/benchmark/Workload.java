@@ -0,0 +1,76 @@
+package dev.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * One benchmark thread's stream of requests over a {@link Population}.
+ *
+ * The users and currencies are drawn up front into a ring, so the benchmark
+ * doesn't also measure the random number generator and the CDF search, and
+ * each thread gets its own stream (and message ids) so threads don't share
+ * anything the code under test wouldn't share.
+ */
+@State(Scope.Thread)
+public class Workload {
+
+    private static final int RING = 1 << 16;
+
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private final int[] users = new int[RING];
+    private final int[] currencies = new int[RING];
+
+    private Population population;
+    private String messagePrefix;
+    private long messages;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(Population population)
+    {
+        int thread = threads.incrementAndGet();
+        SplittableRandom random = new SplittableRandom(thread);
+
+        for (int i = 0; i < RING; i++)
+        {
+            users[i] = population.nextUser(random);
+            currencies[i] = population.nextCurrency(random);
+        }
+
+        this.population = population;
+        this.messagePrefix = "t" + thread + "-";
+    }
+
+    // Moves on to the next request of the stream.
+    void advance()
+    {
+        next = (next + 1) & (RING - 1);
+    }
+
+    String userId()
+    {
+        return population.userIds[users[next]];
+    }
+
+    String currency()
+    {
+        return population.currencies[currencies[next]];
+    }
+
+    String amount()
+    {
+        return population.amounts[currencies[next]];
+    }
+
+    // A message id no other request has used.
+    String messageId()
+    {
+        return messagePrefix + messages++;
+    }
+}
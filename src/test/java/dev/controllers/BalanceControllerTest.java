@@ -0,0 +1,119 @@
+package dev.controllers;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import dev.schemas.Amount;
+import dev.schemas.BalancesResponse;
+import dev.schemas.DebitCredit;
+import dev.service.BalanceHistoryService;
+import dev.service.BalanceQueryService;
+
+/*
+ * Tests the routing of the /balances endpoints, with the service mocked out.
+ */
+
+@WebMvcTest(BalanceController.class)
+public class BalanceControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private BalanceQueryService balanceQueryService;
+
+    @MockBean
+    private BalanceHistoryService balanceHistoryService;
+
+    @Test
+    void returnsBalances() throws Exception {
+
+        when(balanceQueryService.getBalances("a", null)).thenReturn(new BalancesResponse("a",
+            List.of(new Amount("10.00", "EUR", DebitCredit.CREDIT), new Amount("2.50", "USD", DebitCredit.CREDIT))));
+
+        mockMvc.perform(get("/balances/a"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.userId").value("a"))
+        .andExpect(jsonPath("$.balances[0].currency").value("EUR"))
+        .andExpect(jsonPath("$.balances[1].amount").value("2.50"));
+    }
+
+    @Test
+    void passesCurrencyFilter() throws Exception {
+
+        when(balanceQueryService.getBalances("a", "JPY")).thenReturn(new BalancesResponse("a",
+            List.of(new Amount("0", "JPY", DebitCredit.CREDIT))));
+
+        mockMvc.perform(get("/balances/a").param("currency", "JPY"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.balances[0].currency").value("JPY"))
+        .andExpect(jsonPath("$.balances[0].amount").value("0"));
+    }
+
+    @Test
+    void streamsLookup() throws Exception {
+
+        when(balanceQueryService.lookup(List.of("a", "b"), null)).thenReturn(Stream.of(
+            new BalancesResponse("a", List.of(new Amount("1.00", "USD", DebitCredit.CREDIT))),
+            new BalancesResponse("b", List.of())));
+
+        MvcResult result = mockMvc.perform(post("/balances/lookup")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("[\"a\", \"b\"]"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(2))
+        .andExpect(jsonPath("$[0].balances[0].amount").value("1.00"))
+        .andExpect(jsonPath("$[1].userId").value("b"));
+    }
+
+    @Test
+    void rejectsTooLargeLookup() throws Exception {
+
+        when(balanceQueryService.lookup(any(), any())).thenThrow(new IllegalArgumentException("At most 1 users can be looked up at once"));
+
+        MvcResult result = mockMvc.perform(post("/balances/lookup")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content("[\"a\", \"b\"]"))
+        .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message").value("At most 1 users can be looked up at once"));
+    }
+
+    @Test
+    void returnsBalancesAsOf() throws Exception {
+
+        when(balanceHistoryService.balancesAsOf("a", Instant.parse("2024-03-01T00:00:00Z"))).thenReturn(new BalancesResponse("a",
+            List.of(new Amount("7.00", "USD", DebitCredit.CREDIT))));
+
+        mockMvc.perform(get("/users/a/balances").param("asOf", "2024-03-01T00:00:00Z"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.balances[0].amount").value("7.00"));
+
+        mockMvc.perform(get("/users/a/balances").param("asOf", "yesterday"))
+        .andExpect(status().isBadRequest());
+    }
+}
@@ -1,5 +1,9 @@
 package dev.controllers;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
@@ -9,9 +13,14 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import static org.hamcrest.Matchers.startsWith;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -25,6 +34,7 @@ import dev.schemas.LoadResponse;
 import dev.schemas.ResponseCode;
 import dev.schemas.ServerError;
 import dev.service.BankLedgerService;
+import dev.service.ingest.StreamIngestor;
 
 /*
  * This test suite focuses on evaluating and ensuring the reliability and
@@ -32,7 +42,7 @@ import dev.service.BankLedgerService;
  * and dealing with the/load and /authorization endpoints of the service. 
  */
 
-@WebMvcTest(BankLedgerController.class)
+@WebMvcTest(controllers = BankLedgerController.class, properties = "ledger.batch.max-items=2")
 public class BankLedgerControllerTest {
 
     @Autowired
@@ -44,6 +54,9 @@ public class BankLedgerControllerTest {
     @MockBean
     private BankLedgerService bankLedgerService;
 
+    @MockBean
+    private StreamIngestor streamIngestor;
+
     /*
      * Tests that essentially verify that input validation to endpoints works. Check
      * title of test to see which aspect of input each test is verifying.
@@ -135,6 +148,22 @@ public class BankLedgerControllerTest {
         .andExpect(status().isBadRequest());
     }
 
+    /*
+     * Currency codes that aren't ISO-4217 are rejected before they reach the
+     * service, where every loaded code is registered for good.
+     */
+    @Test
+    void currencyIsNotIso() throws Exception {
+        String input = "{\"messageId\": \"12\", \"userId\": \"abcd\", \"transactionAmount\": { \"amount\": \"500\", \"currency\": \"usd-1\", \"debitOrCredit\": \"CREDIT\"}}";
+
+        this.mockMvc.perform(put("/load")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(input))
+        .andExpect(status().isBadRequest());
+
+        verify(bankLedgerService, never()).load(any());
+    }
+
     @Test
     void debitOrCreditIsEmpty() throws Exception {
         String input = "{\"messageId\": 12, \"userId\": \"abcd\", \"transactionAmount\": { \"amount\": \"500\", \"currency\": \"USD\"}, \"debitOrCredit\": \"\"}}";
@@ -194,7 +223,8 @@ public class BankLedgerControllerTest {
         .content(objectMapper.writeValueAsString(request)))
         .andDo(print())
         .andExpect(status().isBadRequest())
-        .andExpect(jsonPath("$.message").value("Test error message"));
+        .andExpect(jsonPath("$.message").value("Test error message"))
+        .andExpect(jsonPath("$.error").doesNotExist());
 
     }
 
@@ -306,4 +336,95 @@ public class BankLedgerControllerTest {
         .andExpect(jsonPath("$.balance.currency").value(data.getCurrency()))
         .andExpect(jsonPath("$.balance.debitOrCredit").value("DEBIT"));
     }
+
+    /*
+     * The batch endpoint answers with one result per request, in order, and
+     * an error item doesn't stop the items around it.
+     */
+
+    @Test
+    void batchLoadReturnsResultsInOrder() throws Exception {
+
+        LoadResponse ok = new LoadResponse("a", "m1", new Amount("500", "USD", DebitCredit.CREDIT));
+        ServerError error = new ServerError("Test error message");
+
+        when(bankLedgerService.loadBatch(any())).thenReturn(List.of(ok, error));
+
+        List<LoadRequest> requests = List.of(
+            new LoadRequest("a", "m1", new Amount("500", "USD", DebitCredit.CREDIT)),
+            new LoadRequest("a", "m2", new Amount("x", "USD", DebitCredit.CREDIT)));
+
+        mockMvc.perform(put("/batch/load")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(requests)))
+        .andDo(print())
+        .andExpect(status().isCreated())
+        .andExpect(jsonPath("$[0].messageId").value("m1"))
+        .andExpect(jsonPath("$[0].balance.amount").value("500"))
+        .andExpect(jsonPath("$[1].message").value("Test error message"));
+    }
+
+    /*
+     * A malformed item is caught by validation before anything is applied.
+     */
+
+    @Test
+    void batchAuthorizationValidatesItems() throws Exception {
+        String input = "[{\"messageId\": \"m1\", \"userId\": \"a\", \"transactionAmount\": { \"amount\": \"500\", \"currency\": \"USD\", \"debitOrCredit\": \"DEBIT\"}},"
+            + " {\"messageId\": \"m2\", \"userId\": \"\", \"transactionAmount\": { \"amount\": \"500\", \"currency\": \"USD\", \"debitOrCredit\": \"DEBIT\"}}]";
+
+        mockMvc.perform(put("/batch/authorization")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(input))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message").value(startsWith("[1] userId")));
+
+        verify(bankLedgerService, never()).authorizeBatch(any());
+    }
+
+    /*
+     * A batch with more items than allowed is rejected before anything is
+     * applied.
+     */
+
+    @Test
+    void batchLoadOverLimitIsRejected() throws Exception {
+
+        List<LoadRequest> requests = List.of(
+            new LoadRequest("a", "m1", new Amount("1", "USD", DebitCredit.CREDIT)),
+            new LoadRequest("a", "m2", new Amount("1", "USD", DebitCredit.CREDIT)),
+            new LoadRequest("a", "m3", new Amount("1", "USD", DebitCredit.CREDIT)));
+
+        mockMvc.perform(put("/batch/load")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(requests)))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message").value("At most 2 requests can be sent in one batch"));
+
+        verify(bankLedgerService, never()).loadBatch(any());
+    }
+
+    /*
+     * The streaming endpoint hands the body to the ingestor and streams its
+     * output back as NDJSON.
+     */
+
+    @Test
+    void ingestStreamsResults() throws Exception {
+
+        doAnswer(invocation -> {
+            InputStream in = invocation.getArgument(0);
+            OutputStream out = invocation.getArgument(1);
+            out.write(in.readAllBytes());
+            return 1L;
+        }).when(streamIngestor).ingest(any(), any());
+
+        mockMvc.perform(put("/ingest")
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .content("{\"message\": \"x\"}\n"))
+        .andExpect(status().isCreated())
+        .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+        .andExpect(content().string("{\"message\": \"x\"}\n"));
+    }
+
 }
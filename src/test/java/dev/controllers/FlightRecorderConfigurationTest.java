@@ -0,0 +1,101 @@
+package dev.controllers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/*
+ * Records a load, a rejected load and a balance query with Java Flight
+ * Recorder and checks that every stage of them shows up as an event, with
+ * the user's id hash and the outcome of the stage.
+ */
+@SpringBootTest(
+    properties = {
+        "spring.datasource.url=jdbc:h2:mem:flightrecorderdb",
+        "spring.datasource.driverClassName=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=password",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=update"
+    }
+)
+@AutoConfigureMockMvc
+public class FlightRecorderConfigurationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsEveryStage() throws Exception
+    {
+        String load = "{\"userId\": \"jfr\", \"messageId\": \"" + UUID.randomUUID()
+            + "\", \"transactionAmount\": {\"amount\": \"5\", \"currency\": \"USD\", \"debitOrCredit\": \"CREDIT\"}}";
+        String invalid = "{\"userId\": \"jfr\", \"messageId\": \"\""
+            + ", \"transactionAmount\": {\"amount\": \"5\", \"currency\": \"USD\", \"debitOrCredit\": \"CREDIT\"}}";
+
+        Path file = directory.resolve("ledger.jfr");
+
+        try (Recording recording = new Recording())
+        {
+            for (String stage : List.of("Deserialization", "Validation", "BalanceLookup", "BalanceMutation",
+                "EventPersistence", "ResponseSerialization"))
+            {
+                recording.enable("dev.ledger." + stage);
+            }
+
+            recording.start();
+
+            mockMvc.perform(put("/load").contentType(MediaType.APPLICATION_JSON).content(load))
+                .andExpect(status().isCreated());
+            mockMvc.perform(put("/load").contentType(MediaType.APPLICATION_JSON).content(invalid))
+                .andExpect(status().isBadRequest());
+            mockMvc.perform(get("/balances/jfr")).andExpect(status().isOk());
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        // The outcomes of each stage for the user, in the order they were recorded.
+        Map<String, List<String>> outcomes = new HashMap<>();
+
+        for (RecordedEvent event : RecordingFile.readAllEvents(file))
+        {
+            if (event.getInt("userIdHash") == "jfr".hashCode())
+            {
+                outcomes.computeIfAbsent(event.getEventType().getName(), name -> new ArrayList<>())
+                    .add(event.getString("outcome"));
+            }
+        }
+
+        assertEquals(List.of("ok", "ok"), outcomes.get("dev.ledger.Deserialization"));
+        assertEquals(List.of("valid", "invalid"), outcomes.get("dev.ledger.Validation"));
+        assertEquals(List.of("applied"), outcomes.get("dev.ledger.BalanceMutation"));
+        assertEquals(List.of("durable"), outcomes.get("dev.ledger.EventPersistence"));
+        assertEquals(List.of("approved"), outcomes.get("dev.ledger.ResponseSerialization"));
+        assertTrue(outcomes.get("dev.ledger.BalanceLookup").contains("ok"));
+    }
+}
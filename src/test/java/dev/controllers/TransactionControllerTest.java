@@ -0,0 +1,87 @@
+package dev.controllers;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.EnumSet;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import dev.domain.TransactionStatus;
+import dev.schemas.Amount;
+import dev.schemas.DebitCredit;
+import dev.schemas.Transaction;
+import dev.service.TransactionHistoryService;
+
+/*
+ * Tests the routing of the /users/{userId}/transactions endpoint, with the
+ * service mocked out.
+ */
+
+@WebMvcTest(TransactionController.class)
+public class TransactionControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private TransactionHistoryService transactionHistoryService;
+
+    @Test
+    void streamsPageWithNextCursor() throws Exception {
+
+        TransactionHistoryService.Page page = mock(TransactionHistoryService.Page.class);
+
+        when(transactionHistoryService.page("a", "MQ", 2, EnumSet.of(TransactionStatus.LOAD_SUCCESS, TransactionStatus.AUTH_FAIL), "USD"))
+            .thenReturn(page);
+        when(page.forEach(any())).thenAnswer(invocation -> {
+            Consumer<Transaction> consumer = invocation.getArgument(0);
+            consumer.accept(new Transaction("m2", TransactionStatus.LOAD_SUCCESS, new Amount("5.00", "USD", DebitCredit.CREDIT), "2024-01-01T00:00:00Z"));
+            consumer.accept(new Transaction("m3", TransactionStatus.AUTH_FAIL, new Amount("9.00", "USD", DebitCredit.DEBIT), "2024-01-01T00:00:01Z"));
+            return "Mw";
+        });
+
+        MvcResult result = mockMvc.perform(get("/users/a/transactions")
+        .param("status", "LOAD_SUCCESS", "AUTH_FAIL")
+        .param("currency", "USD")
+        .param("cursor", "MQ")
+        .param("limit", "2"))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.userId").value("a"))
+        .andExpect(jsonPath("$.transactions.length()").value(2))
+        .andExpect(jsonPath("$.transactions[0].messageId").value("m2"))
+        .andExpect(jsonPath("$.transactions[1].transactionAmount.debitOrCredit").value("DEBIT"))
+        .andExpect(jsonPath("$.nextCursor").value("Mw"));
+    }
+
+    @Test
+    void rejectsInvalidCursor() throws Exception {
+
+        when(transactionHistoryService.page(eq("a"), eq("bad"), any(), any(), any()))
+            .thenThrow(new IllegalArgumentException("Invalid cursor"));
+
+        MvcResult result = mockMvc.perform(get("/users/a/transactions").param("cursor", "bad"))
+        .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message").value("Invalid cursor"));
+    }
+}
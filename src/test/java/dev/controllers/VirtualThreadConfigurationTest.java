@@ -0,0 +1,33 @@
+package dev.controllers;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Tests for {@link VirtualThreadConfiguration}. Which branch runs depends on
+ * the JVM the tests run on: Java 21 and later get virtual threads, older
+ * runtimes must leave Tomcat's own pool in place rather than fail to start.
+ */
+public class VirtualThreadConfigurationTest {
+
+    @Test
+    void customizerInstallsVirtualThreadsWhereSupported()
+    {
+        Http11NioProtocol handler = new Http11NioProtocol();
+
+        new VirtualThreadConfiguration().virtualThreadProtocolHandlerCustomizer().customize(handler);
+
+        if (Runtime.version().feature() >= 21)
+        {
+            assertTrue(handler.getExecutor() instanceof VirtualThreadExecutor);
+        }
+        else
+        {
+            assertNull(handler.getExecutor());
+        }
+    }
+}
@@ -3,21 +3,33 @@ package dev.repository;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import dev.domain.TransactionEvent;
 import dev.domain.TransactionStatus;
 import dev.schemas.DebitCredit;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
 
 /*
  * This test suite focuses on integration and functionality with the 
@@ -36,7 +48,8 @@ import dev.schemas.DebitCredit;
         "spring.datasource.username=sa",
         "spring.datasource.password=password",
         "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
-        "spring.jpa.hibernate.ddl-auto=update"
+        "spring.jpa.hibernate.ddl-auto=update",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
     }
 )
 public class TransactionEventRepositoryTest {
@@ -44,6 +57,15 @@ public class TransactionEventRepositoryTest {
     @Autowired
     private TransactionEventRepository transactionEventRepository;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private TransactionEvent transactionEvent;
 
     /*
@@ -139,4 +161,191 @@ public class TransactionEventRepositoryTest {
         }
     }
 
+    /*
+     * A new event is written with a single INSERT. Before events reported
+     * themselves as new, saving one merged it, costing a SELECT first.
+     */
+
+    @Test
+    void saveNewEventIssuesOnlyInsert()
+    {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        transactionEventRepository.saveAndFlush(new TransactionEvent("a", "d", TransactionStatus.LOAD_SUCCESS,
+        DebitCredit.CREDIT, "USD", "10", Instant.now().toString()));
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getEntityInsertCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    /*
+     * The JDBC batch append path writes events that read back like any other.
+     */
+
+    @Test
+    void insertAllAppendsEvents()
+    {
+        TransactionEvent first = new TransactionEvent("e", "e1", TransactionStatus.LOAD_SUCCESS,
+        DebitCredit.CREDIT, "USD", "10.50", Instant.now().toString());
+        TransactionEvent second = new TransactionEvent("e", "e2", TransactionStatus.AUTH_FAIL,
+        DebitCredit.DEBIT, "EUR", "3", Instant.now().toString());
+
+        transactionEventRepository.insertAll(List.of(first, second));
+        entityManager.clear();
+
+        TransactionEvent loaded = transactionEventRepository.findById("e2").orElse(null);
+
+        assertNotNull(loaded);
+        assertEquals(second.getUserId(), loaded.getUserId());
+        assertEquals(second.getTransactionStatus(), loaded.getTransactionStatus());
+        assertEquals(second.getDebitOrCredit(), loaded.getDebitOrCredit());
+        assertEquals(second.getCurrency(), loaded.getCurrency());
+        assertEquals(0, second.getAmount().compareTo(loaded.getAmount()));
+        assertEquals(second.getTimeOfEvent(), loaded.getTimeOfEvent());
+        assertEquals(2, transactionEventRepository.findByUserId("e").size());
+
+        // Enums are stored as their codes, which both write paths agree on.
+        assertEquals(Integer.valueOf(TransactionStatus.AUTH_FAIL.getCode()),
+        jdbcTemplate.queryForObject("select transaction_status from ledger_event where message_id = 'e2'", Integer.class));
+        assertEquals(Integer.valueOf(DebitCredit.DEBIT.getCode()),
+        jdbcTemplate.queryForObject("select debit_or_credit from ledger_event where message_id = 'e2'", Integer.class));
+    }
+
+    /*
+     * Appending never overwrites, a message id that already exists is rejected.
+     */
+
+    @Test
+    void insertAllRejectsExistingMessageId()
+    {
+        TransactionEvent duplicate = new TransactionEvent("a", transactionEvent.getMessageId(), TransactionStatus.LOAD_SUCCESS,
+        DebitCredit.CREDIT, "USD", "1", Instant.now().toString());
+
+        assertThrows(DataIntegrityViolationException.class, () -> transactionEventRepository.insertAll(List.of(duplicate)));
+    }
+
+    /*
+     * Streaming after a sequence number hands back only the later events, in
+     * sequence order.
+     */
+
+    @Test
+    void streamAfterReadsLaterEventsInSequenceOrder()
+    {
+        long last = transactionEventRepository.maxSequenceNumber();
+
+        TransactionEvent first = new TransactionEvent("s", "s1", TransactionStatus.LOAD_SUCCESS, DebitCredit.CREDIT, "USD", "1", Instant.now().toString());
+        TransactionEvent second = new TransactionEvent("s", "s2", TransactionStatus.AUTH_SUCCESS, DebitCredit.DEBIT, "USD", "1", Instant.now().toString());
+        first.setSequenceNumber(last + 2);
+        second.setSequenceNumber(last + 1);
+
+        transactionEventRepository.insertAll(List.of(first, second));
+
+        List<String> messageIds = new ArrayList<>();
+        transactionEventRepository.streamAfter(last, event -> messageIds.add(event.getMessageId()));
+
+        assertEquals(List.of("s2", "s1"), messageIds);
+        assertEquals(last + 2, transactionEventRepository.maxSequenceNumber());
+    }
+
+    /*
+     * A user's history is read in event time order from after the given
+     * event, filtered and cut at the limit in the query itself.
+     */
+
+    @Test
+    void streamByUserAppliesKeysetFilterAndLimit()
+    {
+        long last = transactionEventRepository.maxSequenceNumber();
+        List<TransactionEvent> events = new ArrayList<>();
+
+        // k6 happened between k1 and k2.
+        for (int i = 1; i <= 6; i++)
+        {
+            TransactionEvent event = new TransactionEvent(i == 3 ? "other" : "k", "k" + i,
+            i % 2 == 0 ? TransactionStatus.AUTH_FAIL : TransactionStatus.LOAD_SUCCESS, DebitCredit.CREDIT,
+            i == 5 ? "EUR" : "USD", BigDecimal.ONE, i == 6 ? 15L : i * 10L);
+            event.setSequenceNumber(last + i);
+            events.add(event);
+        }
+
+        transactionEventRepository.insertAll(events);
+
+        List<String> messageIds = new ArrayList<>();
+        transactionEventRepository.streamByUser("k", 10, last + 1, EventFilter.ALL, 10, event -> messageIds.add(event.getMessageId()));
+        assertEquals(List.of("k6", "k2", "k4", "k5"), messageIds);
+
+        messageIds.clear();
+        transactionEventRepository.streamByUser("k", Long.MIN_VALUE, 0, new EventFilter(Set.of(TransactionStatus.LOAD_SUCCESS, TransactionStatus.AUTH_FAIL), "USD"),
+        3, event -> messageIds.add(event.getMessageId()));
+        assertEquals(List.of("k1", "k6", "k2"), messageIds);
+
+        messageIds.clear();
+        transactionEventRepository.streamByUser("k", Long.MIN_VALUE, 0, new EventFilter(Set.of(TransactionStatus.LOAD_SUCCESS), null),
+        10, event -> messageIds.add(event.getMessageId()));
+        assertEquals(List.of("k1", "k5"), messageIds);
+    }
+
+    /*
+     * Events of the legacy layout, with text times, enum names and decimal
+     * amounts, are moved into the compact table and the legacy table is
+     * dropped. H2 commits around DDL, so this runs outside the test
+     * transaction and cleans up after itself.
+     */
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void migrateLegacyEventsConvertsRows()
+    {
+        jdbcTemplate.execute("create table transaction_event (message_id varchar(255) not null primary key, amount numeric(38,2), "
+            + "currency varchar(255), debit_or_credit varchar(255), time_of_event varchar(255), transaction_status varchar(255), user_id varchar(255))");
+        jdbcTemplate.update("insert into transaction_event values ('legacy1', 350, 'INR', 'DEBIT', '2024-05-08T09:05:23.879298Z', 'AUTH_SUCCESS', 'luka')");
+        jdbcTemplate.update("insert into transaction_event values ('legacy2', null, 'USD', 'CREDIT', 'not a time', 'LOAD_FAIL', 'luka')");
+
+        try
+        {
+            assertEquals(2, transactionEventRepository.migrateLegacyEvents());
+            assertEquals(0, transactionEventRepository.migrateLegacyEvents());
+
+            TransactionEvent first = transactionEventRepository.findById("legacy1").orElse(null);
+            TransactionEvent second = transactionEventRepository.findById("legacy2").orElse(null);
+
+            assertNotNull(first);
+            assertEquals("luka", first.getUserId());
+            assertEquals(TransactionStatus.AUTH_SUCCESS, first.getTransactionStatus());
+            assertEquals(DebitCredit.DEBIT, first.getDebitOrCredit());
+            assertEquals(0, new BigDecimal("350").compareTo(first.getAmount()));
+            assertEquals("2024-05-08T09:05:23.879298Z", first.getTimeOfEvent());
+            assertEquals(TransactionStatus.LOAD_FAIL, second.getTransactionStatus());
+            assertNull(second.getAmount());
+            assertEquals(0, second.getEventTime());
+        }
+        finally
+        {
+            jdbcTemplate.execute("drop table if exists transaction_event");
+            transactionEventRepository.deleteAllById(List.of("legacy1", "legacy2"));
+        }
+    }
+
+    /*
+     * Rows stored before events were numbered get numbers after the highest
+     * one already taken, in insertion order.
+     */
+
+    @Test
+    void backfillNumbersUnnumberedEvents()
+    {
+        TransactionEvent numbered = new TransactionEvent("b", "b1", TransactionStatus.LOAD_SUCCESS, DebitCredit.CREDIT, "USD", "1", Instant.now().toString());
+        numbered.setSequenceNumber(100L);
+
+        transactionEventRepository.insertAll(List.of(numbered));
+        int unnumbered = (int) transactionEventRepository.count() - 1;
+
+        assertEquals(unnumbered, transactionEventRepository.backfillSequenceNumbers());
+        assertEquals(100 + unnumbered, transactionEventRepository.maxSequenceNumber());
+        assertEquals(0, transactionEventRepository.backfillSequenceNumbers());
+    }
+
 }
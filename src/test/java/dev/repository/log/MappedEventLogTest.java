@@ -0,0 +1,237 @@
+package dev.repository.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.schemas.DebitCredit;
+
+/*
+ * This test suite checks appending, lookup and crash recovery of the
+ * memory-mapped event log against a temporary directory.
+ */
+public class MappedEventLogTest {
+
+    @TempDir
+    Path directory;
+
+    private MappedEventLog open(long segmentBytes) throws Exception
+    {
+        return new MappedEventLog(directory.toString(), DataSize.ofBytes(segmentBytes), FsyncPolicy.ALWAYS, Duration.ofSeconds(1));
+    }
+
+    private long sequence;
+
+    private TransactionEvent event(String userId, String messageId)
+    {
+        TransactionEvent event = new TransactionEvent(userId, messageId, TransactionStatus.LOAD_SUCCESS, DebitCredit.CREDIT,
+        "USD", new BigDecimal("12.50"), "2024-01-01T00:00:00Z");
+        event.setSequenceNumber(++sequence);
+
+        return event;
+    }
+
+    /*
+     * Events come back per user, in append order and with every field intact.
+     */
+
+    @Test
+    void appendAndFindByUserId() throws Exception
+    {
+        MappedEventLog log = open(4096);
+
+        TransactionEvent failed = new TransactionEvent("a", "m3", TransactionStatus.AUTH_FAIL, null, "EUR",
+        (BigDecimal) null, "2024-01-01T00:00:01Z");
+
+        log.append(List.of(event("a", "m1"), event("b", "m2")));
+        log.append(List.of(failed));
+
+        List<TransactionEvent> events = log.findByUserId("a");
+
+        assertEquals(2, events.size());
+        assertEquals("m1", events.get(0).getMessageId());
+        assertEquals(TransactionStatus.LOAD_SUCCESS, events.get(0).getTransactionStatus());
+        assertEquals(DebitCredit.CREDIT, events.get(0).getDebitOrCredit());
+        assertEquals("USD", events.get(0).getCurrency());
+        assertEquals(new BigDecimal("12.50"), events.get(0).getAmount());
+        assertEquals("2024-01-01T00:00:00Z", events.get(0).getTimeOfEvent());
+        assertEquals(Long.valueOf(1), events.get(0).getSequenceNumber());
+
+        assertEquals("m3", events.get(1).getMessageId());
+        assertEquals(TransactionStatus.AUTH_FAIL, events.get(1).getTransactionStatus());
+        assertNull(events.get(1).getDebitOrCredit());
+        assertNull(events.get(1).getAmount());
+
+        assertEquals(1, log.findByUserId("b").size());
+        assertTrue(log.findByUserId("nobody").isEmpty());
+
+        assertTrue(log.exists("a", "m3"));
+        assertTrue(log.exists("b", "m2"));
+        assertFalse(log.exists("a", "m4"));
+
+        List<String> messageIds = new ArrayList<>();
+        log.forEachMessageId(messageIds::add);
+
+        assertEquals(List.of("m1", "m2", "m3"), messageIds);
+    }
+
+    /*
+     * Batches that don't fit in the current segment start a new one, and
+     * reopening the log finds every event across segments again, in order,
+     * and can replay just the tail after a sequence number.
+     */
+
+    @Test
+    void rollsSegmentsAndRecovers() throws Exception
+    {
+        MappedEventLog log = open(512);
+
+        for (int i = 0; i < 50; i++)
+        {
+            log.append(List.of(event("u" + (i % 3), "m" + i)));
+        }
+        log.close();
+
+        assertTrue(Files.list(directory).count() > 1);
+
+        MappedEventLog reopened = open(512);
+
+        assertEquals(17, reopened.findByUserId("u0").size());
+        assertEquals(17, reopened.findByUserId("u1").size());
+        assertEquals(16, reopened.findByUserId("u2").size());
+        assertEquals("m49", reopened.findByUserId("u1").get(16).getMessageId());
+
+        reopened.append(List.of(event("u2", "m50")));
+        assertEquals(17, reopened.findByUserId("u2").size());
+
+        List<String> messageIds = new ArrayList<>();
+        reopened.forEachAfter(0, e -> messageIds.add(e.getMessageId()));
+
+        assertEquals(51, messageIds.size());
+        assertEquals("m0", messageIds.get(0));
+        assertEquals("m50", messageIds.get(50));
+        assertEquals(51, reopened.lastSequence());
+
+        List<String> tail = new ArrayList<>();
+        reopened.forEachAfter(47, e -> tail.add(e.getMessageId()));
+
+        assertEquals(List.of("m47", "m48", "m49", "m50"), tail);
+
+        // Message ids are found in whichever segment holds them, including after recovery.
+        assertTrue(reopened.exists("u0", "m0"));
+        assertTrue(reopened.exists("u1", "m49"));
+        assertTrue(reopened.exists("u2", "m50"));
+        assertFalse(reopened.exists("u0", "m51"));
+    }
+
+    /*
+     * Under the INTERVAL policy appends leave forcing to the flusher; the
+     * message id tables grow past their initial size and still find every
+     * record, and closing forces whatever the flusher hasn't yet.
+     */
+
+    @Test
+    void intervalPolicyKeepsEveryEvent() throws Exception
+    {
+        MappedEventLog log = new MappedEventLog(directory.toString(), DataSize.ofBytes(4096), FsyncPolicy.INTERVAL,
+        Duration.ofMillis(5));
+
+        for (int i = 0; i < 100; i++)
+        {
+            log.append(List.of(event("u" + (i % 2), "m" + i)));
+        }
+
+        log.flush();
+
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(log.exists("u" + (i % 2), "m" + i));
+        }
+        assertFalse(log.exists("u0", "m100"));
+
+        log.close();
+
+        MappedEventLog reopened = open(4096);
+
+        assertEquals(50, reopened.findByUserId("u0").size());
+        assertEquals(50, reopened.findByUserId("u1").size());
+        assertEquals(100, reopened.lastSequence());
+    }
+
+    /*
+     * A record whose bytes don't match its CRC, as left by a torn write, ends
+     * the log: it and everything after it are dropped and appends continue
+     * from there.
+     */
+
+    @Test
+    void recoveryTruncatesAtCorruptRecord() throws Exception
+    {
+        MappedEventLog log = open(4096);
+
+        log.append(List.of(event("a", "m1")));
+        log.append(List.of(event("a", "m2")));
+        log.append(List.of(event("a", "m3")));
+        log.close();
+
+        int recordBytes = 8 + EventRecordCodec.encode(event("a", "m1")).length;
+
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("0000000000.log").toFile(), "rw"))
+        {
+            // Flip a payload byte of the second record.
+            file.seek(recordBytes + 20);
+            int b = file.read();
+            file.seek(recordBytes + 20);
+            file.write(b ^ 0xFF);
+        }
+
+        MappedEventLog reopened = open(4096);
+        assertEquals(1, reopened.findByUserId("a").size());
+
+        reopened.append(List.of(event("a", "m4")));
+        reopened.close();
+
+        List<TransactionEvent> events = open(4096).findByUserId("a");
+        List<String> messageIds = new ArrayList<>();
+        events.forEach(e -> messageIds.add(e.getMessageId()));
+
+        assertEquals(List.of("m1", "m4"), messageIds);
+    }
+
+    /*
+     * A batch is rejected as a whole, before anything is written, if one of
+     * its events can't be stored. Amounts that don't fit in fixed point are
+     * already refused by the event itself.
+     */
+
+    @Test
+    void unstorableBatchWritesNothing() throws Exception
+    {
+        MappedEventLog log = open(4096);
+
+        assertThrows(ArithmeticException.class, () -> new TransactionEvent("a", "m2", TransactionStatus.LOAD_SUCCESS,
+        DebitCredit.CREDIT, "USD", new BigDecimal("1e30").add(BigDecimal.ONE), "2024-01-01T00:00:00Z"));
+
+        TransactionEvent tooLarge = event("a", "m2");
+        tooLarge.setCurrency("X".repeat(4096));
+
+        assertThrows(IllegalArgumentException.class, () -> log.append(List.of(event("a", "m1"), tooLarge)));
+        assertTrue(log.findByUserId("a").isEmpty());
+    }
+}
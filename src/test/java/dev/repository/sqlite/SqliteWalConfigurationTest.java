@@ -0,0 +1,152 @@
+package dev.repository.sqlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import org.sqlite.SQLiteConfig;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * This test suite checks the SQLite single-writer/multi-reader datasource
+ * against a database in a temporary directory.
+ */
+public class SqliteWalConfigurationTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private SqliteWalConfiguration configuration;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate writeTransaction;
+    private TransactionTemplate readTransaction;
+
+    @BeforeEach
+    void setUp()
+    {
+        configuration = new SqliteWalConfiguration();
+        DataSource dataSource = configuration.dataSource("jdbc:sqlite:" + directory.resolve("test.db"), 4,
+        SQLiteConfig.SynchronousMode.NORMAL, DataSize.ofMegabytes(8), DataSize.ofMegabytes(64), Duration.ofSeconds(5),
+        new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class));
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+
+        writeTransaction = new TransactionTemplate(transactionManager);
+        readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+
+        jdbcTemplate.execute("create table event (id integer primary key, payload varchar(64))");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        configuration.destroy();
+    }
+
+    /*
+     * The database runs in WAL mode with the configured pragmas.
+     */
+
+    @Test
+    void usesWalAndPragmas()
+    {
+        assertEquals("wal", jdbcTemplate.queryForObject("pragma journal_mode", String.class));
+        assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject("pragma synchronous", Integer.class));
+        assertEquals(Integer.valueOf(-8192), jdbcTemplate.queryForObject("pragma cache_size", Integer.class));
+    }
+
+    /*
+     * Read-only transactions run on reader connections, which can't write.
+     */
+
+    @Test
+    void readOnlyTransactionsUseReaders()
+    {
+        assertEquals(false, writeTransaction.execute(status -> jdbcTemplate.execute((ConnectionCallback<Boolean>) Connection::isReadOnly)));
+        assertEquals(true, readTransaction.execute(status -> jdbcTemplate.execute((ConnectionCallback<Boolean>) Connection::isReadOnly)));
+
+        assertThrows(DataAccessException.class, () -> readTransaction.executeWithoutResult(status ->
+        jdbcTemplate.update("insert into event (payload) values ('x')")));
+    }
+
+    /*
+     * Concurrent writers queue for the single writer connection and readers
+     * run alongside them, so nobody fails with a busy database.
+     */
+
+    @Test
+    void concurrentWritesAndReadsDontFail() throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++)
+        {
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 200; i++)
+                {
+                    writeTransaction.executeWithoutResult(status -> jdbcTemplate.update("insert into event (payload) values ('x')"));
+                }
+            }));
+
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 200; i++)
+                {
+                    readTransaction.execute(status -> jdbcTemplate.queryForObject("select count(*) from event", Long.class));
+                }
+            }));
+        }
+
+        for (Future<?> result : results)
+        {
+            result.get();
+        }
+
+        pool.shutdown();
+
+        assertEquals(Long.valueOf(800), jdbcTemplate.queryForObject("select count(*) from event", Long.class));
+    }
+
+    /*
+     * Both pools time how long callers wait for one of their connections.
+     */
+
+    @Test
+    void poolsRecordConnectionWaits()
+    {
+        writeTransaction.executeWithoutResult(status -> jdbcTemplate.update("insert into event (payload) values ('x')"));
+        readTransaction.execute(status -> jdbcTemplate.queryForObject("select count(*) from event", Long.class));
+
+        assertTrue(meterRegistry.get("hikaricp.connections.acquire").tag("pool", "sqlite-writer").timer().count() > 0);
+        assertTrue(meterRegistry.get("hikaricp.connections.acquire").tag("pool", "sqlite-reader").timer().count() > 0);
+    }
+}
@@ -0,0 +1,173 @@
+package dev.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import dev.domain.BalanceCheckpoint;
+import dev.domain.EventTime;
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.BalanceCheckpointRepository;
+import dev.repository.log.FsyncPolicy;
+import dev.repository.log.MappedEventLog;
+import dev.schemas.BalancesResponse;
+import dev.schemas.DebitCredit;
+
+/*
+ * Tests for the BalanceHistoryService over a memory-mapped event log in a
+ * temporary directory, with the checkpoints kept in a list behind a mocked
+ * repository.
+ */
+public class BalanceHistoryServiceTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    private final List<BalanceCheckpoint> checkpoints = new CopyOnWriteArrayList<>();
+    private final List<String> writers = new CopyOnWriteArrayList<>();
+    private final BalanceCheckpointRepository repository = mock(BalanceCheckpointRepository.class);
+
+    private MappedEventLog log;
+    private long sequence;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        log = new MappedEventLog(directory.toString(), DataSize.ofKilobytes(64), FsyncPolicy.NEVER, Duration.ofSeconds(1));
+
+        when(repository.findFirstByUserIdAndEventTimeLessThanEqualOrderByEventTimeDescSequenceNumberDesc(anyString(), anyLong()))
+            .thenAnswer(call -> checkpoints.stream()
+                .filter(row -> row.getUserId().equals(call.getArgument(0)) && row.getEventTime() <= (long) call.getArgument(1))
+                .max(Comparator.comparingLong(BalanceCheckpoint::getEventTime).thenComparingLong(BalanceCheckpoint::getSequenceNumber)));
+
+        when(repository.findByUserIdAndEventTimeAndSequenceNumber(anyString(), anyLong(), anyLong()))
+            .thenAnswer(call -> checkpoints.stream()
+                .filter(row -> row.getUserId().equals(call.getArgument(0)) && row.getEventTime() == (long) call.getArgument(1)
+                    && row.getSequenceNumber() == (long) call.getArgument(2))
+                .collect(Collectors.toList()));
+
+        when(repository.saveAll(any())).thenAnswer(call -> {
+            writers.add(Thread.currentThread().getName());
+            call.<Iterable<BalanceCheckpoint>>getArgument(0).forEach(checkpoints::add);
+            return List.of();
+        });
+    }
+
+    private TransactionEvent event(String userId, TransactionStatus status, String currency, String amount, int minute)
+    {
+        TransactionEvent event = new TransactionEvent(userId, "m" + (sequence + 1), status, DebitCredit.CREDIT,
+        currency, new BigDecimal(amount), EventTime.of(START.plusSeconds(60L * minute)));
+        event.setSequenceNumber(++sequence);
+
+        return event;
+    }
+
+    private static List<String> amounts(BalancesResponse response)
+    {
+        return response.getBalances().stream()
+            .map(balance -> balance.getCurrency() + " " + balance.getAmount())
+            .collect(Collectors.toList());
+    }
+
+    /*
+     * Only the successful events up to the requested time count, and a debit
+     * the balance couldn't cover is left out, as the balance rebuild leaves
+     * it out.
+     */
+
+    @Test
+    void reconstructsBalancesAtTime() throws Exception
+    {
+        BalanceHistoryService service = new BalanceHistoryService(log, repository, 1000);
+
+        log.append(List.of(event("a", TransactionStatus.LOAD_SUCCESS, "USD", "10.00", 1),
+            event("a", TransactionStatus.AUTH_SUCCESS, "EUR", "1.00", 2),
+            event("other", TransactionStatus.LOAD_SUCCESS, "USD", "99.00", 3),
+            event("a", TransactionStatus.AUTH_SUCCESS, "USD", "2.50", 4),
+            event("a", TransactionStatus.AUTH_FAIL, "USD", "100.00", 5),
+            event("a", TransactionStatus.LOAD_SUCCESS, "JPY", "500", 6)));
+
+        assertTrue(service.balancesAsOf("a", START).getBalances().isEmpty());
+        assertEquals(List.of("USD 10.00"), amounts(service.balancesAsOf("a", START.plusSeconds(60))));
+        assertEquals(List.of("USD 7.50"), amounts(service.balancesAsOf("a", START.plusSeconds(299))));
+        assertEquals(List.of("JPY 500", "USD 7.50"), amounts(service.balancesAsOf("a", START.plusSeconds(3600))));
+        assertTrue(checkpoints.isEmpty());
+    }
+
+    /*
+     * A long fold leaves a checkpoint every interval balance changes, written
+     * by the background writer rather than the query, and later queries start
+     * from the nearest one rather than from the first event, which shows in a
+     * balance taken from a doctored checkpoint.
+     */
+
+    @Test
+    void writesAndStartsFromCheckpoints() throws Exception
+    {
+        BalanceHistoryService service = new BalanceHistoryService(log, repository, 2);
+
+        for (int minute = 1; minute <= 5; minute++)
+        {
+            log.append(List.of(event("c", TransactionStatus.LOAD_SUCCESS, "USD", "1.00", minute)));
+        }
+
+        assertEquals(List.of("USD 5.00"), amounts(service.balancesAsOf("c", START.plusSeconds(3600))));
+
+        verify(repository, timeout(5000)).saveAll(any());
+        assertEquals(List.of("balance-checkpoint-writer"), writers);
+        assertEquals(List.of(2L, 4L), checkpoints.stream().map(BalanceCheckpoint::getSequenceNumber).collect(Collectors.toList()));
+        assertEquals(400, checkpoints.get(1).getBalance());
+
+        checkpoints.set(1, new BalanceCheckpoint("c", checkpoints.get(1).getEventTime(), 4, "USD", 1000));
+
+        assertEquals(List.of("USD 3.00"), amounts(service.balancesAsOf("c", START.plusSeconds(180))));
+        assertEquals(List.of("USD 11.00"), amounts(service.balancesAsOf("c", START.plusSeconds(3600))));
+    }
+
+    /*
+     * A fold that had to leave out an event takes no checkpoint after it,
+     * so the balances it got wrong aren't made permanent.
+     */
+
+    @Test
+    void noCheckpointPastSkippedEvent() throws Exception
+    {
+        BalanceHistoryService service = new BalanceHistoryService(log, repository, 2);
+
+        log.append(List.of(event("d", TransactionStatus.LOAD_SUCCESS, "USD", "1.00", 1),
+            event("d", TransactionStatus.LOAD_SUCCESS, "USD", "1.00", 2),
+            event("d", TransactionStatus.AUTH_SUCCESS, "USD", "5.00", 3),
+            event("d", TransactionStatus.LOAD_SUCCESS, "USD", "1.00", 4),
+            event("d", TransactionStatus.LOAD_SUCCESS, "USD", "1.00", 5)));
+
+        assertEquals(List.of("USD 4.00"), amounts(service.balancesAsOf("d", START.plusSeconds(3600))));
+
+        verify(repository, timeout(5000)).saveAll(any());
+        service.close();
+
+        assertEquals(List.of(2L), checkpoints.stream().map(BalanceCheckpoint::getSequenceNumber).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,85 @@
+package dev.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import dev.schemas.BalancesResponse;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.LockingBalanceStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * Tests for the BalanceQueryService over a real in-memory balance store.
+ */
+public class BalanceQueryServiceTest {
+
+    private final UserService userService = new UserService(new LockingBalanceStore(16));
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BalanceQueryService service = new BalanceQueryService(userService, meterRegistry, 3);
+
+    /*
+     * All of a user's balances come back formatted in their currency and
+     * ordered by currency, and every query is timed.
+     */
+
+    @Test
+    void returnsAllBalancesInCurrencyOrder()
+    {
+        userService.credit("q", CurrencyRegistry.resolve("USD"), 1050);
+        userService.credit("q", CurrencyRegistry.resolve("JPY"), 700);
+        userService.credit("q", CurrencyRegistry.resolve("EUR"), 5);
+
+        BalancesResponse response = service.getBalances("q", null);
+
+        assertEquals("q", response.getUserId());
+        assertEquals(3, response.getBalances().size());
+        assertEquals("EUR", response.getBalances().get(0).getCurrency());
+        assertEquals("0.05", response.getBalances().get(0).getAmount());
+        assertEquals("700", response.getBalances().get(1).getAmount());
+        assertEquals("10.50", response.getBalances().get(2).getAmount());
+        assertEquals(1, meterRegistry.get("ledger.balance.query").timer().count());
+    }
+
+    /*
+     * A currency the user doesn't hold is a zero balance, and asking about it
+     * doesn't register it.
+     */
+
+    @Test
+    void filtersByCurrency()
+    {
+        userService.credit("f", CurrencyRegistry.resolve("USD"), 100);
+
+        assertEquals("1.00", service.getBalances("f", "USD").getBalances().get(0).getAmount());
+        assertEquals("0.000", service.getBalances("f", "BHD").getBalances().get(0).getAmount());
+        assertEquals(-1, CurrencyRegistry.lookup("BHD"));
+        assertTrue(service.getBalances("nobody", null).getBalances().isEmpty());
+    }
+
+    /*
+     * A lookup answers every user in the order asked, unknown users included,
+     * and refuses more users than the limit.
+     */
+
+    @Test
+    void looksUpSeveralUsers()
+    {
+        userService.credit("l1", CurrencyRegistry.resolve("USD"), 100);
+        userService.credit("l2", CurrencyRegistry.resolve("USD"), 200);
+
+        List<BalancesResponse> responses = service.lookup(List.of("l2", "nobody", "l1"), null).collect(Collectors.toList());
+
+        assertEquals(List.of("l2", "nobody", "l1"), responses.stream().map(BalancesResponse::getUserId).collect(Collectors.toList()));
+        assertEquals("2.00", responses.get(0).getBalances().get(0).getAmount());
+        assertTrue(responses.get(1).getBalances().isEmpty());
+        assertEquals("1.00", responses.get(2).getBalances().get(0).getAmount());
+
+        assertThrows(IllegalArgumentException.class, () -> service.lookup(List.of("a", "b", "c", "d"), null));
+    }
+}
@@ -0,0 +1,303 @@
+package dev.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.EventFilter;
+import dev.repository.EventStore;
+import dev.schemas.Amount;
+import dev.schemas.AuthorizationRequest;
+import dev.schemas.DebitCredit;
+import dev.schemas.LoadRequest;
+import dev.schemas.Result;
+import dev.service.balance.LockingBalanceStore;
+import dev.service.idempotency.IdempotencyIndex;
+import dev.service.journal.DurabilityMode;
+import dev.service.journal.EventJournal;
+import dev.service.snapshot.BalanceSnapshotStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * This test suite checks that the startup rebuild folds stored events back
+ * into the same balances the requests produced.
+ */
+public class BalanceRebuilderTest {
+
+    private final List<TransactionEvent> stored = Collections.synchronizedList(new ArrayList<>());
+
+    // Thrown by the store once it has streamed the stored events, if set.
+    private RuntimeException readFailure;
+
+    private final EventStore eventStore = new EventStore() {
+
+        @Override
+        public void append(List<TransactionEvent> events)
+        {
+            stored.addAll(events);
+        }
+
+        @Override
+        public List<TransactionEvent> findByUserId(String userId)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEachByUser(String userId, long afterTime, long afterSequence, EventFilter filter, int limit, Consumer<TransactionEvent> consumer)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEachAfter(long afterSequence, Consumer<TransactionEvent> consumer)
+        {
+            stored.stream().filter(e -> e.getSequenceNumber() > afterSequence).forEach(consumer);
+
+            if (readFailure != null)
+            {
+                throw readFailure;
+            }
+        }
+
+        @Override
+        public boolean exists(String userId, String messageId)
+        {
+            synchronized (stored)
+            {
+                return stored.stream().anyMatch(e -> e.getMessageId().equals(messageId));
+            }
+        }
+
+        @Override
+        public void forEachMessageId(Consumer<String> consumer)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long lastSequence()
+        {
+            return stored.size();
+        }
+
+        @Override
+        public long lastEventTime()
+        {
+            return stored.stream().mapToLong(TransactionEvent::getEventTime).max().orElse(0);
+        }
+    };
+
+    @TempDir
+    Path snapshotDirectory;
+
+    private final UserService userService = new UserService(new LockingBalanceStore(16));
+
+    private BalanceRebuilder rebuilder(boolean enabled, int threads)
+    {
+        return new BalanceRebuilder(eventStore, new BalanceSnapshotStore(snapshotDirectory.toString(), 2), userService, enabled, threads);
+    }
+
+    private void store(String userId, TransactionStatus status, String currency, String amount)
+    {
+        DebitCredit debitOrCredit = status.name().startsWith("LOAD") ? DebitCredit.CREDIT : DebitCredit.DEBIT;
+
+        TransactionEvent event = new TransactionEvent(userId, "m" + stored.size(), status, debitOrCredit, currency,
+        amount == null ? null : new BigDecimal(amount), "2024-01-01T00:00:00Z");
+        event.setSequenceNumber((long) stored.size() + 1);
+
+        stored.add(event);
+    }
+
+    /*
+     * Successful loads and authorizations move balances, failed ones don't,
+     * and every currency keeps its own precision.
+     */
+
+    @Test
+    void rebuildsBalances()
+    {
+        store("a", TransactionStatus.LOAD_SUCCESS, "USD", "100.00");
+        store("a", TransactionStatus.AUTH_SUCCESS, "USD", "30.25");
+        store("a", TransactionStatus.AUTH_FAIL, "USD", "500.00");
+        store("a", TransactionStatus.LOAD_FAIL, "USD", null);
+        store("a", TransactionStatus.LOAD_SUCCESS, "JPY", "500.00");
+        store("b", TransactionStatus.LOAD_SUCCESS, "EUR", "1.50");
+
+        assertEquals(6, rebuilder(true, 4).rebuild());
+
+        assertEquals(Long.valueOf(6975), userService.getBalances("a").get("USD"));
+        assertEquals(Long.valueOf(500), userService.getBalances("a").get("JPY"));
+        assertEquals(Long.valueOf(150), userService.getBalances("b").get("EUR"));
+    }
+
+    /*
+     * Each user's events are replayed in stored order even when many users are
+     * folded in parallel; an authorization only succeeds after the load that
+     * funded it, so any reordering would leave a balance behind.
+     */
+
+    @Test
+    void preservesPerUserOrder()
+    {
+        for (int round = 0; round < 100; round++)
+        {
+            for (int user = 0; user < 50; user++)
+            {
+                store("user" + user, TransactionStatus.LOAD_SUCCESS, "USD", "10.00");
+                store("user" + user, TransactionStatus.AUTH_SUCCESS, "USD", "10.00");
+            }
+        }
+
+        rebuilder(true, 8).rebuild();
+
+        for (int user = 0; user < 50; user++)
+        {
+            assertEquals(Long.valueOf(0), userService.getBalances("user" + user).get("USD"));
+        }
+    }
+
+    /*
+     * An approved authorization that the events before it don't cover means
+     * the events don't add up to the balances clients were told. It is
+     * skipped, as it can't be applied, but counted in a gauge to alert on.
+     */
+
+    @Test
+    void uncoveredAuthorizationIsCounted()
+    {
+        store("a", TransactionStatus.LOAD_SUCCESS, "USD", "10.00");
+        store("a", TransactionStatus.AUTH_SUCCESS, "USD", "10.01");
+        store("a", TransactionStatus.AUTH_SUCCESS, "USD", "4.00");
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        BalanceRebuilder rebuilder = rebuilder(true, 4);
+        rebuilder.bindTo(meterRegistry);
+
+        rebuilder.rebuild();
+
+        assertEquals(Long.valueOf(600), userService.getBalances("a").get("USD"));
+        assertEquals(1.0, meterRegistry.get("ledger.rebuild.uncovered").gauge().value(), 0.0);
+    }
+
+    /*
+     * Loads and authorizations of one user racing each other through the
+     * service are stored in the order they were applied, so replaying them
+     * gives back exactly the balance the requests left behind, with every
+     * approved authorization covered.
+     */
+
+    @Test
+    void replaysConcurrentRequestsToTheirBalance() throws Exception
+    {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        EventJournal journal = new EventJournal(eventStore, meterRegistry, DurabilityMode.GROUP_COMMIT, 1024, 512, Duration.ZERO);
+        journal.start();
+
+        UserService live = new UserService(new LockingBalanceStore(16));
+        BankLedgerService service = new BankLedgerService(journal, new IdempotencyIndex(eventStore, 100_000, 0.001, 100_000),
+        live, meterRegistry);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<List<CompletableFuture<Result>>>> submitted = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++)
+        {
+            int thread = t;
+
+            submitted.add(pool.submit(() -> {
+                List<CompletableFuture<Result>> responses = new ArrayList<>();
+
+                for (int i = 0; i < 250; i++)
+                {
+                    responses.add(thread % 2 == 0
+                        ? service.loadAsync(new LoadRequest("racing", "load-" + thread + "-" + i,
+                            new Amount("1.00", "USD", DebitCredit.CREDIT)))
+                        : service.authorizeAsync(new AuthorizationRequest("racing", "auth-" + thread + "-" + i,
+                            new Amount("1.00", "USD", DebitCredit.DEBIT))));
+                }
+
+                return responses;
+            }));
+        }
+
+        for (Future<List<CompletableFuture<Result>>> responses : submitted)
+        {
+            responses.get().forEach(CompletableFuture::join);
+        }
+
+        pool.shutdown();
+        journal.stop();
+
+        SimpleMeterRegistry rebuildMeters = new SimpleMeterRegistry();
+        BalanceRebuilder rebuilder = rebuilder(true, 4);
+        rebuilder.bindTo(rebuildMeters);
+
+        rebuilder.rebuild();
+
+        assertEquals(0.0, rebuildMeters.get("ledger.rebuild.uncovered").gauge().value(), 0.0);
+        assertEquals(live.getBalances("racing"), userService.getBalances("racing"));
+    }
+
+    /*
+     * If reading the events fails, the rebuild fails with it and its workers
+     * still finish, so they don't keep the JVM from shutting down.
+     */
+
+    @Test
+    void failedReadStopsWorkers() throws Exception
+    {
+        store("a", TransactionStatus.LOAD_SUCCESS, "USD", "100.00");
+        readFailure = new IllegalStateException("Disk gone");
+
+        assertThrows(IllegalStateException.class, () -> rebuilder(true, 4).rebuild());
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+
+        while (workersAlive() && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+
+        assertFalse(workersAlive());
+    }
+
+    private static boolean workersAlive()
+    {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().startsWith("balance-rebuild-"));
+    }
+
+    /*
+     * The rebuild is skipped entirely when disabled.
+     */
+
+    @Test
+    void disabledRebuildLeavesBalancesEmpty()
+    {
+        store("a", TransactionStatus.LOAD_SUCCESS, "USD", "100.00");
+
+        BalanceRebuilder rebuilder = rebuilder(false, 4);
+        rebuilder.start();
+
+        assertTrue(rebuilder.isRunning());
+        assertTrue(userService.getBalances("a").isEmpty());
+    }
+}
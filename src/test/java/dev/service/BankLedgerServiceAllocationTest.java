@@ -0,0 +1,149 @@
+package dev.service;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import dev.repository.EventStore;
+import dev.schemas.Amount;
+import dev.schemas.AuthorizationRequest;
+import dev.schemas.DebitCredit;
+import dev.schemas.LoadRequest;
+import dev.schemas.Result;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.LockingBalanceStore;
+import dev.service.idempotency.IdempotencyIndex;
+import dev.service.journal.DurabilityMode;
+import dev.service.journal.EventJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * Keeps the decline and error paths of the BankLedgerService within a budget
+ * of bytes allocated per request, as these are the paths that misbehaving
+ * clients and attack traffic take over and over. The requests are built
+ * before measuring, so only what the service allocates for them counts,
+ * from the idempotency claim to the event and the response.
+ */
+public class BankLedgerServiceAllocationTest {
+
+    /*
+     * About 1 KB is spent per declined request on the claim, the event and
+     * its trip through the journal, and invalid requests, answered before
+     * they claim anything, spend next to nothing; rejecting a request by
+     * throwing costs three to five times the budget.
+     */
+    private static final long BUDGET_BYTES = 2048;
+
+    private static final int WARMUP = 20_000;
+    private static final int MEASURED = 20_000;
+
+    private final EventStore eventStore = mock(EventStore.class, withSettings().stubOnly());
+
+    private EventJournal journal;
+    private BankLedgerService service;
+
+    @BeforeEach
+    void setUp()
+    {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        // No latency window, or every one of the sequential requests would wait it out.
+        journal = new EventJournal(eventStore, meterRegistry, DurabilityMode.GROUP_COMMIT, 8192, 512, Duration.ZERO);
+        journal.start();
+
+        IdempotencyIndex idempotencyIndex = new IdempotencyIndex(eventStore, 1_000_000, 0.001, 100_000);
+
+        UserService userService = new UserService(new LockingBalanceStore(64));
+        userService.credit("alloc", CurrencyRegistry.resolve("USD"), 100);
+
+        service = new BankLedgerService(journal, idempotencyIndex, userService, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        journal.stop();
+    }
+
+    /*
+     * Requests with the wrong direction are rejected without a stack trace,
+     * before they claim their message id.
+     */
+
+    @Test
+    void invalidRequestsStayWithinBudget()
+    {
+        assertWithinBudget(i -> new LoadRequest("alloc", "invalid-" + i, new Amount("5", "USD", DebitCredit.DEBIT)),
+            service::load);
+    }
+
+    /*
+     * Amounts that can't be parsed are rejected without a stack trace too.
+     */
+
+    @Test
+    void malformedAmountsStayWithinBudget()
+    {
+        assertWithinBudget(i -> new LoadRequest("alloc", "malformed-" + i, new Amount("5.x", "USD", DebitCredit.CREDIT)),
+            service::load);
+    }
+
+    /*
+     * Authorizations over the balance are declined.
+     */
+
+    @Test
+    void declinesStayWithinBudget()
+    {
+        assertWithinBudget(i -> new AuthorizationRequest("alloc", "declined-" + i, new Amount("5", "USD", DebitCredit.DEBIT)),
+            service::authorize);
+    }
+
+    private static <R> void assertWithinBudget(IntFunction<R> request, Function<R, Result> process)
+    {
+        List<R> warmup = requests(request, 0, WARMUP);
+        List<R> measured = requests(request, WARMUP, MEASURED);
+
+        for (R r : warmup)
+        {
+            process.apply(r);
+        }
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+
+        for (R r : measured)
+        {
+            process.apply(r);
+        }
+
+        long perRequest = (threads.getCurrentThreadAllocatedBytes() - before) / MEASURED;
+
+        assertTrue("allocated " + perRequest + " bytes per request", perRequest <= BUDGET_BYTES);
+    }
+
+    private static <R> List<R> requests(IntFunction<R> request, int from, int count)
+    {
+        List<R> requests = new ArrayList<>(count);
+
+        for (int i = from; i < from + count; i++)
+        {
+            requests.add(request.apply(i));
+        }
+
+        return requests;
+    }
+}
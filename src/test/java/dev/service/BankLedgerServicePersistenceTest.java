@@ -0,0 +1,210 @@
+package dev.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.repository.EventStore;
+import dev.schemas.Amount;
+import dev.schemas.AuthorizationRequest;
+import dev.schemas.AuthorizationResponse;
+import dev.schemas.DebitCredit;
+import dev.schemas.LoadRequest;
+import dev.schemas.LoadResponse;
+import dev.schemas.ResponseCode;
+import dev.schemas.Result;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.LockingBalanceStore;
+import dev.service.idempotency.IdempotencyIndex;
+import dev.service.journal.DurabilityMode;
+import dev.service.journal.EventJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * This test suite checks what the BankLedgerService does when the event of
+ * a request can't be persisted: the balance change is undone, no failed
+ * event is recorded in its place, and a retry of the same message id is
+ * processed as if the first attempt never happened.
+ */
+public class BankLedgerServicePersistenceTest {
+
+    private final EventStore eventStore = mock(EventStore.class);
+
+    private EventJournal journal;
+    private UserService userService;
+    private BankLedgerService service;
+
+    @BeforeEach
+    void setUp()
+    {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        journal = new EventJournal(eventStore, meterRegistry, DurabilityMode.GROUP_COMMIT, 1024, 512, Duration.ZERO);
+        journal.start();
+
+        userService = new UserService(new LockingBalanceStore(64));
+        userService.credit("a", CurrencyRegistry.resolve("USD"), 100);
+
+        service = new BankLedgerService(journal, new IdempotencyIndex(eventStore, 1000, 0.001, 1000), userService,
+        meterRegistry);
+
+        // The first append fails, later ones succeed.
+        doThrow(new IllegalStateException("Disk full")).doNothing().when(eventStore).append(anyList());
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        journal.stop();
+    }
+
+    private Long balance()
+    {
+        return userService.getBalances("a").get("USD");
+    }
+
+    /*
+     * A load whose event fails leaves the balance as it was, and its retry
+     * is applied once.
+     */
+
+    @Test
+    void failedLoadIsUndoneAndRetried()
+    {
+        assertThrows(IllegalStateException.class,
+            () -> service.load(new LoadRequest("a", "m1", new Amount("10.00", "USD", DebitCredit.CREDIT))));
+
+        assertEquals(Long.valueOf(100), balance());
+        verify(eventStore, times(1)).append(anyList());
+
+        Result retry = service.load(new LoadRequest("a", "m1", new Amount("10.00", "USD", DebitCredit.CREDIT)));
+
+        assertEquals(LoadResponse.class, retry.getClass());
+        assertEquals("11.00", ((LoadResponse) retry).getBalance().getAmount());
+        assertEquals(Long.valueOf(1100), balance());
+    }
+
+    /*
+     * The withdrawn funds of an authorization whose event fails are given
+     * back.
+     */
+
+    @Test
+    void failedAuthorizationIsUndoneAndRetried()
+    {
+        assertThrows(IllegalStateException.class,
+            () -> service.authorize(new AuthorizationRequest("a", "m1", new Amount("0.40", "USD", DebitCredit.DEBIT))));
+
+        assertEquals(Long.valueOf(100), balance());
+        verify(eventStore, times(1)).append(anyList());
+
+        Result retry = service.authorize(new AuthorizationRequest("a", "m1", new Amount("0.40", "USD", DebitCredit.DEBIT)));
+
+        assertEquals(ResponseCode.APPROVED, ((AuthorizationResponse) retry).getResponse());
+        assertEquals(Long.valueOf(60), balance());
+    }
+
+    /*
+     * On the asynchronous path the change is undone once the journal fails
+     * the event, before the claim is released.
+     */
+
+    @Test
+    void failedAsyncLoadIsUndoneAndRetried()
+    {
+        CompletionException failed = assertThrows(CompletionException.class,
+            () -> service.loadAsync(new LoadRequest("a", "m1", new Amount("10.00", "USD", DebitCredit.CREDIT))).join());
+
+        assertEquals(IllegalStateException.class, failed.getCause().getClass());
+        assertEquals(Long.valueOf(100), balance());
+
+        Result retry = service.loadAsync(new LoadRequest("a", "m1", new Amount("10.00", "USD", DebitCredit.CREDIT))).join();
+
+        assertEquals(LoadResponse.class, retry.getClass());
+        assertEquals(Long.valueOf(1100), balance());
+    }
+
+    /*
+     * A batch whose events fail has every change it applied undone, and the
+     * retried batch is applied once.
+     */
+
+    @Test
+    void failedBatchIsUndoneAndRetried()
+    {
+        assertThrows(IllegalStateException.class, () -> service.loadBatch(List.of(
+            new LoadRequest("a", "m1", new Amount("5.00", "USD", DebitCredit.CREDIT)),
+            new LoadRequest("a", "m2", new Amount("2.50", "USD", DebitCredit.CREDIT)))));
+
+        assertEquals(Long.valueOf(100), balance());
+        verify(eventStore, times(1)).append(anyList());
+
+        List<Result> retry = service.loadBatch(List.of(
+            new LoadRequest("a", "m1", new Amount("5.00", "USD", DebitCredit.CREDIT)),
+            new LoadRequest("a", "m2", new Amount("2.50", "USD", DebitCredit.CREDIT))));
+
+        assertEquals(LoadResponse.class, retry.get(0).getClass());
+        assertEquals("8.50", ((LoadResponse) retry.get(1)).getBalance().getAmount());
+        assertEquals(Long.valueOf(850), balance());
+
+        doThrow(new IllegalStateException("Disk full")).when(eventStore).append(anyList());
+
+        assertThrows(IllegalStateException.class, () -> service.authorizeBatch(List.of(
+            new AuthorizationRequest("a", "m3", new Amount("3.00", "USD", DebitCredit.DEBIT)),
+            new AuthorizationRequest("a", "m4", new Amount("4.00", "USD", DebitCredit.DEBIT)))));
+
+        assertEquals(Long.valueOf(850), balance());
+    }
+
+    /*
+     * A load whose event fails after its funds were already spent can't be
+     * taken back without the balance going below zero. The balance is left
+     * as it is and the user is marked instead.
+     */
+
+    @Test
+    void spentLoadThatFailsMarksUser() throws Exception
+    {
+        CountDownLatch appending = new CountDownLatch(1);
+        CountDownLatch spent = new CountDownLatch(1);
+
+        doAnswer(invocation -> {
+            appending.countDown();
+            spent.await();
+            throw new IllegalStateException("Disk full");
+        }).doNothing().when(eventStore).append(anyList());
+
+        CompletableFuture<Result> load = CompletableFuture.supplyAsync(() ->
+            service.load(new LoadRequest("a", "m1", new Amount("10.00", "USD", DebitCredit.CREDIT))));
+
+        appending.await();
+
+        CompletableFuture<Result> spend = service.authorizeAsync(new AuthorizationRequest("a", "m2",
+            new Amount("10.50", "USD", DebitCredit.DEBIT)));
+
+        spent.countDown();
+
+        CompletionException failed = assertThrows(CompletionException.class, load::join);
+
+        assertEquals(IllegalStateException.class, failed.getCause().getClass());
+        assertEquals(ResponseCode.APPROVED, ((AuthorizationResponse) spend.join()).getResponse());
+        assertEquals(Long.valueOf(50), balance());
+        assertTrue(service.getUnreconciledUsers().contains("a"));
+    }
+}
@@ -2,16 +2,22 @@ package dev.service;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.when;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.boot.test.mock.mockito.MockBean;
 
 import dev.domain.TransactionEvent;
 import dev.domain.TransactionStatus;
@@ -23,14 +29,31 @@ import dev.schemas.DebitCredit;
 import dev.schemas.LoadRequest;
 import dev.schemas.LoadResponse;
 import dev.schemas.ResponseCode;
+import dev.schemas.Result;
 import dev.schemas.ServerError;
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.FixedPoint;
+import io.micrometer.core.instrument.MeterRegistry;
 
 /*
  * This test suite focuses on testing the functionality and integration of
  * the BankLedgerService.
  */
 
-@SpringBootTest
+/*
+ * Events are written to an in-memory H2 database rather than the SQLite file
+ * so that runs are isolated and concurrent writers don't contend on file locks.
+ */
+@SpringBootTest(
+    properties = {
+        "spring.datasource.url=jdbc:h2:mem:ledgerdb",
+        "spring.datasource.driverClassName=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=password",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=update"
+    }
+)
 public class BankLedgerServiceTest {
 
     @Autowired
@@ -39,9 +62,28 @@ public class BankLedgerServiceTest {
     @Autowired
     private TransactionEventRepository transactionEventRepository;
 
-    @MockBean
+    @Autowired
     private UserService userService;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /*
+     * Gives a user a fresh set of balances in the real in-memory store, the
+     * starting point of each test below.
+     */
+    private void seedBalances(String userId, HashMap<String, BigDecimal> balances)
+    {
+        userService.deleteUser(userId);
+
+        for (String currency : balances.keySet())
+        {
+            int currencyId = CurrencyRegistry.resolve(currency);
+            int scale = CurrencyRegistry.exponent(currencyId);
+            userService.credit(userId, currencyId, FixedPoint.parse(balances.get(currency).toPlainString(), scale));
+        }
+    }
+
     /*
      * Test the case where given a certain AuthorizationRequest, the
      * authorization could not go through and was declined for some reason.
@@ -60,7 +102,7 @@ public class BankLedgerServiceTest {
         testBalances.put("USD", new BigDecimal("450"));
         testBalances.put("INR", new BigDecimal("350"));
 
-        when(userService.getBalances(any())).thenReturn(testBalances);
+        seedBalances("a", testBalances);
 
         String original_asked_amount = "500";
 
@@ -83,7 +125,8 @@ public class BankLedgerServiceTest {
 
         assertEquals(request.getUserId(), resp.getUserId());
         assertEquals(request.getMessageId(), resp.getMessageId());
-        assertEquals(testBalances.get("USD").toString(), resp.getBalance().getAmount());
+        assertEquals("450.00", resp.getBalance().getAmount());
+        assertEquals(Long.valueOf(45000), userService.getBalances(request.getUserId()).get("USD"));
         assertEquals(request.getTransactionAmount().getCurrency(), resp.getBalance().getCurrency());
         assertEquals(request.getTransactionAmount().getDebitOrCredit(), resp.getBalance().getDebitOrCredit());
         assertEquals(ResponseCode.DECLINED, resp.getResponse());
@@ -98,7 +141,7 @@ public class BankLedgerServiceTest {
 
         assertEquals(request.getUserId(), savedEvent.getUserId());
         assertEquals(request.getMessageId(), savedEvent.getMessageId());
-        assertEquals(original_asked_amount, savedEvent.getAmount().toString());
+        assertEquals(0, new BigDecimal(original_asked_amount).compareTo(savedEvent.getAmount()));
         assertEquals(request.getTransactionAmount().getCurrency(), savedEvent.getCurrency());
         assertEquals(request.getTransactionAmount().getDebitOrCredit(), savedEvent.getDebitOrCredit());
         assertEquals(TransactionStatus.AUTH_FAIL, savedEvent.getTransactionStatus());
@@ -122,7 +165,7 @@ public class BankLedgerServiceTest {
         testBalances.put("USD", new BigDecimal("450"));
         testBalances.put("INR", new BigDecimal("350"));
 
-        when(userService.getBalances(any())).thenReturn(testBalances);
+        seedBalances("luka", testBalances);
 
         String original_requested_amount = "350";
 
@@ -143,7 +186,8 @@ public class BankLedgerServiceTest {
 
         assertEquals(request.getUserId(), resp.getUserId());
         assertEquals(request.getMessageId(), resp.getMessageId());
-        assertEquals(testBalances.get("INR").toString(), resp.getBalance().getAmount());
+        assertEquals("0.00", resp.getBalance().getAmount());
+        assertEquals(Long.valueOf(0), userService.getBalances(request.getUserId()).get("INR"));
         assertEquals(request.getTransactionAmount().getCurrency(), resp.getBalance().getCurrency());
         assertEquals(request.getTransactionAmount().getDebitOrCredit(), resp.getBalance().getDebitOrCredit());
         assertEquals(ResponseCode.APPROVED, resp.getResponse());
@@ -158,7 +202,7 @@ public class BankLedgerServiceTest {
 
         assertEquals(request.getUserId(), savedEvent.getUserId());
         assertEquals(request.getMessageId(), savedEvent.getMessageId());
-        assertEquals(original_requested_amount, savedEvent.getAmount().toString());
+        assertEquals(0, new BigDecimal(original_requested_amount).compareTo(savedEvent.getAmount()));
         assertEquals(request.getTransactionAmount().getCurrency(), savedEvent.getCurrency());
         assertEquals(request.getTransactionAmount().getDebitOrCredit(), savedEvent.getDebitOrCredit());
         assertEquals(TransactionStatus.AUTH_SUCCESS, savedEvent.getTransactionStatus());
@@ -167,8 +211,9 @@ public class BankLedgerServiceTest {
     /*
      * Make sure that in the event of an error from its dependent services in
      * the authorization function, the server propagates the error properly with
-     * the correct information and structure while also recording the event
-     * as an Authorization Declined event.
+     * the correct information and structure. The request is rejected before
+     * it claims its message id, so no event is recorded and the corrected
+     * request can use the same id.
      */
 
     @Test
@@ -181,7 +226,7 @@ public class BankLedgerServiceTest {
         testBalances.put("USD", new BigDecimal("450"));
         testBalances.put("INR", new BigDecimal("350"));
 
-        when(userService.getBalances(any())).thenReturn(testBalances);
+        seedBalances("c", testBalances);
 
         Amount amt = new Amount("500", "USD", DebitCredit.CREDIT);
         AuthorizationRequest request = new AuthorizationRequest("c", "kjlfjgweiohjgwekognl,z.sfm", amt);
@@ -198,27 +243,25 @@ public class BankLedgerServiceTest {
 
         assertEquals("Invalid DebitCredit Input", resp.getMessage());
 
-        // Check that event was generated and saved.
+        // Check that no event was saved and the balance is untouched.
 
-        TransactionEvent savedEvent = transactionEventRepository.findById(request.getMessageId()).orElse(null);
+        assertNull(transactionEventRepository.findById(request.getMessageId()).orElse(null));
+        assertEquals(Long.valueOf(45000), userService.getBalances("c").get("USD"));
 
-        assertNotNull(savedEvent);
+        // The corrected request goes through under the same message id.
 
-        //Checking event information to make sure that it is correct.
+        Result retry = bankLedgerService.authorize(new AuthorizationRequest("c", request.getMessageId(),
+        new Amount("50", "USD", DebitCredit.DEBIT)));
 
-        assertEquals(request.getUserId(), savedEvent.getUserId());
-        assertEquals(request.getMessageId(), savedEvent.getMessageId());
-        assertEquals(request.getTransactionAmount().getAmount(), savedEvent.getAmount().toString());
-        assertEquals(request.getTransactionAmount().getCurrency(), savedEvent.getCurrency());
-        assertEquals(request.getTransactionAmount().getDebitOrCredit(), savedEvent.getDebitOrCredit());
-        assertEquals(TransactionStatus.AUTH_FAIL, savedEvent.getTransactionStatus());
+        assertEquals(ResponseCode.APPROVED, ((AuthorizationResponse) retry).getResponse());
+        assertEquals(TransactionStatus.AUTH_SUCCESS,
+        transactionEventRepository.findById(request.getMessageId()).get().getTransactionStatus());
     }
 
       /*
      * Make sure that in the event of an error from its dependent services in
      * the load function, the server propagates the error properly with
-     * the correct information and structure while also recording the event
-     * as a Load Declined event.
+     * the correct information and structure, without recording an event.
      */
 
     @Test
@@ -231,7 +274,7 @@ public class BankLedgerServiceTest {
         testBalances.put("USD", new BigDecimal("450"));
         testBalances.put("INR", new BigDecimal("350"));
 
-        when(userService.getBalances(any())).thenReturn(testBalances);
+        seedBalances("d", testBalances);
 
         Amount amt = new Amount("500", "USD", DebitCredit.DEBIT);
         LoadRequest request = new LoadRequest("d", "kjjseht89243gn802434gi0n", amt);
@@ -248,20 +291,10 @@ public class BankLedgerServiceTest {
 
         assertEquals("Invalid DebitCredit Input", resp.getMessage());
 
-        // Check that event was generated and saved.       
-
-        TransactionEvent savedEvent = transactionEventRepository.findById(request.getMessageId()).orElse(null);
-
-        assertNotNull(savedEvent);
-
-        //Checking event information to make sure that it is correct.        
+        // Check that no event was saved and the balance is untouched.
 
-        assertEquals(request.getUserId(), savedEvent.getUserId());
-        assertEquals(request.getMessageId(), savedEvent.getMessageId());
-        assertEquals(request.getTransactionAmount().getAmount(), savedEvent.getAmount().toString());
-        assertEquals(request.getTransactionAmount().getCurrency(), savedEvent.getCurrency());
-        assertEquals(request.getTransactionAmount().getDebitOrCredit(), savedEvent.getDebitOrCredit());
-        assertEquals(TransactionStatus.LOAD_FAIL, savedEvent.getTransactionStatus());
+        assertNull(transactionEventRepository.findById(request.getMessageId()).orElse(null));
+        assertEquals(Long.valueOf(45000), userService.getBalances("d").get("USD"));
     }
 
     /*
@@ -281,7 +314,7 @@ public class BankLedgerServiceTest {
         testBalances.put("USD", new BigDecimal("450"));
         testBalances.put("INR", new BigDecimal("350"));
 
-        when(userService.getBalances(any())).thenReturn(testBalances);
+        seedBalances("e", testBalances);
 
         Amount amt = new Amount("500", "USD", DebitCredit.CREDIT);
         LoadRequest request = new LoadRequest("e", "kln;sdgh8t0249jw0-egr", amt);
@@ -298,7 +331,8 @@ public class BankLedgerServiceTest {
 
         assertEquals(request.getUserId(), resp.getUserId());
         assertEquals(request.getMessageId(), resp.getMessageId());
-        assertEquals(testBalances.get("USD").toString(), resp.getBalance().getAmount());
+        assertEquals("950.00", resp.getBalance().getAmount());
+        assertEquals(Long.valueOf(95000), userService.getBalances(request.getUserId()).get("USD"));
         assertEquals(request.getTransactionAmount().getCurrency(), resp.getBalance().getCurrency());
         assertEquals(request.getTransactionAmount().getDebitOrCredit(), resp.getBalance().getDebitOrCredit());
 
@@ -312,10 +346,241 @@ public class BankLedgerServiceTest {
 
         assertEquals(request.getUserId(), savedEvent.getUserId());
         assertEquals(request.getMessageId(), savedEvent.getMessageId());
-        assertEquals("500", savedEvent.getAmount().toString());
+        assertEquals(0, new BigDecimal("500").compareTo(savedEvent.getAmount()));
         assertEquals(request.getTransactionAmount().getCurrency(), savedEvent.getCurrency());
         assertEquals(request.getTransactionAmount().getDebitOrCredit(), savedEvent.getDebitOrCredit());
         assertEquals(TransactionStatus.LOAD_SUCCESS, savedEvent.getTransactionStatus());
     }
-    
+
+    /*
+     * Many threads loading to and authorizing from the same user at once. Each
+     * authorization is exactly covered by a preceding load of the same thread,
+     * so if no update is lost every authorization is approved and the balance
+     * ends up where it started.
+     */
+
+    @Test
+    void testConcurrentLoadAndAuthorizeSameUser() throws Exception
+    {
+        HashMap<String, BigDecimal> testBalances = new HashMap<>();
+
+        testBalances.put("USD", new BigDecimal("10"));
+
+        seedBalances("concurrent", testBalances);
+
+        int threads = 8;
+        int rounds = 25;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++)
+        {
+            results.add(pool.submit(() -> {
+                int declined = 0;
+
+                for (int i = 0; i < rounds; i++)
+                {
+                    bankLedgerService.load(new LoadRequest("concurrent", UUID.randomUUID().toString(),
+                    new Amount("1.25", "USD", DebitCredit.CREDIT)));
+
+                    Object response = bankLedgerService.authorize(new AuthorizationRequest("concurrent", UUID.randomUUID().toString(),
+                    new Amount("1.25", "USD", DebitCredit.DEBIT)));
+
+                    if (((AuthorizationResponse) response).getResponse() != ResponseCode.APPROVED)
+                    {
+                        declined++;
+                    }
+                }
+
+                return declined;
+            }));
+        }
+
+        int declined = 0;
+
+        for (Future<Integer> result : results)
+        {
+            declined += result.get();
+        }
+
+        pool.shutdown();
+
+        assertEquals(0, declined);
+        assertEquals(Long.valueOf(1000), userService.getBalances("concurrent").get("USD"));
+    }
+
+    /*
+     * A retried load with the same message id gets the original response back
+     * without being applied or recorded a second time.
+     */
+
+    @Test
+    void testDuplicateLoadAppliedOnce() throws Exception
+    {
+        HashMap<String, BigDecimal> testBalances = new HashMap<>();
+
+        testBalances.put("USD", new BigDecimal("10"));
+
+        seedBalances("retry", testBalances);
+
+        String messageId = UUID.randomUUID().toString();
+
+        Object first = bankLedgerService.load(new LoadRequest("retry", messageId, new Amount("5", "USD", DebitCredit.CREDIT)));
+        Object second = bankLedgerService.load(new LoadRequest("retry", messageId, new Amount("5", "USD", DebitCredit.CREDIT)));
+
+        assertEquals(LoadResponse.class, second.getClass());
+        assertEquals("15.00", ((LoadResponse) second).getBalance().getAmount());
+        assertEquals(first, second);
+        assertEquals(Long.valueOf(1500), userService.getBalances("retry").get("USD"));
+        assertEquals(1, transactionEventRepository.findByUserId("retry").size());
+    }
+
+    /*
+     * A batch is applied in order, so an authorization can spend what an
+     * earlier item loaded, each item gets its own response in order, and a
+     * message id repeated within the batch is applied only once. Each batch's
+     * wait for its events is timed once.
+     */
+
+    @Test
+    void testBatchAppliedInOrder() throws Exception
+    {
+        HashMap<String, BigDecimal> testBalances = new HashMap<>();
+
+        testBalances.put("USD", new BigDecimal("0"));
+
+        seedBalances("batch", testBalances);
+
+        String loadId = UUID.randomUUID().toString();
+        long persisted = meterRegistry.get("ledger.event.persist").timer().count();
+
+        List<Result> loads = bankLedgerService.loadBatch(List.of(
+            new LoadRequest("batch", loadId, new Amount("5", "USD", DebitCredit.CREDIT)),
+            new LoadRequest("batch", UUID.randomUUID().toString(), new Amount("7", "USD", DebitCredit.CREDIT)),
+            new LoadRequest("batch", loadId, new Amount("5", "USD", DebitCredit.CREDIT))));
+
+        assertEquals(3, loads.size());
+        assertEquals("5.00", ((LoadResponse) loads.get(0)).getBalance().getAmount());
+        assertEquals("12.00", ((LoadResponse) loads.get(1)).getBalance().getAmount());
+        assertEquals(loads.get(0), loads.get(2));
+
+        List<Result> authorizations = bankLedgerService.authorizeBatch(List.of(
+            new AuthorizationRequest("batch", UUID.randomUUID().toString(), new Amount("10", "USD", DebitCredit.DEBIT)),
+            new AuthorizationRequest("batch", UUID.randomUUID().toString(), new Amount("10", "USD", DebitCredit.DEBIT))));
+
+        assertEquals(ResponseCode.APPROVED, ((AuthorizationResponse) authorizations.get(0)).getResponse());
+        assertEquals(ResponseCode.DECLINED, ((AuthorizationResponse) authorizations.get(1)).getResponse());
+        assertEquals(Long.valueOf(200), userService.getBalances("batch").get("USD"));
+        assertEquals(4, transactionEventRepository.findByUserId("batch").size());
+        assertEquals(persisted + 2, meterRegistry.get("ledger.event.persist").timer().count());
+    }
+
+    /*
+     * The async variant applies the balance right away and hands back the
+     * same response as the blocking one once the event is stored.
+     */
+
+    @Test
+    void testLoadAsync() throws Exception
+    {
+        HashMap<String, BigDecimal> testBalances = new HashMap<>();
+
+        testBalances.put("USD", new BigDecimal("1"));
+
+        seedBalances("async", testBalances);
+
+        String messageId = UUID.randomUUID().toString();
+
+        CompletableFuture<Result> first = bankLedgerService.loadAsync(new LoadRequest("async", messageId, new Amount("2", "USD", DebitCredit.CREDIT)));
+
+        assertEquals(Long.valueOf(300), userService.getBalances("async").get("USD"));
+
+        LoadResponse response = (LoadResponse) first.get();
+        Object retried = bankLedgerService.loadAsync(new LoadRequest("async", messageId, new Amount("2", "USD", DebitCredit.CREDIT))).get();
+
+        assertEquals("3.00", response.getBalance().getAmount());
+        assertEquals(response, retried);
+        assertEquals(1, transactionEventRepository.findByUserId("async").size());
+    }
+
+    /*
+     * An amount that can't be parsed is rejected before the balance is
+     * touched, and nothing is recorded for it.
+     */
+
+    @Test
+    void testMalformedAmountIsRejected() throws Exception
+    {
+        HashMap<String, BigDecimal> testBalances = new HashMap<>();
+
+        testBalances.put("USD", new BigDecimal("5"));
+
+        seedBalances("malformed", testBalances);
+
+        LoadRequest request = new LoadRequest("malformed", UUID.randomUUID().toString(), new Amount("1.2.3", "USD", DebitCredit.CREDIT));
+
+        Result response = bankLedgerService.load(request);
+
+        assertTrue(response.isError());
+        assertEquals("Invalid amount", ((ServerError) response).getMessage());
+        assertEquals(Long.valueOf(500), userService.getBalances("malformed").get("USD"));
+
+        assertNull(transactionEventRepository.findById(request.getMessageId()).orElse(null));
+    }
+
+    /*
+     * An authorization in a currency nobody ever loaded is declined, without
+     * the currency being registered, so such codes can't fill up the
+     * registry.
+     */
+
+    @Test
+    void testUnknownCurrencyIsDeclinedWithoutRegistering() throws Exception
+    {
+        AuthorizationRequest request = new AuthorizationRequest("unknown", UUID.randomUUID().toString(),
+        new Amount("5", "XZQ", DebitCredit.DEBIT));
+
+        AuthorizationResponse response = (AuthorizationResponse) bankLedgerService.authorize(request);
+
+        assertEquals(ResponseCode.DECLINED, response.getResponse());
+        assertEquals("0.00", response.getBalance().getAmount());
+        assertEquals(-1, CurrencyRegistry.lookup("XZQ"));
+    }
+
+    /*
+     * Each request is counted once under its outcome; a retry answered from
+     * the idempotency index isn't counted again.
+     */
+
+    @Test
+    void testRequestsAreCounted() throws Exception
+    {
+        HashMap<String, BigDecimal> testBalances = new HashMap<>();
+
+        testBalances.put("USD", new BigDecimal("5"));
+
+        seedBalances("counted", testBalances);
+
+        double approved = requests("authorization", "approved");
+        double declined = requests("authorization", "declined");
+        double errors = requests("authorization", "error");
+
+        AuthorizationRequest request = new AuthorizationRequest("counted", UUID.randomUUID().toString(), new Amount("5", "USD", DebitCredit.DEBIT));
+
+        bankLedgerService.authorize(request);
+        bankLedgerService.authorize(request);
+        bankLedgerService.authorize(new AuthorizationRequest("counted", UUID.randomUUID().toString(), new Amount("5", "USD", DebitCredit.DEBIT)));
+        bankLedgerService.authorize(new AuthorizationRequest("counted", UUID.randomUUID().toString(), new Amount("5", "USD", DebitCredit.CREDIT)));
+
+        assertEquals(approved + 1, requests("authorization", "approved"), 0);
+        assertEquals(declined + 1, requests("authorization", "declined"), 0);
+        assertEquals(errors + 1, requests("authorization", "error"), 0);
+    }
+
+    private double requests(String operation, String outcome)
+    {
+        return meterRegistry.get("ledger.requests").tag("operation", operation).tag("outcome", outcome).counter().count();
+    }
+
 }
@@ -0,0 +1,107 @@
+package dev.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.log.FsyncPolicy;
+import dev.repository.log.MappedEventLog;
+import dev.schemas.DebitCredit;
+import dev.schemas.Transaction;
+
+/*
+ * Tests for the TransactionHistoryService over a memory-mapped event log in
+ * a temporary directory.
+ */
+public class TransactionHistoryServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private long sequence;
+
+    private TransactionEvent event(String userId, String messageId, TransactionStatus status, String currency)
+    {
+        TransactionEvent event = new TransactionEvent(userId, messageId, status, DebitCredit.CREDIT,
+        currency, new BigDecimal("1.50"), "2024-01-01T00:00:00Z");
+        event.setSequenceNumber(++sequence);
+
+        return event;
+    }
+
+    private static List<String> read(TransactionHistoryService.Page page, List<String> cursors)
+    {
+        List<String> messageIds = new ArrayList<>();
+        cursors.add(page.forEach(transaction -> messageIds.add(transaction.getMessageId())));
+
+        return messageIds;
+    }
+
+    /*
+     * Following the cursors walks the whole filtered history exactly once,
+     * unaffected by events appended between pages, and the last page has no
+     * cursor.
+     */
+
+    @Test
+    void pagesThroughFilteredHistory() throws Exception
+    {
+        MappedEventLog log = new MappedEventLog(directory.toString(), DataSize.ofKilobytes(64), FsyncPolicy.NEVER, Duration.ofSeconds(1));
+        TransactionHistoryService service = new TransactionHistoryService(log, 2, 10);
+
+        log.append(List.of(event("h", "m1", TransactionStatus.LOAD_SUCCESS, "USD"),
+            event("other", "o1", TransactionStatus.LOAD_SUCCESS, "USD"),
+            event("h", "m2", TransactionStatus.AUTH_FAIL, "USD"),
+            event("h", "m3", TransactionStatus.LOAD_SUCCESS, "EUR"),
+            event("h", "m4", TransactionStatus.AUTH_SUCCESS, "USD")));
+
+        List<String> cursors = new ArrayList<>();
+
+        assertEquals(List.of("m1", "m2"), read(service.page("h", null, null, null, "USD"), cursors));
+
+        log.append(List.of(event("h", "m5", TransactionStatus.LOAD_SUCCESS, "USD")));
+
+        assertEquals(List.of("m4", "m5"), read(service.page("h", cursors.get(0), null, null, "USD"), cursors));
+        assertNull(cursors.get(1));
+
+        assertEquals(List.of("m1", "m3", "m5"),
+            read(service.page("h", null, 5, Set.of(TransactionStatus.LOAD_SUCCESS), null), cursors));
+
+        List<Transaction> first = new ArrayList<>();
+        service.page("h", null, 1, null, null).forEach(first::add);
+
+        assertEquals("1.50", first.get(0).getTransactionAmount().getAmount());
+        assertEquals("USD", first.get(0).getTransactionAmount().getCurrency());
+        assertEquals(TransactionStatus.LOAD_SUCCESS, first.get(0).getTransactionStatus());
+    }
+
+    /*
+     * Limits outside the allowed range and cursors that weren't handed out
+     * are rejected before anything is read.
+     */
+
+    @Test
+    void rejectsBadLimitAndCursor() throws Exception
+    {
+        MappedEventLog log = new MappedEventLog(directory.toString(), DataSize.ofKilobytes(64), FsyncPolicy.NEVER, Duration.ofSeconds(1));
+        TransactionHistoryService service = new TransactionHistoryService(log, 2, 10);
+
+        assertThrows(IllegalArgumentException.class, () -> service.page("h", null, 0, null, null));
+        assertThrows(IllegalArgumentException.class, () -> service.page("h", null, 11, null, null));
+        assertThrows(IllegalArgumentException.class, () -> service.page("h", "not a cursor", null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> service.page("h", "LTE", null, null, null));
+    }
+}
@@ -1,16 +1,20 @@
 package dev.service;
 
 
-import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
-import java.math.BigDecimal;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import dev.service.balance.CurrencyRegistry;
+import dev.service.balance.LockingBalanceStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 /*
  * This test suite primarily focuses on the UserService, which is centered around
  * interacting with the in-memory object that stores the user balances in the 
@@ -30,7 +34,7 @@ private UserService userService;
 @Test
 void createUserTest() throws Exception
 {
-    HashMap<String, BigDecimal> balances = userService.getBalances("test");
+    Map<String, Long> balances = userService.getBalances("test");
     assertTrue(balances.isEmpty());
 }
 
@@ -41,14 +45,15 @@ void createUserTest() throws Exception
 @Test
 void updateUserTest()
 {
-    HashMap<String, BigDecimal> balances = userService.getBalances("test2");
+    HashMap<String, Long> balances = new HashMap<>();
 
-    balances.put("USD", new BigDecimal(50));
-    balances.put("INR", new BigDecimal(75));
+    balances.put("USD", 5000L);
+    balances.put("INR", 7500L);
 
-    userService.updateBalances("test2", balances);
+    userService.credit("test2", CurrencyRegistry.resolve("USD"), 5000);
+    userService.credit("test2", CurrencyRegistry.resolve("INR"), 7500);
 
-    HashMap<String, BigDecimal> balancesUpdated = userService.getBalances("test2");
+    Map<String, Long> balancesUpdated = userService.getBalances("test2");
 
     assertTrue(balances.equals(balancesUpdated));
 }
@@ -60,21 +65,62 @@ void updateUserTest()
 @Test
 void deleteUserTest()
 {
-    HashMap<String, BigDecimal> balances = userService.getBalances("test2");
-
-    balances.put("USD", new BigDecimal(50));
-    balances.put("INR", new BigDecimal(75));
+    userService.credit("test3", CurrencyRegistry.resolve("USD"), 5000);
+    userService.credit("test3", CurrencyRegistry.resolve("INR"), 7500);
 
-    userService.deleteUser("test2");
+    userService.deleteUser("test3");
 
-    HashMap<String, BigDecimal> balancesNew = userService.getBalances("test2");
+    Map<String, Long> balancesNew = userService.getBalances("test3");
 
     /*
-     * Check like this since if we deleted user and getBalances again, it won't
-     * be in the map and will be added once again as an empty map thus being different 
+     * Once deleted the user is no longer in the store, so looking them up
+     * again gives back an empty account.
      */
 
-    assertFalse(balances.equals(balancesNew));
+    assertTrue(balancesNew.isEmpty());
+}
+
+/*
+ * Snapshots handed out by the service are read-only and don't change when
+ * the user's balance does afterwards.
+ */
+
+@Test
+void balancesAreSnapshotTest()
+{
+    userService.credit("test4", CurrencyRegistry.resolve("USD"), 5000);
+
+    Map<String, Long> before = userService.getBalances("test4");
+
+    userService.debit("test4", CurrencyRegistry.resolve("USD"), 2000);
+
+    assertEquals(Long.valueOf(5000), before.get("USD"));
+    assertEquals(Long.valueOf(3000), userService.getBalances("test4").get("USD"));
+}
+
+/*
+ * The gauges follow the users and currencies held. A fresh service is used
+ * so the users of the other tests don't count.
+ */
+
+@Test
+void gaugesCountUsersAndBalancesTest()
+{
+    UserService service = new UserService(new LockingBalanceStore(16));
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    service.bindTo(meterRegistry);
+
+    service.credit("a", CurrencyRegistry.resolve("USD"), 100);
+    service.credit("a", CurrencyRegistry.resolve("EUR"), 100);
+    service.credit("b", CurrencyRegistry.resolve("USD"), 100);
+
+    assertEquals(2, meterRegistry.get("ledger.users").gauge().value(), 0);
+    assertEquals(3, meterRegistry.get("ledger.balances").gauge().value(), 0);
+
+    service.deleteUser("a");
+
+    assertEquals(1, meterRegistry.get("ledger.users").gauge().value(), 0);
+    assertEquals(1, meterRegistry.get("ledger.balances").gauge().value(), 0);
 }
 
 }
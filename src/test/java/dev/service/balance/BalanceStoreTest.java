@@ -0,0 +1,212 @@
+package dev.service.balance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+ * This test suite checks that both balance store backends behave the same
+ * way, so either one can be selected through configuration.
+ */
+public class BalanceStoreTest {
+
+    private static final int USD = CurrencyRegistry.resolve("USD");
+    private static final int EUR = CurrencyRegistry.resolve("EUR");
+
+    private static List<BalanceStore> stores()
+    {
+        List<BalanceStore> stores = new ArrayList<>();
+
+        stores.add(new LockingBalanceStore(16));
+        stores.add(new CasBalanceStore());
+
+        return stores;
+    }
+
+    /*
+     * Credits add up per currency and debits only apply when covered.
+     */
+
+    @Test
+    void creditAndDebit()
+    {
+        for (BalanceStore store : stores())
+        {
+            assertEquals(1000, store.credit("u", USD, 1000).getBalance());
+            assertEquals(1550, store.credit("u", USD, 550).getBalance());
+
+            BalanceUpdate approved = store.debit("u", USD, 1550);
+            assertTrue(approved.isApplied());
+            assertEquals(0, approved.getBalance());
+
+            BalanceUpdate declined = store.debit("u", USD, 1);
+            assertFalse(declined.isApplied());
+            assertEquals(0, declined.getBalance());
+        }
+    }
+
+    /*
+     * Debiting a currency the user never held is declined without a balance.
+     */
+
+    @Test
+    void debitUnknownCurrency()
+    {
+        for (BalanceStore store : stores())
+        {
+            store.credit("u", USD, 1000);
+
+            BalanceUpdate declined = store.debit("u", EUR, 100);
+
+            assertFalse(declined.isApplied());
+            assertEquals(0, declined.getBalance());
+            assertFalse(store.getBalances("u").containsKey("EUR"));
+        }
+    }
+
+    /*
+     * Snapshots don't move when the user's balances change afterwards.
+     */
+
+    @Test
+    void snapshotIsStable()
+    {
+        for (BalanceStore store : stores())
+        {
+            store.credit("u", USD, 1000);
+
+            Map<String, Long> snapshot = store.getBalances("u");
+
+            store.credit("u", USD, 1000);
+            store.deleteUser("u");
+
+            assertEquals(Long.valueOf(1000), snapshot.get("USD"));
+            assertTrue(store.getBalances("u").isEmpty());
+        }
+    }
+
+    /*
+     * Users holding several currencies keep them apart in their balance array.
+     */
+
+    @Test
+    void multipleCurrencies()
+    {
+        for (BalanceStore store : stores())
+        {
+            store.credit("u", USD, 1000);
+            store.credit("u", EUR, 2000);
+            store.credit("u", USD, 500);
+            store.debit("u", EUR, 1500);
+
+            Map<String, Long> balances = store.getBalances("u");
+
+            assertEquals(2, balances.size());
+            assertEquals(Long.valueOf(1500), balances.get("USD"));
+            assertEquals(Long.valueOf(500), balances.get("EUR"));
+        }
+    }
+
+    /*
+     * A credit that would overflow is rejected and leaves the balance as is.
+     */
+
+    @Test
+    void creditOverflow()
+    {
+        for (BalanceStore store : stores())
+        {
+            store.credit("u", USD, Long.MAX_VALUE - 1);
+
+            assertThrows(ArithmeticException.class, () -> store.credit("u", USD, 2));
+            assertEquals(Long.valueOf(Long.MAX_VALUE - 1), store.getBalances("u").get("USD"));
+        }
+    }
+
+    /*
+     * Concurrent credits and debits on one user lose no updates.
+     */
+
+    @Test
+    void concurrentUpdatesSameUser() throws Exception
+    {
+        for (BalanceStore store : stores())
+        {
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            List<Future<?>> workers = new ArrayList<>();
+
+            for (int t = 0; t < 8; t++)
+            {
+                workers.add(pool.submit(() -> {
+                    for (int i = 0; i < 1_000; i++)
+                    {
+                        store.credit("hot", USD, 200);
+                        assertTrue(store.debit("hot", USD, 100).isApplied());
+                    }
+                }));
+            }
+
+            for (Future<?> worker : workers)
+            {
+                worker.get();
+            }
+
+            pool.shutdown();
+
+            assertEquals(Long.valueOf(800000), store.getBalances("hot").get("USD"));
+        }
+    }
+
+    /*
+     * A multi-user read is one snapshot: while a writer keeps crediting "a"
+     * and then "b", every read sees "a" equal to "b" or one ahead of it, never
+     * "b" ahead, as a user-by-user read could.
+     */
+
+    @Test
+    void multiUserSnapshotIsConsistent() throws Exception
+    {
+        for (BalanceStore store : stores())
+        {
+            store.credit("a", USD, 1);
+            store.credit("b", USD, 1);
+
+            AtomicBoolean done = new AtomicBoolean();
+            ExecutorService pool = Executors.newSingleThreadExecutor();
+
+            Future<?> writer = pool.submit(() -> {
+                while (!done.get())
+                {
+                    store.credit("a", USD, 1);
+                    store.credit("b", USD, 1);
+                }
+            });
+
+            for (int i = 0; i < 20_000; i++)
+            {
+                List<Map<String, Long>> balances = store.getBalances(List.of("a", "b", "nobody"));
+                long a = balances.get(0).get("USD");
+                long b = balances.get(1).get("USD");
+
+                assertTrue(a == b || a == b + 1);
+                assertTrue(balances.get(2).isEmpty());
+            }
+
+            done.set(true);
+            writer.get();
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package dev.service.balance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * This test suite covers parsing and formatting of fixed-point amounts as well
+ * as the currency precision they are scaled by.
+ */
+public class FixedPointTest {
+
+    /*
+     * Plain decimals are scaled to minor units of the currency.
+     */
+
+    @Test
+    void parseScalesToMinorUnits()
+    {
+        assertEquals(10000, FixedPoint.parse("100", 2));
+        assertEquals(323, FixedPoint.parse("3.23", 2));
+        assertEquals(50, FixedPoint.parse("0.5", 2));
+        assertEquals(50, FixedPoint.parse(".5", 2));
+        assertEquals(100, FixedPoint.parse("1.", 2));
+        assertEquals(100, FixedPoint.parse("1.000", 2));
+        assertEquals(500, FixedPoint.parse("500", 0));
+        assertEquals(1234, FixedPoint.parse("1.234", 3));
+    }
+
+    /*
+     * Anything that isn't a plain non-negative decimal within the currency's
+     * precision is rejected.
+     */
+
+    @Test
+    void parseRejectsInvalidInput()
+    {
+        String[] invalid = { "", ".", "-1", "+1", "1e3", " 1", "1 ", "1.2.3", "abc", "1,00" };
+
+        for (String text : invalid)
+        {
+            assertThrows(NumberFormatException.class, () -> FixedPoint.parse(text, 2), text);
+        }
+
+        assertThrows(NumberFormatException.class, () -> FixedPoint.parse("1.005", 2));
+        assertThrows(NumberFormatException.class, () -> FixedPoint.parse("1.5", 0));
+    }
+
+    /*
+     * tryParse reports the same problems as parse through its result, and
+     * isDecimal accepts exactly the plain decimals of any size or precision.
+     */
+
+    @Test
+    void tryParseReportsErrorsWithoutThrowing()
+    {
+        assertEquals(323, FixedPoint.tryParse("3.23", 2));
+        assertEquals(FixedPoint.INVALID, FixedPoint.tryParse("1e3", 2));
+        assertEquals(FixedPoint.INVALID, FixedPoint.tryParse("", 2));
+        assertEquals(FixedPoint.TOO_PRECISE, FixedPoint.tryParse("1.005", 2));
+        assertEquals(FixedPoint.OUT_OF_RANGE, FixedPoint.tryParse("92233720368547759", 2));
+
+        assertTrue(FixedPoint.isDecimal("1.005"));
+        assertTrue(FixedPoint.isDecimal("99999999999999999999"));
+        assertFalse(FixedPoint.isDecimal("1.2.3"));
+        assertFalse(FixedPoint.isDecimal("."));
+        assertFalse(FixedPoint.isDecimal("-1"));
+    }
+
+    /*
+     * Amounts that don't fit in a long, before or after scaling, overflow.
+     */
+
+    @Test
+    void parseDetectsOverflow()
+    {
+        assertEquals(Long.MAX_VALUE, FixedPoint.parse("92233720368547758.07", 2));
+
+        assertThrows(ArithmeticException.class, () -> FixedPoint.parse("92233720368547758.08", 2));
+        assertThrows(ArithmeticException.class, () -> FixedPoint.parse("92233720368547759", 2));
+        assertThrows(ArithmeticException.class, () -> FixedPoint.parse("99999999999999999999", 0));
+        assertThrows(ArithmeticException.class, () -> FixedPoint.add(Long.MAX_VALUE, 1));
+    }
+
+    /*
+     * Formatting always prints exactly the currency's number of fraction digits.
+     */
+
+    @Test
+    void formatPadsToScale()
+    {
+        assertEquals("3.23", FixedPoint.format(323, 2));
+        assertEquals("0.05", FixedPoint.format(5, 2));
+        assertEquals("0.00", FixedPoint.format(0, 2));
+        assertEquals("100", FixedPoint.format(100, 0));
+        assertEquals("-1.50", FixedPoint.format(-150, 2));
+        assertEquals("92233720368547758.07", FixedPoint.format(Long.MAX_VALUE, 2));
+        assertEquals(new BigDecimal("3.23"), FixedPoint.toBigDecimal(323, 2));
+        assertEquals(50000, FixedPoint.fromBigDecimal(new BigDecimal("500.00"), 2));
+        assertEquals(500, FixedPoint.fromBigDecimal(new BigDecimal("500.00"), 0));
+    }
+
+    /*
+     * Exponents follow ISO 4217, unknown codes default to two digits.
+     */
+
+    @Test
+    void currencyExponents()
+    {
+        assertEquals(2, CurrencyPrecision.exponent("USD"));
+        assertEquals(0, CurrencyPrecision.exponent("JPY"));
+        assertEquals(3, CurrencyPrecision.exponent("BHD"));
+        assertEquals(CurrencyPrecision.DEFAULT_EXPONENT, CurrencyPrecision.exponent("not-a-currency"));
+    }
+
+    /*
+     * The registry hands out one stable id per code and remembers its exponent.
+     */
+
+    @Test
+    void currencyRegistry()
+    {
+        int usd = CurrencyRegistry.resolve("USD");
+        int jpy = CurrencyRegistry.resolve("JPY");
+
+        assertEquals(usd, CurrencyRegistry.resolve("USD"));
+        assertEquals(usd, CurrencyRegistry.lookup("USD"));
+        assertEquals(-1, CurrencyRegistry.lookup("never-used"));
+        assertEquals("JPY", CurrencyRegistry.code(jpy));
+        assertEquals(0, CurrencyRegistry.exponent(jpy));
+        assertEquals(2, CurrencyRegistry.exponent(usd));
+    }
+}
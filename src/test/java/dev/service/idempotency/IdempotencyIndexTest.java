@@ -0,0 +1,199 @@
+package dev.service.idempotency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import dev.repository.EventStore;
+import dev.schemas.Result;
+import dev.schemas.ServerError;
+
+/*
+ * This test suite checks how the IdempotencyIndex tells new message ids from
+ * duplicates, against a mocked event store.
+ */
+public class IdempotencyIndexTest {
+
+    private final EventStore eventStore = mock(EventStore.class);
+
+    private IdempotencyIndex index(long cacheSize)
+    {
+        IdempotencyIndex index = new IdempotencyIndex(eventStore, 1000, 0.001, cacheSize);
+        index.start();
+
+        return index;
+    }
+
+    /*
+     * A duplicate gets the cached original response, and a new id never costs
+     * an event store lookup.
+     */
+
+    @Test
+    void duplicateGetsOriginalResponse()
+    {
+        IdempotencyIndex index = index(100);
+        Result original = new ServerError("original");
+
+        assertSame(original, index.execute("a", "m1", () -> original));
+        assertSame(original, index.execute("a", "m1", () -> new ServerError("duplicate")));
+
+        verify(eventStore, never()).exists(anyString(), anyString());
+    }
+
+    /*
+     * An id seen before startup, or evicted from the cache since, is checked
+     * against the event store and rejected without running the request.
+     */
+
+    @Test
+    void storedDuplicateIsRejected()
+    {
+        doAnswer(invocation -> {
+            ((Consumer<String>) invocation.getArgument(0)).accept("old");
+            return null;
+        }).when(eventStore).forEachMessageId(any());
+        when(eventStore.exists("a", "old")).thenReturn(true);
+
+        IdempotencyIndex index = index(100);
+
+        Result response = index.execute("a", "old", () -> {
+            throw new AssertionError("Duplicate was processed");
+        });
+
+        assertTrue(response.isError());
+        assertEquals(IdempotencyIndex.DUPLICATE_MESSAGE, ((ServerError) response).getMessage());
+    }
+
+    /*
+     * A duplicate arriving while the first request is still being processed
+     * waits for it instead of being processed alongside it.
+     */
+
+    @Test
+    void concurrentDuplicateWaitsForOriginal() throws Exception
+    {
+        IdempotencyIndex index = index(100);
+        AtomicInteger processed = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Result original = new ServerError("original");
+
+        CompletableFuture<Result> first = CompletableFuture.supplyAsync(() -> index.execute("a", "m1", () -> {
+            processed.incrementAndGet();
+            started.countDown();
+            await(release);
+            return original;
+        }));
+
+        started.await();
+
+        CompletableFuture<Result> second = CompletableFuture.supplyAsync(() -> index.execute("a", "m1", () -> {
+            processed.incrementAndGet();
+            return new ServerError("duplicate");
+        }));
+
+        release.countDown();
+
+        assertSame(original, first.get());
+        assertSame(original, second.get());
+        assertEquals(1, processed.get());
+    }
+
+    /*
+     * When processing throws, the id is released so a retry is processed.
+     */
+
+    @Test
+    void failedRequestCanBeRetried()
+    {
+        IdempotencyIndex index = index(100);
+
+        assertThrows(IllegalStateException.class, () -> index.execute("a", "m1", () -> {
+            throw new IllegalStateException("store unavailable");
+        }));
+
+        Result retried = new ServerError("retried");
+
+        assertSame(retried, index.execute("a", "m1", () -> retried));
+    }
+
+    /*
+     * A message id already used by another user's request is rejected
+     * without processing, and without handing over the other user's
+     * response.
+     */
+
+    @Test
+    void otherUsersMessageIdIsRejected()
+    {
+        IdempotencyIndex index = index(100);
+        Result original = new ServerError("original");
+
+        assertSame(original, index.execute("a", "m1", () -> original));
+
+        Result response = index.execute("b", "m1", () -> {
+            throw new AssertionError("Request of another user was processed");
+        });
+
+        assertEquals(IdempotencyIndex.DUPLICATE_MESSAGE, ((ServerError) response).getMessage());
+        assertSame(original, index.execute("a", "m1", () -> new ServerError("duplicate")));
+    }
+
+    /*
+     * A claim still being processed isn't evicted by the bounded cache of
+     * responses, however many other ids come and go meanwhile, so its
+     * duplicates keep waiting for it instead of being processed again.
+     */
+
+    @Test
+    void inFlightClaimIsNotEvicted()
+    {
+        IdempotencyIndex index = index(1);
+        IdempotencyIndex.Claim first = index.claim("a", "m1");
+
+        assertTrue(first.isNew());
+
+        for (int i = 0; i < 10; i++)
+        {
+            index.execute("a", "other-" + i, () -> new ServerError("other"));
+        }
+
+        IdempotencyIndex.Claim duplicate = index.claim("a", "m1");
+        assertFalse(duplicate.isNew());
+
+        Result original = new ServerError("original");
+        first.complete(original);
+
+        assertSame(original, duplicate.await());
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
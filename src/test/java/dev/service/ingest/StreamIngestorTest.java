@@ -0,0 +1,145 @@
+package dev.service.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.schemas.Amount;
+import dev.schemas.AuthorizationRequest;
+import dev.schemas.AuthorizationResponse;
+import dev.schemas.LoadRequest;
+import dev.schemas.LoadResponse;
+import dev.schemas.ResponseCode;
+import dev.schemas.Result;
+import dev.service.BankLedgerService;
+import jakarta.validation.Validation;
+
+/*
+ * Tests for the StreamIngestor against a mocked BankLedgerService, whose
+ * futures the tests complete themselves to control when a result is durable.
+ */
+public class StreamIngestorTest {
+
+    private final BankLedgerService service = mock(BankLedgerService.class);
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private StreamIngestor ingestor(int window)
+    {
+        return new StreamIngestor(service, objectMapper,
+            Validation.buildDefaultValidatorFactory().getValidator(), window, 256);
+    }
+
+    private static String line(String messageId, String debitOrCredit)
+    {
+        return "{\"userId\": \"u\", \"messageId\": \"" + messageId + "\", \"transactionAmount\": "
+            + "{\"amount\": \"1.00\", \"currency\": \"USD\", \"debitOrCredit\": \"" + debitOrCredit + "\"}}\n";
+    }
+
+    /*
+     * Loads and authorizations are told apart by their direction, bad lines
+     * get an error in their place, blank lines are skipped, and the results
+     * come back in the order of the lines.
+     */
+
+    @Test
+    void writesOneResultPerLineInOrder() throws Exception
+    {
+        when(service.loadAsync(any())).thenAnswer(invocation -> {
+            LoadRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(new LoadResponse("u", request.getMessageId(), request.getTransactionAmount()));
+        });
+
+        when(service.authorizeAsync(any())).thenAnswer(invocation -> {
+            AuthorizationRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(new AuthorizationResponse("u", request.getMessageId(),
+                ResponseCode.APPROVED, request.getTransactionAmount()));
+        });
+
+        String body = line("l1", "CREDIT") + "\n" + line("a1", "DEBIT") + "{not json\r\n"
+            + line("", "CREDIT") + "{\"userId\": \"" + "x".repeat(300) + "\"}\n" + line("l2", "CREDIT").trim();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long processed = ingestor(4).ingest(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), out);
+
+        List<String> results = List.of(out.toString(StandardCharsets.UTF_8).split("\n"));
+
+        assertEquals(6, processed);
+        assertEquals(6, results.size());
+        assertTrue(results.get(0).contains("\"messageId\":\"l1\""));
+        assertTrue(results.get(1).contains("\"response\":\"APPROVED\""));
+        assertTrue(results.get(2).startsWith("{\"message\":\"Malformed request"));
+        assertTrue(results.get(3).contains("messageId: "));
+        assertTrue(results.get(4).contains("Line longer than 256 characters"));
+        assertTrue(results.get(5).contains("\"messageId\":\"l2\""));
+    }
+
+    /*
+     * Once the window is full no further line is read until the oldest
+     * result is durable, and a failed write comes back as an error line.
+     */
+
+    @Test
+    void stopsReadingWhileWindowIsFull() throws Exception
+    {
+        CompletableFuture<Result> first = new CompletableFuture<>();
+        AtomicInteger submitted = new AtomicInteger();
+
+        when(service.loadAsync(any())).thenAnswer(invocation -> {
+            if (submitted.incrementAndGet() == 1)
+            {
+                return first;
+            }
+
+            LoadRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(new LoadResponse("u", request.getMessageId(), request.getTransactionAmount()));
+        });
+
+        String body = line("m1", "CREDIT") + line("m2", "CREDIT") + line("m3", "CREDIT");
+        InputStream in = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Fails the first write once the reader is blocked on it, after the second line.
+        OutputStream flushing = new OutputStream() {
+            @Override
+            public void write(int b)
+            {
+                out.write(b);
+            }
+
+            @Override
+            public void flush()
+            {
+                if (!first.isDone())
+                {
+                    assertEquals(2, submitted.get());
+                    first.completeExceptionally(new IllegalStateException("disk full"));
+                }
+            }
+        };
+
+        ingestor(2).ingest(in, flushing);
+
+        String[] results = out.toString(StandardCharsets.UTF_8).split("\n");
+
+        assertEquals(3, submitted.get());
+        assertEquals("{\"message\":\"disk full\",\"code\":null}", results[0]);
+        assertTrue(results[1].contains("\"messageId\":\"m2\""));
+        assertTrue(results[2].contains("\"messageId\":\"m3\""));
+    }
+}
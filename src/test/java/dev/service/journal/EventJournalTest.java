@@ -0,0 +1,280 @@
+package dev.service.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import dev.domain.EventTime;
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.EventStore;
+import dev.schemas.DebitCredit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * This test suite checks the batching, acknowledgement and shutdown behaviour
+ * of the EventJournal against a mocked event store.
+ */
+public class EventJournalTest {
+
+    private final EventStore eventStore = mock(EventStore.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private EventJournal journal(DurabilityMode mode, int maxBatch, Duration maxLatency)
+    {
+        EventJournal journal = new EventJournal(eventStore, meterRegistry, mode, 1024, maxBatch, maxLatency);
+        journal.start();
+
+        return journal;
+    }
+
+    private static TransactionEvent event(String messageId)
+    {
+        return new TransactionEvent("user", messageId, TransactionStatus.LOAD_SUCCESS, DebitCredit.CREDIT,
+        "USD", "1.00", Instant.now().toString());
+    }
+
+    /*
+     * Events queued while a batch is open are committed together, and every
+     * caller is acknowledged once that batch is durable. Each commit is timed
+     * and its size recorded.
+     */
+
+    @Test
+    void groupCommitBatchesEvents() throws Exception
+    {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        CountDownLatch firstCommitStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstCommit = new CountDownLatch(1);
+
+        // Hold the first commit so the rest pile up in the buffer behind it.
+        doAnswer(invocation -> {
+            batchSizes.add(((Collection<?>) invocation.getArgument(0)).size());
+            firstCommitStarted.countDown();
+            releaseFirstCommit.await();
+            return null;
+        }).when(eventStore).append(anyList());
+
+        EventJournal journal = journal(DurabilityMode.GROUP_COMMIT, 64, Duration.ofMillis(1));
+
+        List<CompletableFuture<Void>> acks = new ArrayList<>();
+        acks.add(journal.append(event("m0")));
+
+        firstCommitStarted.await();
+
+        for (int i = 1; i <= 10; i++)
+        {
+            acks.add(journal.append(event("m" + i)));
+        }
+
+        assertFalse(acks.get(1).isDone());
+
+        releaseFirstCommit.countDown();
+
+        for (CompletableFuture<Void> ack : acks)
+        {
+            ack.join();
+        }
+
+        journal.stop();
+
+        assertEquals(List.of(1, 10), batchSizes);
+        assertEquals(2, meterRegistry.get("ledger.journal.commit").timer().count());
+        assertEquals(11, meterRegistry.get("ledger.journal.batch.size").summary().totalAmount(), 0);
+    }
+
+    /*
+     * In sync mode every event gets its own commit.
+     */
+
+    @Test
+    void syncCommitsEachEvent()
+    {
+        EventJournal journal = journal(DurabilityMode.SYNC, 64, Duration.ofMillis(5));
+
+        for (int i = 0; i < 3; i++)
+        {
+            journal.append(event("s" + i)).join();
+        }
+
+        journal.stop();
+
+        verify(eventStore, times(3)).append(argThat(events -> events.size() == 1));
+    }
+
+    /*
+     * Fire-and-forget callers don't wait, yet stopping the journal still
+     * commits everything they queued.
+     */
+
+    @Test
+    void fireAndForgetDrainsOnStop()
+    {
+        List<Object> saved = new CopyOnWriteArrayList<>();
+
+        doAnswer(invocation -> {
+            saved.addAll((Collection<?>) invocation.getArgument(0));
+            return null;
+        }).when(eventStore).append(anyList());
+
+        EventJournal journal = journal(DurabilityMode.FIRE_AND_FORGET, 8, Duration.ofMillis(5));
+
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(journal.append(event("f" + i)).isDone());
+        }
+
+        journal.stop();
+
+        assertEquals(100, saved.size());
+    }
+
+    /*
+     * When a batch fails, events are retried one by one and only the event
+     * that actually fails is reported as failed.
+     */
+
+    @Test
+    void failedBatchFallsBackPerEvent() throws Exception
+    {
+        CountDownLatch firstCommitStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstCommit = new CountDownLatch(1);
+
+        doAnswer(invocation -> {
+            List<TransactionEvent> events = invocation.getArgument(0);
+
+            if (events.size() > 1 || events.get(0).getMessageId().equals("bad"))
+            {
+                throw new DataIntegrityViolationException("duplicate");
+            }
+
+            if (events.get(0).getMessageId().equals("blocker"))
+            {
+                firstCommitStarted.countDown();
+                releaseFirstCommit.await();
+            }
+
+            return null;
+        }).when(eventStore).append(anyList());
+
+        EventJournal journal = journal(DurabilityMode.GROUP_COMMIT, 64, Duration.ofMillis(1));
+
+        CompletableFuture<Void> blocker = journal.append(event("blocker"));
+        firstCommitStarted.await();
+
+        CompletableFuture<Void> good = journal.append(event("good"));
+        CompletableFuture<Void> bad = journal.append(event("bad"));
+
+        releaseFirstCommit.countDown();
+
+        blocker.join();
+        good.join();
+
+        assertTrue(bad.handle((ok, e) -> e instanceof DataIntegrityViolationException).join());
+
+        journal.stop();
+
+        // The blocker, the failed batch of two, then good and bad one at a time.
+        verify(eventStore, times(4)).append(anyList());
+    }
+
+    /*
+     * Events are numbered in commit order, carrying on from the highest
+     * number already stored.
+     */
+
+    @Test
+    void numbersEventsAfterLastStored()
+    {
+        when(eventStore.lastSequence()).thenReturn(41L);
+
+        EventJournal journal = journal(DurabilityMode.SYNC, 64, Duration.ofMillis(5));
+
+        TransactionEvent first = event("n0");
+        TransactionEvent second = event("n1");
+        journal.append(first).join();
+        journal.append(second).join();
+
+        journal.stop();
+
+        assertEquals(Long.valueOf(42), first.getSequenceNumber());
+        assertEquals(Long.valueOf(43), second.getSequenceNumber());
+    }
+
+    /*
+     * Event times carry on from the latest one already stored, so after a
+     * restart with a clock that went back, new events still don't come
+     * before stored ones in time.
+     */
+
+    @Test
+    void timesEventsAfterLastStored()
+    {
+        long stored = EventTime.now() + 60_000_000L;
+        when(eventStore.lastEventTime()).thenReturn(stored);
+
+        EventJournal journal = journal(DurabilityMode.SYNC, 64, Duration.ofMillis(5));
+
+        TransactionEvent event = event("t0");
+        journal.append(event).join();
+
+        journal.stop();
+
+        assertEquals(stored, event.getEventTime());
+    }
+
+    /*
+     * Once stopped the journal refuses events rather than queueing ones that
+     * would never be written.
+     */
+
+    @Test
+    void appendAfterStopFails()
+    {
+        EventJournal journal = journal(DurabilityMode.GROUP_COMMIT, 64, Duration.ofMillis(1));
+
+        journal.stop();
+
+        assertThrows(IllegalStateException.class, () -> journal.append(event("late")));
+    }
+
+    /*
+     * Events appended together are committed in one append even in sync mode,
+     * numbered consecutively, and acknowledged once.
+     */
+
+    @Test
+    void appendsGroupInOneCommit()
+    {
+        EventJournal journal = journal(DurabilityMode.SYNC, 64, Duration.ofMillis(5));
+
+        List<TransactionEvent> group = List.of(event("g0"), event("g1"), event("g2"));
+        journal.append(group).join();
+
+        journal.stop();
+
+        verify(eventStore, times(1)).append(argThat(events -> events.size() == 3));
+        assertEquals(Long.valueOf(1), group.get(0).getSequenceNumber());
+        assertEquals(Long.valueOf(3), group.get(2).getSequenceNumber());
+    }
+}
@@ -0,0 +1,217 @@
+package dev.service.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import dev.domain.TransactionEvent;
+import dev.domain.TransactionStatus;
+import dev.repository.log.FsyncPolicy;
+import dev.repository.log.MappedEventLog;
+import dev.schemas.DebitCredit;
+import dev.service.BalanceRebuilder;
+import dev.service.UserService;
+import dev.service.balance.LockingBalanceStore;
+
+/*
+ * This test suite checks that snapshots fold the event tail onto the previous
+ * snapshot exactly as a full replay would, and measures how much they cut the
+ * restart time.
+ */
+public class SnapshotterTest {
+
+    @TempDir
+    Path directory;
+
+    private MappedEventLog eventLog;
+    private BalanceSnapshotStore snapshotStore;
+    private long sequence;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        eventLog = new MappedEventLog(directory.resolve("events").toString(), DataSize.ofMegabytes(32),
+        FsyncPolicy.NEVER, Duration.ofSeconds(1));
+        snapshotStore = new BalanceSnapshotStore(directory.resolve("snapshots").toString(), 2);
+    }
+
+    private TransactionEvent event(String userId, TransactionStatus status, String currency, String amount)
+    {
+        DebitCredit debitOrCredit = status.name().startsWith("LOAD") ? DebitCredit.CREDIT : DebitCredit.DEBIT;
+
+        TransactionEvent event = new TransactionEvent(userId, "m" + (sequence + 1), status, debitOrCredit, currency,
+        new BigDecimal(amount), "2024-01-01T00:00:00Z");
+        event.setSequenceNumber(++sequence);
+
+        return event;
+    }
+
+    private void store(String userId, TransactionStatus status, String currency, String amount)
+    {
+        eventLog.append(List.of(event(userId, status, currency, amount)));
+    }
+
+    /*
+     * Rebuilds balances into a fresh service, from the given snapshots (which
+     * may be empty) plus the events after them.
+     */
+    private UserService restart(BalanceSnapshotStore snapshots, long[] replayed)
+    {
+        UserService userService = new UserService(new LockingBalanceStore(64));
+        replayed[0] = new BalanceRebuilder(eventLog, snapshots, userService, true, 4).rebuild();
+
+        return userService;
+    }
+
+    /*
+     * Restarting from a snapshot plus the events after it gives the same
+     * balances as replaying everything, including for events that don't move
+     * a balance, like a declined authorization.
+     */
+
+    @Test
+    void snapshotPlusTailMatchesFullReplay()
+    {
+        Snapshotter snapshotter = new Snapshotter(eventLog, snapshotStore, false, Duration.ofMinutes(5));
+
+        store("a", TransactionStatus.LOAD_SUCCESS, "USD", "100.00");
+        store("a", TransactionStatus.AUTH_SUCCESS, "USD", "40.00");
+        store("b", TransactionStatus.LOAD_SUCCESS, "JPY", "500");
+        store("b", TransactionStatus.AUTH_FAIL, "JPY", "900");
+
+        assertEquals(4, snapshotter.snapshot());
+
+        store("a", TransactionStatus.AUTH_SUCCESS, "USD", "50.00");
+        store("a", TransactionStatus.LOAD_SUCCESS, "EUR", "1.25");
+        store("b", TransactionStatus.AUTH_SUCCESS, "JPY", "200");
+        store("c", TransactionStatus.LOAD_SUCCESS, "USD", "0.01");
+
+        assertEquals(8, snapshotter.snapshot());
+
+        long[] replayed = new long[1];
+        UserService fromSnapshot = restart(snapshotStore, replayed);
+        assertEquals(0, replayed[0]);
+
+        UserService fromScratch = restart(new BalanceSnapshotStore(directory.resolve("none").toString(), 2), replayed);
+        assertEquals(8, replayed[0]);
+
+        for (String userId : List.of("a", "b", "c"))
+        {
+            assertEquals(fromScratch.getBalances(userId), fromSnapshot.getBalances(userId));
+        }
+
+        assertEquals(Long.valueOf(1000), fromSnapshot.getBalances("a").get("USD"));
+        assertEquals(Long.valueOf(125), fromSnapshot.getBalances("a").get("EUR"));
+        assertEquals(Long.valueOf(300), fromSnapshot.getBalances("b").get("JPY"));
+    }
+
+    /*
+     * An approved authorization the balance doesn't cover can't be applied,
+     * so no snapshot is written past it; a restart replays it instead of
+     * trusting balances that left it out.
+     */
+
+    @Test
+    void noSnapshotPastUncoveredAuthorization()
+    {
+        Snapshotter snapshotter = new Snapshotter(eventLog, snapshotStore, false, Duration.ofMinutes(5));
+
+        store("a", TransactionStatus.LOAD_SUCCESS, "USD", "10.00");
+        assertEquals(1, snapshotter.snapshot());
+
+        store("a", TransactionStatus.AUTH_SUCCESS, "USD", "10.01");
+        store("b", TransactionStatus.LOAD_SUCCESS, "USD", "1.00");
+
+        assertEquals(1, snapshotter.snapshot());
+        assertEquals(1, snapshotStore.latestSequence());
+    }
+
+    /*
+     * Without new events no snapshot is written, and only the configured
+     * number of snapshots is kept.
+     */
+
+    @Test
+    void keepsRetainedSnapshotsOnly() throws Exception
+    {
+        Snapshotter snapshotter = new Snapshotter(eventLog, snapshotStore, false, Duration.ofMinutes(5));
+
+        for (int i = 1; i <= 3; i++)
+        {
+            store("a", TransactionStatus.LOAD_SUCCESS, "USD", "1.00");
+            assertEquals(i, snapshotter.snapshot());
+        }
+
+        assertEquals(3, snapshotter.snapshot());
+        assertEquals(2, Files.list(directory.resolve("snapshots")).count());
+    }
+
+    /*
+     * Measures a restart with and without a recent snapshot. Without one the
+     * whole ledger is replayed; with one only the events after it are.
+     */
+
+    @Test
+    void restartTimeWithAndWithoutSnapshot()
+    {
+        int users = 10_000;
+        int events = 200_000;
+        int tail = 1_000;
+
+        List<TransactionEvent> batch = new ArrayList<>(500);
+
+        for (int i = 0; i < events; i++)
+        {
+            if (i == events - tail)
+            {
+                eventLog.append(batch);
+                batch.clear();
+                new Snapshotter(eventLog, snapshotStore, false, Duration.ofMinutes(5)).snapshot();
+            }
+
+            String userId = "user" + (i % users);
+            batch.add(i % 2 == 0 || i < users
+                ? event(userId, TransactionStatus.LOAD_SUCCESS, "USD", "10.00")
+                : event(userId, TransactionStatus.AUTH_SUCCESS, "USD", "0.50"));
+
+            if (batch.size() == 500)
+            {
+                eventLog.append(batch);
+                batch.clear();
+            }
+        }
+        eventLog.append(batch);
+
+        long[] replayed = new long[1];
+
+        long started = System.nanoTime();
+        UserService fromScratch = restart(new BalanceSnapshotStore(directory.resolve("none").toString(), 2), replayed);
+        long fullMillis = (System.nanoTime() - started) / 1_000_000;
+        assertEquals(events, replayed[0]);
+
+        started = System.nanoTime();
+        UserService fromSnapshot = restart(snapshotStore, replayed);
+        long snapshotMillis = (System.nanoTime() - started) / 1_000_000;
+        assertEquals(tail, replayed[0]);
+
+        System.out.printf("Restart over %d events: full replay %d ms, snapshot + %d event tail %d ms%n",
+        events, fullMillis, tail, snapshotMillis);
+
+        for (int user = 0; user < users; user += 97)
+        {
+            assertEquals(fromScratch.getBalances("user" + user), fromSnapshot.getBalances("user" + user));
+        }
+        assertTrue(fromSnapshot.getBalances("user0").get("USD") > 0);
+    }
+}